@@ -0,0 +1,319 @@
+package testjfx;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH micro-benchmarks for the simulation hot paths: robot movement, the robot sensors,
+ * the detection cone, robot collisions and a full arena tick. Each benchmark is swept
+ * over robot or obstacle counts from 10 to 1M by the @Param of the state it uses.
+ *
+ * Usage, from the bench module:
+ *   mvn package
+ *   java -jar target/benchmarks.jar -rf json -rff bench_results.json
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArenaBenchmarks {
+    private static final int SENSOR_ROBOTS = 1024;   // Robots probing the grid in the sensor benchmarks
+    private static final double WIDTH = 700, HEIGHT = 600;
+    private static final byte[] NO_ROBOT_OBJECTS = {}; // Type tags for an arena of compact robots only
+
+    /**
+     * Robot objects of every type, spread over the arena.
+     */
+    @State(Scope.Thread)
+    public static class Robots {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+        public int robots;
+
+        List<Robot> list;
+        UserControlledRobot user;
+
+        @Setup
+        public void setUp() {
+            list = randomRobots(robots, new Random(1));
+            user = new UserControlledRobot(WIDTH / 2, HEIGHT / 2);
+        }
+    }
+
+    /**
+     * SENSOR_ROBOTS robots of each type probing an arena of obstacles.
+     */
+    @State(Scope.Thread)
+    public static class Sensors {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+        public int obstacles;
+
+        RobotArena arena;
+        RegularRobot[] regular = new RegularRobot[SENSOR_ROBOTS];
+        WhiskerRobot[] whiskers = new WhiskerRobot[SENSOR_ROBOTS];
+        GhostRobot[] ghosts = new GhostRobot[SENSOR_ROBOTS];
+
+        @Setup
+        public void setUp() {
+            arena = arenaWithObstacles(obstacles);
+            Random random = new Random(3);
+            for (int i = 0; i < SENSOR_ROBOTS; i++) {
+                double x = random.nextDouble() * WIDTH, y = random.nextDouble() * HEIGHT;
+                double direction = random.nextDouble() * 360;
+                regular[i] = new RegularRobot(x, y, direction);
+                whiskers[i] = new WhiskerRobot(x, y, direction);
+                ghosts[i] = new GhostRobot(x, y, direction);
+            }
+        }
+    }
+
+    /**
+     * Compact robots at constant density, one per 100x100 pixels, for robot collisions.
+     */
+    @State(Scope.Thread)
+    public static class Crowd {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+        public int robots;
+
+        RobotArena arena;
+        double side;
+
+        @Setup
+        public void setUp() {
+            side = 100 * Math.sqrt(robots);
+            arena = RobotArena.empty(side, side);
+            Random random = new Random(7);
+            RobotType[] types = RobotType.values();
+            for (int i = 0; i < robots; i++) {
+                arena.getCompactRobots().add(types[i % types.length], 40 + random.nextDouble() * (side - 80),
+                                             40 + random.nextDouble() * (side - 80), random.nextDouble() * 360);
+            }
+        }
+    }
+
+    /**
+     * An engine stepping robot objects around 20 obstacles.
+     */
+    @State(Scope.Thread)
+    public static class ObjectTick {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+        public int robots;
+
+        SimulationEngine engine;
+
+        @Setup
+        public void setUp() {
+            RobotArena arena = arenaWithObstacles(20);
+            for (Robot robot : randomRobots(robots, new Random(6))) {
+                arena.addItem(robot);
+            }
+            // Park the user robot outside the arena so the population stays constant
+            engine = new SimulationEngine(arena, new UserControlledRobot(-1000, -1000));
+        }
+    }
+
+    /**
+     * An engine stepping compact robots around 20 obstacles, their types taking turns.
+     */
+    @State(Scope.Thread)
+    public static class CompactTick {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+        public int robots;
+
+        SimulationEngine engine;
+
+        @Setup
+        public void setUp() {
+            engine = compactEngine(robots, false);
+        }
+    }
+
+    /**
+     * As CompactTick, with the types in random order, so per-robot type checks cannot be predicted.
+     */
+    @State(Scope.Thread)
+    public static class MixedCompactTick {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+        public int robots;
+
+        SimulationEngine engine;
+
+        @Setup
+        public void setUp() {
+            engine = compactEngine(robots, true);
+        }
+    }
+
+    /**
+     * As CompactTick, recording telemetry; the writer thread encodes and writes apart from the tick.
+     */
+    @State(Scope.Thread)
+    public static class TelemetryTick {
+        @Param({"10", "100", "1000", "10000", "100000", "1000000"})
+        public int robots;
+
+        SimulationEngine engine;
+        TelemetryWriter telemetry;
+        Path file;
+
+        @Setup
+        public void setUp() throws IOException {
+            engine = compactEngine(robots, false);
+            file = Files.createTempFile("bench", "." + TelemetryFile.EXTENSION);
+            telemetry = new TelemetryWriter(file, WIDTH, HEIGHT);
+            engine.setTelemetry(telemetry);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            engine.setTelemetry(null);
+            telemetry.close();
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public void robotMove(Robots state, Blackhole blackhole) {
+        List<Robot> robots = state.list;
+        for (int i = 0; i < robots.size(); i++) {
+            robots.get(i).move();
+        }
+        blackhole.consume(robots.get(0).getX());
+    }
+
+    // Robots that turn every tick, so each move works out a new heading
+    @Benchmark
+    public void robotTurnAndMove(Robots state, Blackhole blackhole) {
+        turnAndMove(state.list, blackhole);
+    }
+
+    @Benchmark
+    public void robotTurnAndMoveTable(Robots state, Blackhole blackhole) {
+        Kinematics.setTableTrig(true);
+        turnAndMove(state.list, blackhole);
+        Kinematics.setTableTrig(false);
+    }
+
+    @Benchmark
+    public void regularDetectCollision(Sensors state, Blackhole blackhole) {
+        for (RegularRobot robot : state.regular) {
+            blackhole.consume(robot.detectCollision(state.arena));
+        }
+    }
+
+    @Benchmark
+    public void whiskerDetectCollision(Sensors state, Blackhole blackhole) {
+        for (WhiskerRobot robot : state.whiskers) {
+            blackhole.consume(robot.detectCollision(state.arena));
+        }
+    }
+
+    @Benchmark
+    public void ghostDetectProximity(Sensors state, Blackhole blackhole) {
+        for (GhostRobot robot : state.ghosts) {
+            blackhole.consume(robot.detectProximity(state.arena));
+        }
+    }
+
+    @Benchmark
+    public void isInDetectionCone(Robots state, Blackhole blackhole) {
+        List<Robot> robots = state.list;
+        for (int i = 0; i < robots.size(); i++) {
+            Robot robot = robots.get(i);
+            blackhole.consume(state.user.isInDetectionCone(robot.getX(), robot.getY()));
+        }
+    }
+
+    // The robots move too, so the sort has motion to keep up with
+    @Benchmark
+    public int robotCollisions(Crowd state) {
+        state.arena.getCompactRobots().moveAll(1, state.side, state.side);
+        return state.arena.collideRobots(NO_ROBOT_OBJECTS);
+    }
+
+    @Benchmark
+    public void arenaTick(ObjectTick state) {
+        state.engine.step(1);
+    }
+
+    @Benchmark
+    public void arenaTickCompact(CompactTick state) {
+        state.engine.step(1);
+    }
+
+    @Benchmark
+    public void arenaTickCompactMixed(MixedCompactTick state) {
+        state.engine.step(1);
+    }
+
+    // One step as long as 8 ticks, so every move is swept; compare with 8 arenaTickCompact steps
+    @Benchmark
+    public void arenaTickCompactSwept(CompactTick state) {
+        state.engine.step(8);
+    }
+
+    @Benchmark
+    public void arenaTickCompactTelemetry(TelemetryTick state) {
+        state.engine.step(1);
+    }
+
+    private static void turnAndMove(List<Robot> robots, Blackhole blackhole) {
+        for (int i = 0; i < robots.size(); i++) {
+            Robot robot = robots.get(i);
+            robot.direction += 1;
+            robot.move();
+        }
+        blackhole.consume(robots.get(0).getX());
+    }
+
+    private static List<Robot> randomRobots(int count, Random random) {
+        RobotType[] types = RobotType.values();
+        List<Robot> robots = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            robots.add(types[i % types.length].create(40 + random.nextDouble() * (WIDTH - 80),
+                                                      40 + random.nextDouble() * (HEIGHT - 80),
+                                                      random.nextDouble() * 360));
+        }
+        return robots;
+    }
+
+    private static RobotArena arenaWithObstacles(int count) {
+        RobotArena arena = new RobotArena(2, WIDTH, HEIGHT);
+        for (int i = 1; i < count; i++) { // The arena starts with one obstacle
+            arena.addRandomObstacle();
+        }
+        arena.updateGrid();
+        return arena;
+    }
+
+    private static SimulationEngine compactEngine(int count, boolean randomTypes) {
+        RobotArena arena = arenaWithObstacles(20);
+        Random random = new Random(6);
+        RobotType[] types = RobotType.values();
+        RobotStore store = arena.getCompactRobots();
+        for (int i = 0; i < count; i++) {
+            RobotType type = randomTypes ? types[random.nextInt(types.length)] : types[i % types.length];
+            store.add(type, 40 + random.nextDouble() * (WIDTH - 80), 40 + random.nextDouble() * (HEIGHT - 80),
+                      random.nextDouble() * 360);
+        }
+        return new SimulationEngine(arena, new UserControlledRobot(-1000, -1000));
+    }
+}
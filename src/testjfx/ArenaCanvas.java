@@ -3,53 +3,172 @@ package testjfx;
 import javafx.animation.AnimationTimer;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Manages the drawing and interactions within the robot arena.
+ * Drawing is split into two stacked layers: a static layer with the border and
+ * obstacles, redrawn only when the obstacles or the view change, and a transparent
+ * robot layer on top of it, where each frame erases only the areas the robots were
+ * drawn in. The world can be larger than the canvas; dragging with the mouse pans
+ * the camera and the scroll wheel zooms it.
+ *
+ * The simulation runs on its own SimulationThread. This class never touches the engine
+ * directly: user actions are queued to the simulation thread as commands, and each
+ * frame draws the latest snapshot it published, with robots interpolated between their
+ * last two steps. A canvas can also draw the snapshots of some other source, such as a
+ * spectator watching an arena simulated in another process; it then only shows the arena,
+ * and the commands and keys that would change it are ignored.
  */
 public class ArenaCanvas {
-    private AnimationTimer time;   //attributes
-    private final Canvas canvas;   
-    private RobotArena arena;
+    private static final double ZOOM_STEP = 1.25; // Zoom factor per scroll wheel notch
+    private static final long STATS_INTERVAL = 500_000_000L; // Nanoseconds between performance overlay updates
+
+    private final AnimationTimer time;            // Draws each frame
+    private final Canvas canvas;                  // Robot layer, on top and receiving key events
     private final GraphicsContext graphics;
+    private final Canvas staticCanvas;            // Border and obstacle layer
+    private final GraphicsContext staticGraphics;
+    private final StackPane view;                 // The two layers stacked
     private boolean isRunning = false;
 
-    private final UserControlledRobot userRobot;  // Declare the user-controlled robot
+    private final Camera camera;                  // The part of the world on screen
+    private double dragX, dragY;                  // Mouse position at the last drag event
+    private long drawnArenaSerial = -1;           // Arena the static layer was drawn from
+    private long drawnObstacleVersion;            // Its obstacle version at the time
+    private long drawnCameraVersion = -1;         // The camera version at the time
+    private ArenaSnapshot drawnSnapshot;          // Snapshot the robot layer was last drawn from
+    private final DirtyRegions dirty = new DirtyRegions(); // Areas the robots were drawn in last frame
+
+    private final SimulationThread simulation;    // Runs the engine, this class only renders it; null when spectating
+    private final SnapshotSource source;          // Publishes the snapshots drawn
+    private final TickProfiler profiler;          // The engine's profiler, which is safe to share; its own when spectating
+    private final SpriteCache sprites = new SpriteCache(); // Pre-rendered robot images
+    private final UserControlledRobot userView = new UserControlledRobot(0, 0); // Draws the user-controlled robot
+    private final Set<KeyCode> heldKeys = EnumSet.noneOf(KeyCode.class); // Control keys held down
+    private long drawnInputAt = 0;                // Key press time of the snapshot last drawn
+    private Consumer<String> statsListener;       // Receives the profiler's summary while profiling, or null
+    private long lastStats;                       // When the summary was last passed on
 
     public ArenaCanvas(double width, double height) {
+        this(width, height, width, height);
+    }
+
+    /**
+     * Creates the canvas showing a world of a different size.
+     *
+     * @param width       The width of the canvas.
+     * @param height      The height of the canvas.
+     * @param worldWidth  The width of the world.
+     * @param worldHeight The height of the world.
+     */
+    public ArenaCanvas(double width, double height, double worldWidth, double worldHeight) {
+        this(width, height, worldWidth, worldHeight, System.nanoTime());
+    }
+
+    /**
+     * Creates the canvas and starts a recorded session.
+     *
+     * @param width       The width of the canvas.
+     * @param height      The height of the canvas.
+     * @param worldWidth  The width of the world.
+     * @param worldHeight The height of the world.
+     * @param seed        The seed the session's randomness derives from.
+     */
+    public ArenaCanvas(double width, double height, double worldWidth, double worldHeight, long seed) {
+        this.staticCanvas = new Canvas(width, height);
+        this.staticGraphics = staticCanvas.getGraphicsContext2D();
         this.canvas = new Canvas(width, height);
         this.graphics = canvas.getGraphicsContext2D();
-        this.arena = new RobotArena();
+        this.view = new StackPane(staticCanvas, canvas);
+
+        // Default obstacles and robots, with the user-controlled robot at the centre of the world
+        SimulationEngine engine = SimulationEngine.newSession(seed, worldWidth, worldHeight);
+        engine.startRecording();
+        profiler = engine.getProfiler();
 
-        // Initialise the user-controlled robot at the centre of the arena
-        userRobot = new UserControlledRobot(width / 2, height / 2);
+        // Start looking at the user-controlled robot
+        camera = new Camera(width, height);
+        camera.setWorld(worldWidth, worldHeight);
+        camera.centreOn(engine.getUserRobot().getX(), engine.getUserRobot().getY());
 
-        // Initialise with some default obstacles
-        initialiseObstacles(5); // Example: 5 default obstacles
+        // From here on the engine belongs to the simulation thread
+        simulation = new SimulationThread(engine);
+        source = simulation;
+        simulation.start();
+        drawArena();
+        listen();
+        time = startDrawing();
+    }
 
+    /**
+     * Creates a canvas that only draws the snapshots of another source, e.g. a spectator client.
+     *
+     * @param width  The width of the canvas.
+     * @param height The height of the canvas.
+     * @param source The source of the snapshots.
+     */
+    public ArenaCanvas(double width, double height, SnapshotSource source) {
+        this.staticCanvas = new Canvas(width, height);
+        this.staticGraphics = staticCanvas.getGraphicsContext2D();
+        this.canvas = new Canvas(width, height);
+        this.graphics = canvas.getGraphicsContext2D();
+        this.view = new StackPane(staticCanvas, canvas);
+        this.simulation = null;
+        this.source = source;
+        this.profiler = new TickProfiler(); // Only times the frames
+        this.camera = new Camera(width, height);
+        drawArena();
+        listen();
+        time = startDrawing();
+    }
+
+    /**
+     * Handles key and mouse input on the canvas.
+     */
+    private void listen() {
         // Set the canvas focusable to receive key events
         canvas.setFocusTraversable(true);
 
-        // Handle key events for user control
+        // Handle key events for user control, letting go of every key when focus moves away
         canvas.setOnKeyPressed(this::handleKeyPress);
+        canvas.setOnKeyReleased(this::handleKeyRelease);
+        canvas.focusedProperty().addListener((property, wasFocused, focused) -> {
+            if (!focused) releaseKeys();
+        });
+
+        // Pan by dragging, zoom with the scroll wheel
+        canvas.setOnMousePressed(this::handleMousePress);
+        canvas.setOnMouseDragged(this::handleMouseDrag);
+        canvas.setOnScroll(this::handleScroll);
     }
 
     /**
-     * Initialises the arena with random obstacles.
+     * Starts drawing a frame whenever there is something new to show.
      *
-     * @param count The number of obstacles to add.
+     * @return The timer drawing the frames.
      */
-    private void initialiseObstacles(int count) {
-        for (int i = 0; i < count; i++) {
-            arena.addItem(new Obstacle(canvas.getWidth(), canvas.getHeight()));
-        }
-        drawArena(); // Redraw the arena after adding obstacles
+    private AnimationTimer startDrawing() {
+        AnimationTimer timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drawFrame();
+            }
+        };
+        timer.start();
+        return timer;
     }
 
     /**
-     * Gets the canvas to be displayed in the UI.
+     * Gets the canvas that receives key events.
      *
      * @return The canvas.
      */
@@ -58,48 +177,158 @@ public class ArenaCanvas {
     }
 
     /**
-     * Draws arena, including robots and obstacles.
+     * Gets the stacked layers to be displayed in the UI.
+     *
+     * @return The layered view.
+     */
+    public StackPane getView() {
+        return view;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * Draws a frame if the simulation has published a new snapshot, the robots are moving
+     * between steps or the view has changed, and passes on the profiler's summary.
+     */
+    private void drawFrame() {
+        ArenaSnapshot snapshot = source.latest();
+        if (snapshot == drawnSnapshot && !snapshot.isRunning() && camera.getVersion() == drawnCameraVersion) {
+            return; // Nothing has changed since the last frame
+        }
+        long drawStart = System.nanoTime();
+        drawArena(snapshot, drawStart);
+        long drawEnd = System.nanoTime();
+        profiler.record(TickProfiler.Phase.DRAW, drawEnd - drawStart);
+        if (snapshot.getInputAt() != drawnInputAt) {
+            // First frame showing the robot respond to a key press
+            drawnInputAt = snapshot.getInputAt();
+            profiler.record(TickProfiler.Phase.INPUT, drawEnd - drawnInputAt);
+        }
+
+        if (statsListener != null && profiler.isEnabled() && drawStart - lastStats >= STATS_INTERVAL) {
+            lastStats = drawStart;
+            statsListener.accept(profiler.summary());
+        }
+    }
+
+    /**
+     * Draws arena, including robots and obstacles, as of the latest snapshot.
      */
     public void drawArena() {
-        // Clear the canvas
-        graphics.setFill(Color.WHITE);
-        graphics.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        drawArena(source.latest(), System.nanoTime());
+    }
 
-        // Draw the arena border
-        graphics.setStroke(Color.BLACK);
-        graphics.setLineWidth(5);
-        graphics.strokeRect(0, 0, canvas.getWidth(), canvas.getHeight());
+    /**
+     * Draws a snapshot of the arena.
+     *
+     * @param snapshot The snapshot to draw.
+     * @param now      The time of the frame, for interpolating the robots.
+     */
+    private void drawArena(ArenaSnapshot snapshot, long now) {
+        if (snapshot.getArenaSerial() != drawnArenaSerial) {
+            camera.setWorld(snapshot.getWidth(), snapshot.getHeight());
+        }
+        if (camera.getVersion() != drawnCameraVersion) {
+            // Last frame's regions were drawn through the old view, so start the robot layer afresh
+            graphics.setTransform(1, 0, 0, 1, 0, 0);
+            graphics.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+            dirty.reset();
+            drawStaticLayer(snapshot);
+        } else if (snapshot.getArenaSerial() != drawnArenaSerial
+                   || snapshot.getObstacleVersion() != drawnObstacleVersion) {
+            drawStaticLayer(snapshot);
+        }
+
+        // Erase the robots where they were last frame, then draw them where they are now
+        camera.apply(graphics);
+        dirty.clear(graphics, camera.getMinX(), camera.getMinY(),
+                    camera.getMaxX() - camera.getMinX(), camera.getMaxY() - camera.getMinY());
+        double alpha = snapshot.alphaAt(now);
+        snapshot.drawRobots(graphics, sprites, dirty, camera, alpha);
 
-        // Draw all robots and obstacles in the arena
-        arena.drawAll(graphics);
-        userRobot.draw(graphics);  // Draw the user-controlled robot
+        userView.x = snapshot.getUserX(alpha);
+        userView.y = snapshot.getUserY(alpha);
+        userView.direction = snapshot.getUserDirection();
+        userView.draw(graphics);  // Draw the user-controlled robot
+        dirty.add(userView.getX(), userView.getY(), userView.drawRadius());
+        drawnSnapshot = snapshot;
     }
 
     /**
-     * Removes the last added obstacle and redraws the arena.
+     * Draws the background, border and the obstacles in view.
+     *
+     * @param snapshot The snapshot of the arena to draw.
+     */
+    private void drawStaticLayer(ArenaSnapshot snapshot) {
+        // Clear the canvas, greying out anything beyond the world's edges
+        staticGraphics.setTransform(1, 0, 0, 1, 0, 0);
+        staticGraphics.setFill(Color.GREY);
+        staticGraphics.fillRect(0, 0, staticCanvas.getWidth(), staticCanvas.getHeight());
+        camera.apply(staticGraphics);
+        staticGraphics.setFill(Color.WHITE);
+        staticGraphics.fillRect(0, 0, snapshot.getWidth(), snapshot.getHeight());
+
+        // Draw the arena border, 5 pixels wide whatever the zoom
+        staticGraphics.setStroke(Color.BLACK);
+        staticGraphics.setLineWidth(5 / camera.getZoom());
+        staticGraphics.strokeRect(0, 0, snapshot.getWidth(), snapshot.getHeight());
+
+        snapshot.drawObstacles(staticGraphics, camera);
+        drawnArenaSerial = snapshot.getArenaSerial();
+        drawnObstacleVersion = snapshot.getObstacleVersion();
+        drawnCameraVersion = camera.getVersion();
+    }
+
+    /**
+     * Removes the last added obstacle. The arena is redrawn once the simulation thread has done so.
      */
     public void removeLastObstacle() {
-        arena.removeLastObstacle(); // Remove the last obstacle added by the user
-        drawArena(); // Redraw the arena
+        submit(SimulationEngine::removeLastObstacle); // Remove the last obstacle added by the user
     }
 
     /**
-     * Adds a robot to the arena and redraws it.
+     * Adds a robot at a random position.
      *
-     * @param robot The robot to add.
+     * @param type The type of robot to add.
      */
-    public void addRobot(Robot robot) {
-        arena.addItem(robot); // Add the robot to the arena
-        drawArena(); // Redraw the arena
+    public void addRobot(RobotType type) {
+        submit(engine -> engine.addRobot(type)); // Add the robot to the arena
     }
 
     /**
-     * Adds a random obstacle to the arena and redraws it.
+     * Adds a random obstacle to the arena.
      */
     public void addObstacle() {
-        Obstacle obstacle = new Obstacle(canvas.getWidth(), canvas.getHeight());
-        arena.addItem(obstacle); // Add the new obstacle to the arena
-        drawArena(); // Redraw the arena
+        submit(SimulationEngine::addObstacle); // Add the new obstacle to the arena
+    }
+
+    /**
+     * Replaces the arena with a fresh one.
+     */
+    public void resetArena() {
+        submit(SimulationEngine::resetArena);
+    }
+
+    /**
+     * Runs a command on the simulation thread, between steps, e.g. to save the arena.
+     * The command must not touch the JavaFX scene; pass results back with Platform.runLater.
+     *
+     * @param command The command, given the engine.
+     */
+    public void execute(Consumer<SimulationEngine> command) {
+        submit(command);
+    }
+
+    /**
+     * Queues a command to the simulation thread, or drops it when spectating.
+     */
+    private void submit(Consumer<SimulationEngine> command) {
+        if (simulation != null) {
+            simulation.submit(command);
+        }
     }
 
 
@@ -107,75 +336,103 @@ public class ArenaCanvas {
      * Starts the simulation, enabling robot movement and behaviours.
      */
     public void startSimulation() {
-        if (isRunning) return; // Avoid starting multiple times
+        if (isRunning || simulation == null) return; // Avoid starting multiple times
         isRunning = true;
-
-        time = new AnimationTimer() {
-            @Override
-            public void handle(long now) {
-                // Move robots and handle interactions
-                for (ArenaItem item : arena.getItems()) {
-                    if (item instanceof Robot robot) {
-                        robot.move(); // Move the robot
-
-                        // Check for collisions with obstacles
-                        for (ArenaItem obstacle : arena.getItems()) {
-                            if (obstacle instanceof Obstacle) {
-                                if (robot instanceof RegularRobot bumpRobot) {
-                                    bumpRobot.detectCollision((Obstacle) obstacle);
-                                } else if (robot instanceof WhiskerRobot whiskerRobot) {
-                                    whiskerRobot.detectCollision((Obstacle) obstacle);
-                                } else if (robot instanceof GhostRobot ghostRobot) {
-                                    ghostRobot.detectProximity((Obstacle) obstacle);
-                                }
-                            }
-                        }
-                    }
-                }
-
-                // Detect and remove robots in the user-controlled robot's detection cone
-                userRobot.detectAndRemoveRobots(arena.getItems());
-
-                drawArena(); // Redraw the arena after updates
-            }
-        };
-        time.start();
+        simulation.setRunning(true);
     }
 
     /**
      * Pauses the simulation, stopping robot movement.
      */
     public void pauseSimulation() {
-        if (!isRunning) return; // Avoid pausing if not running
+        if (!isRunning || simulation == null) return; // Avoid pausing if not running
         isRunning = false;
-        time.stop();
+        simulation.setRunning(false);
     }
 
     /**
-     * Returns the RobotArena instance managed by this canvas.
+     * Sets how much faster than real time the simulation runs.
      *
-     * @return The RobotArena object.
+     * @param timeScale The time scale, from FixedStepClock.MIN_TIME_SCALE to FixedStepClock.MAX_TIME_SCALE.
      */
-    public RobotArena getArena() {
-        return arena;
+    public void setTimeScale(double timeScale) {
+        if (simulation == null) return;
+        simulation.setTimeScale(timeScale);
     }
-    
+
     /**
-     * Sets the arena state.
+     * Turns tick profiling on or off. While it is on, a summary of the timings is passed
+     * to a listener every STATS_INTERVAL, e.g. to show as an overlay.
      *
-     * @param arena The new arena state to set.
+     * @param enabled  Whether to profile.
+     * @param listener Receives the summary text, or null.
+     */
+    public void setProfiling(boolean enabled, Consumer<String> listener) {
+        profiler.setEnabled(enabled);
+        statsListener = enabled ? listener : null;
+        lastStats = 0;
+    }
+
+    /**
+     * Returns the profiler timing the simulation's ticks and this canvas's frames.
+     *
+     * @return The tick profiler.
+     */
+    public TickProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Replaces the arena, e.g. with one loaded from a file.
+     *
+     * @param arena The new arena state to set, no longer used by the caller.
      */
     public void setArena(RobotArena arena) {
-        this.arena = arena;  // Set the new arena
-        drawArena();  // Redraw the arena
+        submit(engine -> engine.setArena(arena));  // Set the new arena
+    }
+
+    private void handleMousePress(MouseEvent event) {
+        dragX = event.getX();
+        dragY = event.getY();
+    }
+
+    private void handleMouseDrag(MouseEvent event) {
+        camera.pan(event.getX() - dragX, event.getY() - dragY);
+        dragX = event.getX();
+        dragY = event.getY();
+    }
+
+    private void handleScroll(ScrollEvent event) {
+        if (event.getDeltaY() == 0) return;
+        camera.zoomAt(event.getDeltaY() > 0 ? ZOOM_STEP : 1 / ZOOM_STEP, event.getX(), event.getY());
     }
 
     /**
-     * Handles key press events to control the user-controlled robot.
+     * Handles key press events to control the user-controlled robot. Only the first press
+     * of a held key counts; the keyboard's repeats are ignored.
      *
      * @param event The key event triggered by the user.
      */
     private void handleKeyPress(KeyEvent event) {
-        userRobot.handleKeyInput(event);  // Delegate key press handling to the user-controlled robot
+        KeyCode code = event.getCode();
+        if (simulation != null && UserControlledRobot.isControlKey(code) && heldKeys.add(code)) {
+            simulation.input(code, true);  // The simulation steers the robot while the key is held
+        }
+    }
+
+    private void handleKeyRelease(KeyEvent event) {
+        if (heldKeys.remove(event.getCode())) {
+            simulation.input(event.getCode(), false);
+        }
+    }
+
+    /**
+     * Releases every held key, e.g. when the canvas loses focus and would miss the releases.
+     */
+    private void releaseKeys() {
+        for (KeyCode code : heldKeys) {
+            simulation.input(code, false);
+        }
+        heldKeys.clear();
     }
 }
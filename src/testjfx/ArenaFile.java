@@ -0,0 +1,199 @@
+package testjfx;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Reads and writes arenas in the binary .arena format.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header      magic "ARNA", version (short), record size (short), type count (int), item count (long),
+ *               world width, world height (doubles, since version 2)
+ *   type table  per type: id (byte), name length (short), UTF-8 name
+ *   records     per item: type id (byte), flags (byte), x, y, direction, speed (doubles)
+ * </pre>
+ * Records are fixed width, so files are written in large buffered chunks and read
+ * back one record at a time from a memory-mapped view, without building an object graph.
+ */
+public final class ArenaFile {
+    public static final String EXTENSION = "arena";
+
+    private static final int MAGIC = 0x414E5241; // "ARNA" read as a little-endian int
+    private static final short VERSION = 2;
+    private static final int RECORD_SIZE = 2 + 4 * Double.BYTES;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte FLAG_COMPACT = 1; // Robot lives in the arena's compact store
+
+    // Type table: ids are positions in this list, names are what the file stores
+    private static final List<String> TYPE_NAMES = List.of("Obstacle", "RegularRobot", "WhiskerRobot", "GhostRobot");
+    private static final byte OBSTACLE = 0;
+
+    private ArenaFile() {
+    }
+
+    /**
+     * Writes an arena, including its compactly stored robots. Robots of no RobotType
+     * have no behaviour the format could name, so they are left out.
+     *
+     * @param arena The arena to save.
+     * @param file  The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write(RobotArena arena, Path file) throws IOException {
+        List<Obstacle> obstacles = arena.getObstaclesInOrder(); // Loading adds them back in the same order
+        List<Robot> robots = arena.getRobots();
+        RobotStore compactRobots = arena.getCompactRobots();
+        int typedRobots = 0;
+        for (Robot robot : robots) {
+            if (robot.getType() != null) typedRobots++;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            // Header
+            buffer.putInt(MAGIC);
+            buffer.putShort(VERSION);
+            buffer.putShort((short) RECORD_SIZE);
+            buffer.putInt(TYPE_NAMES.size());
+            buffer.putLong((long) obstacles.size() + typedRobots + compactRobots.size());
+            buffer.putDouble(arena.getWidth());
+            buffer.putDouble(arena.getHeight());
+
+            // Type table
+            for (int id = 0; id < TYPE_NAMES.size(); id++) {
+                byte[] name = TYPE_NAMES.get(id).getBytes(StandardCharsets.UTF_8);
+                buffer.put((byte) id);
+                buffer.putShort((short) name.length);
+                buffer.put(name);
+            }
+
+            // Records, flushing whenever the buffer cannot take another one
+            for (Obstacle obstacle : obstacles) {
+                if (buffer.remaining() < RECORD_SIZE) flush(channel, buffer);
+                putRecord(buffer, OBSTACLE, (byte) 0, obstacle.getX(), obstacle.getY(), 0, 0);
+            }
+            for (Robot robot : robots) {
+                if (robot.getType() == null) continue;
+                if (buffer.remaining() < RECORD_SIZE) flush(channel, buffer);
+                putRecord(buffer, typeId(robot.getType()), (byte) 0,
+                          robot.getX(), robot.getY(), robot.direction, robot.speed);
+            }
+            for (int i = 0; i < compactRobots.size(); i++) {
+                if (buffer.remaining() < RECORD_SIZE) flush(channel, buffer);
+                putRecord(buffer, typeId(compactRobots.getType(i)), FLAG_COMPACT, compactRobots.getX(i),
+                          compactRobots.getY(i), compactRobots.getDirection(i), compactRobots.getSpeed(i));
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Reads an arena, streaming the records straight into a new arena.
+     *
+     * @param file The file to read.
+     * @return The loaded arena.
+     * @throws IOException If the file cannot be read or is not a valid arena file.
+     */
+    public static RobotArena read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            // Header
+            if (buffer.remaining() < 20 || buffer.getInt() != MAGIC) {
+                throw new IOException("Not an arena file: " + file);
+            }
+            short version = buffer.getShort();
+            if (version > VERSION) {
+                throw new IOException("Unsupported arena file version " + version + ": " + file);
+            }
+            int recordSize = buffer.getShort();
+            int typeCount = buffer.getInt();
+            long itemCount = buffer.getLong();
+            double width = RobotArena.DEFAULT_WIDTH, height = RobotArena.DEFAULT_HEIGHT;
+            if (version >= 2) {
+                if (buffer.remaining() < 2 * Double.BYTES) {
+                    throw new IOException("Truncated arena file: " + file);
+                }
+                width = buffer.getDouble();
+                height = buffer.getDouble();
+            }
+
+            // Type table, mapping the file's ids to ours
+            byte[] typeMap = new byte[256];
+            for (int t = 0; t < typeCount; t++) {
+                int fileId = buffer.get() & 0xFF;
+                byte[] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                int id = TYPE_NAMES.indexOf(new String(name, StandardCharsets.UTF_8));
+                if (id < 0) {
+                    throw new IOException("Unknown item type '" + new String(name, StandardCharsets.UTF_8) + "' in " + file);
+                }
+                typeMap[fileId] = (byte) id;
+            }
+
+            if (recordSize < RECORD_SIZE || buffer.remaining() < itemCount * recordSize) {
+                throw new IOException("Truncated arena file: " + file);
+            }
+
+            // Records
+            RobotArena arena = RobotArena.empty(width, height);
+            RobotStore compactRobots = arena.getCompactRobots();
+            for (long n = 0; n < itemCount; n++) {
+                int start = buffer.position();
+                byte type = typeMap[buffer.get() & 0xFF];
+                byte flags = buffer.get();
+                double x = buffer.getDouble();
+                double y = buffer.getDouble();
+                double direction = buffer.getDouble();
+                double speed = buffer.getDouble();
+                buffer.position(start + recordSize); // Skip fields added by later versions
+
+                if (type == OBSTACLE) {
+                    arena.addItem(Obstacle.at(x, y));
+                } else if ((flags & FLAG_COMPACT) != 0) {
+                    int i = compactRobots.add(RobotType.fromTag(type - 1), x, y, direction);
+                    compactRobots.setSpeed(i, speed);
+                } else {
+                    Robot robot = RobotType.fromTag(type - 1).create(x, y, direction);
+                    robot.speed = speed;
+                    arena.addItem(robot);
+                }
+            }
+            return arena;
+        }
+    }
+
+    private static byte typeId(RobotType type) {
+        return (byte) (type.tag() + 1); // Robot types follow the obstacle in the type table
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte type, byte flags,
+                                  double x, double y, double direction, double speed) {
+        buffer.put(type);
+        buffer.put(flags);
+        buffer.putDouble(x);
+        buffer.putDouble(y);
+        buffer.putDouble(direction);
+        buffer.putDouble(speed);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -8,6 +8,7 @@ import javafx.scene.canvas.GraphicsContext;
  */
 public abstract class ArenaItem {
     protected double x, y;
+    int handle = -1; // Handle in the arena holding the item, -1 when it is in none
 
     public ArenaItem(double x, double y) {
         this.x = x;
@@ -28,4 +29,14 @@ public abstract class ArenaItem {
     public double getY() {
         return y;
     }
+
+    /**
+     * Returns the item's handle in the arena holding it.
+     * The handle stays the same for as long as the item is in the arena.
+     *
+     * @return The handle, or -1 if the item is in no arena.
+     */
+    public int getHandle() {
+        return handle;
+    }
 }
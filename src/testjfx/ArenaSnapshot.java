@@ -0,0 +1,435 @@
+package testjfx;
+
+import javafx.scene.canvas.GraphicsContext;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A copy of everything needed to draw the arena at one moment: robot positions, headings
+ * and types, the obstacles and the user-controlled robot. The simulation thread fills a
+ * snapshot after its steps and hands it to the renderer, which draws it without ever
+ * touching the live arena. Snapshots are reused, so their arrays are only reallocated
+ * when the number of robots outgrows them.
+ *
+ * Robot items and compactly stored robots are copied into one set of arrays. Robots
+ * without a RobotType are not copied; the user-controlled robot is copied separately.
+ * A snapshot can also be filled piece by piece from somewhere other than an engine, such
+ * as a spectator client rebuilding the arena from what a server sent it.
+ */
+public final class ArenaSnapshot {
+    private static final double DOT_LOD_RADIUS = 6;     // On-screen body radius below which robots are drawn as dots
+    private static final double PIXEL_LOD_RADIUS = 1.5; // ... and below which they are drawn as pixel-sized squares
+    private static final Obstacle[] NO_OBSTACLES = {};
+
+    volatile long sequence = 0;   // Increases with every snapshot published, 0 before the first
+    private long tick;            // The engine's tick count
+    private long arenaSerial;     // Changes whenever the engine's arena is replaced
+    private long obstacleVersion; // The arena's obstacle version
+    private double width, height; // Size of the arena
+    private boolean running;      // Whether the simulation was running
+    private long steppedAt;       // System.nanoTime() when the last step finished
+    private double stepNanos;     // Real time between steps at the current time scale
+
+    private int robotCount = 0;
+    private byte[] tags = new byte[0];      // RobotType tag of each robot
+    private float[] x = new float[0];       // Positions after the last step
+    private float[] y = new float[0];
+    private float[] dx = new float[0];      // Distance moved in the last step
+    private float[] dy = new float[0];
+    private float[] direction = new float[0]; // Directions in degrees
+    private Obstacle[] obstacles = NO_OBSTACLES; // Obstacles never move, so they are shared, not copied
+    private int obstacleCount = 0;
+    private double userX, userY, userDirection; // The user-controlled robot
+    private double userDX, userDY;              // Distance it moved in the last step
+    private long inputAt;                       // When the latest key press stepped was made, or 0
+
+    // One reusable robot per type, for drawing robots in full
+    private final Robot[] views = new Robot[RobotType.values().length];
+
+    /**
+     * Copies the engine's state into this snapshot. Must be called on the thread running the engine.
+     *
+     * @param engine      The engine.
+     * @param arenaSerial Identifies the engine's current arena.
+     * @param running     Whether the simulation is running.
+     * @param steppedAt   When the last step finished.
+     * @param stepNanos   Real time between steps.
+     * @param inputAt     When the latest key press stepped was made, or 0.
+     */
+    void capture(SimulationEngine engine, long arenaSerial, boolean running, long steppedAt, double stepNanos,
+                 long inputAt) {
+        RobotArena arena = engine.getArena();
+        this.tick = engine.getTickCount();
+        this.width = arena.getWidth();
+        this.height = arena.getHeight();
+        this.running = running;
+        this.steppedAt = steppedAt;
+        this.stepNanos = stepNanos;
+        this.inputAt = inputAt;
+
+        // Obstacles only change between steps now and then, so only copy them when they have
+        if (arenaSerial != this.arenaSerial || arena.getObstacleVersion() != obstacleVersion || sequence == 0) {
+            List<Obstacle> arenaObstacles = arena.getObstacles();
+            obstacleCount = arenaObstacles.size();
+            if (obstacles.length < obstacleCount) {
+                obstacles = new Obstacle[obstacleCount + obstacleCount / 4];
+            }
+            for (int i = 0; i < obstacleCount; i++) {
+                obstacles[i] = arenaObstacles.get(i);
+            }
+            Arrays.fill(obstacles, obstacleCount, obstacles.length, null);
+            this.arenaSerial = arenaSerial;
+            this.obstacleVersion = arena.getObstacleVersion();
+        }
+
+        List<Robot> robots = arena.getRobots();
+        RobotStore compactRobots = arena.getCompactRobots();
+        ensureCapacity(robots.size() + compactRobots.size());
+        int n = 0;
+        for (int i = 0; i < robots.size(); i++) {
+            Robot robot = robots.get(i);
+            RobotType type = robot.getType();
+            if (type != null) {
+                tags[n] = type.tag();
+                x[n] = (float) robot.getX();
+                y[n] = (float) robot.getY();
+                dx[n] = (float) (robot.getX() - robot.previousX);
+                dy[n] = (float) (robot.getY() - robot.previousY);
+                direction[n] = (float) robot.direction;
+                n++;
+            }
+        }
+        for (int i = 0; i < compactRobots.size(); i++) {
+            tags[n] = compactRobots.getTag(i);
+            x[n] = (float) compactRobots.getX(i);
+            y[n] = (float) compactRobots.getY(i);
+            dx[n] = (float) (compactRobots.getX(i) - compactRobots.interpolateX(i, 0));
+            dy[n] = (float) (compactRobots.getY(i) - compactRobots.interpolateY(i, 0));
+            direction[n] = (float) compactRobots.getDirection(i);
+            n++;
+        }
+        robotCount = n;
+
+        UserControlledRobot userRobot = engine.getUserRobot();
+        userX = userRobot.getX();
+        userY = userRobot.getY();
+        userDirection = userRobot.direction;
+        userDX = userRobot.getX() - userRobot.previousX;
+        userDY = userRobot.getY() - userRobot.previousY;
+    }
+
+    /**
+     * Sets what a snapshot shows apart from the robots and obstacles, when not captured from an engine.
+     *
+     * @param tick        The tick count.
+     * @param arenaSerial Identifies the arena, changing whenever it is replaced.
+     * @param width       The width of the arena.
+     * @param height      The height of the arena.
+     * @param running     Whether the arena is moving.
+     * @param steppedAt   When the last step arrived.
+     * @param stepNanos   Real time between steps.
+     */
+    void setFrame(long tick, long arenaSerial, double width, double height, boolean running, long steppedAt,
+                  double stepNanos) {
+        this.tick = tick;
+        this.arenaSerial = arenaSerial;
+        this.width = width;
+        this.height = height;
+        this.running = running;
+        this.steppedAt = steppedAt;
+        this.stepNanos = stepNanos;
+    }
+
+    /**
+     * Sets the obstacles, when not captured from an engine. The array is shared, not copied,
+     * so it must not be changed afterwards.
+     *
+     * @param obstacles The obstacles.
+     * @param count     The number of obstacles in the array.
+     * @param version   Changes whenever the obstacles do.
+     */
+    void setObstacles(Obstacle[] obstacles, int count, long version) {
+        this.obstacles = obstacles;
+        this.obstacleCount = count;
+        this.obstacleVersion = version;
+    }
+
+    /**
+     * Sets the number of robots, when not captured from an engine; each is then set with setRobot.
+     *
+     * @param count The number of robots.
+     */
+    void setRobotCount(int count) {
+        ensureCapacity(count);
+        robotCount = count;
+    }
+
+    /**
+     * Sets one robot, when not captured from an engine.
+     *
+     * @param i         The robot's index, below the robot count.
+     * @param tag       Its RobotType tag.
+     * @param x         Its x-coordinate after the last step.
+     * @param y         Its y-coordinate after the last step.
+     * @param dx        The distance it moved along x in the last step.
+     * @param dy        The distance it moved along y in the last step.
+     * @param direction Its direction in degrees.
+     */
+    void setRobot(int i, byte tag, float x, float y, float dx, float dy, float direction) {
+        this.tags[i] = tag;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.dx[i] = dx;
+        this.dy[i] = dy;
+        this.direction[i] = direction;
+    }
+
+    /**
+     * Sets the user-controlled robot, when not captured from an engine.
+     *
+     * @param x         Its x-coordinate after the last step.
+     * @param y         Its y-coordinate after the last step.
+     * @param direction Its direction in degrees.
+     * @param dx        The distance it moved along x in the last step.
+     * @param dy        The distance it moved along y in the last step.
+     */
+    void setUserRobot(double x, double y, double direction, double dx, double dy) {
+        userX = x;
+        userY = y;
+        userDirection = direction;
+        userDX = dx;
+        userDY = dy;
+    }
+
+    private void ensureCapacity(int count) {
+        if (tags.length < count) {
+            int capacity = count + count / 4;
+            tags = new byte[capacity];
+            x = new float[capacity];
+            y = new float[capacity];
+            dx = new float[capacity];
+            dy = new float[capacity];
+            direction = new float[capacity];
+        }
+    }
+
+    public long getTick() {
+        return tick;
+    }
+
+    public long getArenaSerial() {
+        return arenaSerial;
+    }
+
+    public long getObstacleVersion() {
+        return obstacleVersion;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public int getRobotCount() {
+        return robotCount;
+    }
+
+    public int getObstacleCount() {
+        return obstacleCount;
+    }
+
+    /**
+     * Returns a robot's RobotType tag.
+     *
+     * @param i The robot's index, below getRobotCount.
+     * @return The tag.
+     */
+    byte getTag(int i) {
+        return tags[i];
+    }
+
+    /**
+     * Returns a robot's x-coordinate after the last step.
+     *
+     * @param i The robot's index, below getRobotCount.
+     * @return The x-coordinate.
+     */
+    float getX(int i) {
+        return x[i];
+    }
+
+    /**
+     * Returns a robot's y-coordinate after the last step.
+     *
+     * @param i The robot's index, below getRobotCount.
+     * @return The y-coordinate.
+     */
+    float getY(int i) {
+        return y[i];
+    }
+
+    /**
+     * Returns a robot's direction after the last step.
+     *
+     * @param i The robot's index, below getRobotCount.
+     * @return The direction in degrees.
+     */
+    float getDirection(int i) {
+        return direction[i];
+    }
+
+    /**
+     * Returns the user-controlled robot's x-coordinate part of the way through its last move.
+     *
+     * @param alpha How far through the move, from 0 to 1.
+     * @return The interpolated x-coordinate.
+     */
+    public double getUserX(double alpha) {
+        return userX + userDX * (alpha - 1);
+    }
+
+    /**
+     * Returns the user-controlled robot's y-coordinate part of the way through its last move.
+     *
+     * @param alpha How far through the move, from 0 to 1.
+     * @return The interpolated y-coordinate.
+     */
+    public double getUserY(double alpha) {
+        return userY + userDY * (alpha - 1);
+    }
+
+    public double getUserDirection() {
+        return userDirection;
+    }
+
+    public long getInputAt() {
+        return inputAt;
+    }
+
+    /**
+     * Returns how far through the last step to draw the robots at a given time. The display
+     * runs one step behind the simulation, so it reaches the snapshot's positions just as the
+     * next step is due.
+     *
+     * @param now The time of the frame, from System.nanoTime().
+     * @return The fraction of the step, from 0 to 1; 1 while paused.
+     */
+    public double alphaAt(long now) {
+        if (!running) return 1;
+        return Math.max(0, Math.min(1, (now - steppedAt) / stepNanos));
+    }
+
+    /**
+     * Draws the obstacles the camera can see.
+     *
+     * @param graphics The graphics context to draw on, set up with the camera's transform.
+     * @param camera   The camera the arena is seen through.
+     */
+    public void drawObstacles(GraphicsContext graphics, Camera camera) {
+        for (int i = 0; i < obstacleCount; i++) {
+            Obstacle obstacle = obstacles[i];
+            if (camera.isVisible(obstacle.getX(), obstacle.getY(), obstacle.getSizing())) {
+                obstacle.draw(graphics);
+            }
+        }
+    }
+
+    /**
+     * Draws the robots the camera can see, recording the area each one covers.
+     * How a robot is drawn depends on how large it appears: zoomed in past 1:1 robots are
+     * drawn in full, at normal sizes from pre-rendered sprites, and once they are only a few
+     * pixels across as plain dots or pixel-sized squares in their type's colour.
+     * Robots are drawn part of the way through their last move, so the display moves
+     * smoothly even when steps and frames do not line up.
+     *
+     * @param graphics The graphics context to draw on, set up with the camera's transform.
+     * @param sprites  The sprite cache to draw robots from.
+     * @param dirty    Collects the regions drawn.
+     * @param camera   The camera the arena is seen through.
+     * @param alpha    How far through the last move to draw the robots, from 0 to 1.
+     */
+    public void drawRobots(GraphicsContext graphics, SpriteCache sprites, DirtyRegions dirty, Camera camera,
+                           double alpha) {
+        double zoom = camera.getZoom();
+        double bodyPixels = Robot.BODY_RADIUS * zoom; // On-screen body radius
+        if (bodyPixels < DOT_LOD_RADIUS) {
+            drawRobotDots(graphics, dirty, camera, bodyPixels < PIXEL_LOD_RADIUS ? 1 / zoom : Robot.BODY_RADIUS, alpha);
+            return;
+        }
+
+        boolean detailed = zoom > 1; // Sprites would be magnified and blurry
+        double back = alpha - 1;     // Positions are stored after the move, so step back from there
+        for (int i = 0; i < robotCount; i++) {
+            RobotType type = RobotType.fromTag(tags[i]);
+            double robotX = x[i] + dx[i] * back, robotY = y[i] + dy[i] * back;
+            double radius = sprites.getRadius(type);
+            if (camera.isVisible(robotX, robotY, radius)) {
+                if (detailed) {
+                    view(type, robotX, robotY, direction[i]).draw(graphics);
+                } else {
+                    sprites.draw(graphics, type, robotX, robotY, direction[i]);
+                }
+                dirty.add(robotX, robotY, radius);
+            }
+        }
+    }
+
+    /**
+     * Returns this snapshot's reusable robot of a type, placed to draw one robot in full.
+     */
+    private Robot view(RobotType type, double robotX, double robotY, double robotDirection) {
+        Robot view = views[type.tag()];
+        if (view == null) {
+            view = type.create(0, 0, 0);
+            views[type.tag()] = view;
+        }
+        view.x = robotX;
+        view.y = robotY;
+        view.direction = robotDirection;
+        return view;
+    }
+
+    /**
+     * Draws each visible robot as a plain square or circle in its type's colour,
+     * one type at a time so the fill only changes once per type.
+     *
+     * @param graphics The graphics context to draw on.
+     * @param dirty    Collects the regions drawn.
+     * @param camera   The camera the arena is seen through.
+     * @param radius   The radius of each dot in world units.
+     * @param alpha    How far through the last move to draw the robots, from 0 to 1.
+     */
+    private void drawRobotDots(GraphicsContext graphics, DirtyRegions dirty, Camera camera, double radius,
+                               double alpha) {
+        boolean circles = radius == Robot.BODY_RADIUS; // Pixel-sized dots are drawn as squares
+        double back = alpha - 1;
+        for (RobotType type : RobotType.values()) {
+            graphics.setFill(type.getColour());
+            byte tag = type.tag();
+            for (int i = 0; i < robotCount; i++) {
+                if (tags[i] == tag) {
+                    drawDot(graphics, dirty, camera, x[i] + dx[i] * back, y[i] + dy[i] * back, radius, circles);
+                }
+            }
+        }
+    }
+
+    private static void drawDot(GraphicsContext graphics, DirtyRegions dirty, Camera camera,
+                                double x, double y, double radius, boolean circle) {
+        if (camera.isVisible(x, y, radius)) {
+            if (circle) {
+                graphics.fillOval(x - radius, y - radius, 2 * radius, 2 * radius);
+            } else {
+                graphics.fillRect(x - radius, y - radius, 2 * radius, 2 * radius);
+            }
+            dirty.add(x, y, radius);
+        }
+    }
+}
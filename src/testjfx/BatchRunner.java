@@ -0,0 +1,254 @@
+package testjfx;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many independent headless arenas across all cores and writes aggregated
+ * statistics per configuration to a CSV file, for experiments that need more runs than
+ * one window can show.
+ * A configuration is a population, the robot types spawned in equal shares, and a number
+ * of obstacles; each one is run in a number of arenas with their own seeds. Every arena
+ * has the user-controlled robot standing still in its centre, removing the robots that
+ * wander into its detection cone, and runs single-threaded until its ticks are up or no
+ * robots are left. The arenas run side by side on a fixed pool of worker threads, one
+ * arena per thread at a time, so throughput grows with the cores while memory only ever
+ * holds as many arenas as there are threads. Each finished arena keeps just its figures.
+ *
+ * An arena's results depend only on its seed and configuration, not on the number of
+ * threads or the order the arenas ran in, apart from its ticks per second.
+ *
+ * Usage: java testjfx.BatchRunner [output.csv] [--runs=N] [--ticks=N] [--robots=N]
+ *        [--populations=REGULAR,WHISKER+GHOST,...] [--obstacles=0,5,20] [--size=WxH]
+ *        [--dt=ticks] [--distribution=UNIFORM] [--collisions] [--seed=N] [--threads=N]
+ */
+public class BatchRunner {
+    private static final RobotType[] TYPES = RobotType.values();
+
+    /**
+     * One arena to run.
+     */
+    private record Job(int config, long seed) {
+    }
+
+    /**
+     * What one arena ended up with.
+     */
+    private record Outcome(long ticks, long nanos, int remaining, double survival,
+                           long[] obstacleContacts, long[] robotContacts) {
+    }
+
+    private final List<RobotType[]> populations = new ArrayList<>(); // Robot types of each population
+    private final List<String> populationNames = new ArrayList<>();  // Each population as given on the command line
+    private int[] obstacleCounts = {0, 5, 20};
+    private int runs = 100;          // Arenas per configuration
+    private int ticks = 1000;        // Most ticks run in each arena
+    private int robots = 1000;       // Robots spawned in each arena
+    private double width = RobotArena.DEFAULT_WIDTH, height = RobotArena.DEFAULT_HEIGHT;
+    private double dt = 1;           // Length of each step in ticks
+    private Population.Distribution distribution = Population.Distribution.UNIFORM;
+    private boolean collisions = false;
+    private long seed = 1;           // Seed the arenas' seeds are drawn from
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) throws Exception {
+        BatchRunner runner = new BatchRunner();
+        Path output = Path.of("batch_results.csv");
+        String populations = "REGULAR,WHISKER,GHOST,REGULAR+WHISKER+GHOST";
+        for (String arg : args) {
+            if (arg.startsWith("--runs=")) {
+                runner.runs = Integer.parseInt(arg.substring(7));
+            } else if (arg.startsWith("--ticks=")) {
+                runner.ticks = Integer.parseInt(arg.substring(8));
+            } else if (arg.startsWith("--robots=")) {
+                runner.robots = Integer.parseInt(arg.substring(9));
+            } else if (arg.startsWith("--populations=")) {
+                populations = arg.substring(14);
+            } else if (arg.startsWith("--obstacles=")) {
+                String[] counts = arg.substring(12).split(",");
+                runner.obstacleCounts = new int[counts.length];
+                for (int i = 0; i < counts.length; i++) {
+                    runner.obstacleCounts[i] = Integer.parseInt(counts[i]);
+                }
+            } else if (arg.startsWith("--size=")) {
+                String[] size = arg.substring(7).split("x");
+                runner.width = Double.parseDouble(size[0]);
+                runner.height = Double.parseDouble(size[1]);
+            } else if (arg.startsWith("--dt=")) {
+                runner.dt = Double.parseDouble(arg.substring(5));
+            } else if (arg.startsWith("--distribution=")) {
+                runner.distribution = Population.Distribution.valueOf(arg.substring(15));
+            } else if (arg.equals("--collisions")) {
+                runner.collisions = true;
+            } else if (arg.startsWith("--seed=")) {
+                runner.seed = Long.parseLong(arg.substring(7));
+            } else if (arg.startsWith("--threads=")) {
+                runner.threads = Integer.parseInt(arg.substring(10));
+            } else {
+                output = Path.of(arg);
+            }
+        }
+        for (String population : populations.split(",")) {
+            String[] names = population.split("\\+");
+            RobotType[] types = new RobotType[names.length];
+            for (int i = 0; i < names.length; i++) {
+                types[i] = RobotType.valueOf(names[i]);
+            }
+            runner.populations.add(types);
+            runner.populationNames.add(population);
+        }
+        runner.run(output);
+    }
+
+    /**
+     * Runs every arena of every configuration and writes one CSV row per configuration.
+     *
+     * @param output The CSV file to write.
+     * @throws IOException If the file cannot be written.
+     * @throws Exception   If an arena failed.
+     */
+    private void run(Path output) throws Exception {
+        // Draw every arena's seed up front, so no arena's seed depends on which thread ran what
+        int configs = populations.size() * obstacleCounts.length;
+        Job[] jobs = new Job[configs * runs];
+        SplittableRandom seeds = new SplittableRandom(seed);
+        for (int i = 0; i < jobs.length; i++) {
+            jobs[i] = new Job(i / runs, seeds.nextLong());
+        }
+        System.out.printf(Locale.ROOT, "Running %d arenas (%d configurations x %d runs) on %d threads%n",
+                jobs.length, configs, runs, threads);
+
+        // Each worker claims the next arena until none are left
+        Outcome[] outcomes = new Outcome[jobs.length];
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(pool.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < jobs.length; i = next.getAndIncrement()) {
+                        outcomes[i] = runArena(jobs[i]);
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long totalTicks = 0;
+        for (Outcome outcome : outcomes) {
+            totalTicks += outcome.ticks();
+        }
+        writeCsv(output, outcomes);
+        System.out.printf(Locale.ROOT, "%d arenas, %d ticks in %.2f s: %.0f ticks/s, %.1f arenas/s%n",
+                jobs.length, totalTicks, seconds, totalTicks / seconds, jobs.length / seconds);
+    }
+
+    /**
+     * Builds one arena from its seed and runs it to the end.
+     */
+    private Outcome runArena(Job job) {
+        RobotType[] types = populations.get(job.config() / obstacleCounts.length);
+        int obstacles = obstacleCounts[job.config() % obstacleCounts.length];
+
+        RobotArena arena = new RobotArena(job.seed(), width, height);
+        while (arena.getObstacles().size() > obstacles) {
+            arena.removeLastObstacle();
+        }
+        while (arena.getObstacles().size() < obstacles) {
+            arena.addRandomObstacle();
+        }
+        arena.spawnRobots(types, robots, distribution, arena.getRandom().nextLong(), true);
+        SimulationEngine engine = new SimulationEngine(arena, new UserControlledRobot(width / 2, height / 2));
+        engine.setRobotCollisions(collisions);
+
+        // Run until the ticks are up or the cone has removed every robot
+        long robotTicks = 0; // Robots left after each step, summed over the steps
+        int remaining = robots;
+        long start = System.nanoTime();
+        long steps = 0;
+        while (steps * dt < ticks && remaining > 0) {
+            engine.step(dt);
+            steps++;
+            remaining = arena.getRobots().size() + arena.getCompactRobots().size();
+            robotTicks += remaining;
+        }
+        long nanos = System.nanoTime() - start;
+
+        long[] obstacleContacts = new long[TYPES.length];
+        long[] robotContacts = new long[TYPES.length];
+        for (RobotType type : TYPES) {
+            obstacleContacts[type.tag()] = engine.getObstacleContacts(type);
+            robotContacts[type.tag()] = arena.getRobotContacts(type);
+        }
+        long maxSteps = (long) Math.ceil(ticks / dt);
+        double survival = robots == 0 || maxSteps == 0 ? 1 : (double) robotTicks / ((double) robots * maxSteps);
+        return new Outcome(steps, nanos, remaining, survival, obstacleContacts, robotContacts);
+    }
+
+    /**
+     * Writes the outcomes summarised per configuration: the mean of each figure over the
+     * configuration's arenas, and the spread of the robots remaining.
+     */
+    private void writeCsv(Path output, Outcome[] outcomes) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(output))) {
+            StringBuilder header = new StringBuilder(
+                    "population,obstacles,arenas,robots,ticks,dt,collisions,ticksPerSec,stepsMean,"
+                    + "remainingMean,remainingStdev,remainingMin,remainingMax,cleared,survivalMean");
+            for (RobotType type : TYPES) {
+                String name = type.name().toLowerCase(Locale.ROOT);
+                header.append(',').append(name).append("ObstacleContacts");
+                header.append(',').append(name).append("RobotContacts");
+            }
+            out.println(header);
+
+            int configs = populations.size() * obstacleCounts.length;
+            for (int config = 0; config < configs; config++) {
+                double ticksPerSec = 0, steps = 0, remaining = 0, remainingSquares = 0, survival = 0;
+                int min = Integer.MAX_VALUE, max = 0, cleared = 0;
+                double[] obstacleContacts = new double[TYPES.length];
+                double[] robotContacts = new double[TYPES.length];
+                for (int i = config * runs; i < (config + 1) * runs; i++) {
+                    Outcome outcome = outcomes[i];
+                    ticksPerSec += outcome.nanos() == 0 ? 0 : outcome.ticks() * dt * 1e9 / outcome.nanos();
+                    steps += outcome.ticks();
+                    remaining += outcome.remaining();
+                    remainingSquares += (double) outcome.remaining() * outcome.remaining();
+                    min = Math.min(min, outcome.remaining());
+                    max = Math.max(max, outcome.remaining());
+                    if (outcome.remaining() == 0) cleared++;
+                    survival += outcome.survival();
+                    for (int t = 0; t < TYPES.length; t++) {
+                        obstacleContacts[t] += outcome.obstacleContacts()[t];
+                        robotContacts[t] += outcome.robotContacts()[t];
+                    }
+                }
+                double mean = remaining / runs;
+                double stdev = Math.sqrt(Math.max(0, remainingSquares / runs - mean * mean));
+                out.printf(Locale.ROOT, "%s,%d,%d,%d,%d,%s,%b,%.1f,%.1f,%.2f,%.2f,%d,%d,%d,%.4f",
+                        populationNames.get(config / obstacleCounts.length), obstacleCounts[config % obstacleCounts.length],
+                        runs, robots, ticks, dt, collisions, ticksPerSec / runs, steps / runs,
+                        mean, stdev, min, max, cleared, survival / runs);
+                for (int t = 0; t < TYPES.length; t++) {
+                    out.printf(Locale.ROOT, ",%.1f,%.1f", obstacleContacts[t] / runs, robotContacts[t] / runs);
+                }
+                out.println();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package testjfx;
+
+/**
+ * The behaviour stage registered for each robot type. Each step the engine runs every
+ * type's robots through that type's stage; types without a stage have no sensors.
+ */
+public class BehaviourPipeline {
+    private static final RobotType[] TYPES = RobotType.values();
+
+    private final BehaviourStage[] stages = new BehaviourStage[TYPES.length]; // Indexed by type tag
+
+    /**
+     * Creates a pipeline with the built-in robots' stages: bump sensors for regular robots,
+     * whiskers for whisker robots and obstacle proximity for ghosts.
+     *
+     * @return The standard pipeline.
+     */
+    public static BehaviourPipeline standard() {
+        BehaviourPipeline pipeline = new BehaviourPipeline();
+        pipeline.register(RobotType.REGULAR, new RegularRobot.BumpStage());
+        pipeline.register(RobotType.WHISKER, new WhiskerRobot.WhiskerStage());
+        pipeline.register(RobotType.GHOST, new GhostRobot.ProximityStage());
+        return pipeline;
+    }
+
+    /**
+     * Sets the stage a type of robot runs through, replacing any registered before.
+     *
+     * @param type  The robot type.
+     * @param stage The stage, or null for none.
+     */
+    public void register(RobotType type, BehaviourStage stage) {
+        stages[type.tag()] = stage;
+    }
+
+    /**
+     * Returns the stage a type of robot runs through.
+     *
+     * @param type The robot type.
+     * @return The stage, or null if there is none.
+     */
+    public BehaviourStage getStage(RobotType type) {
+        return stages[type.tag()];
+    }
+}
@@ -0,0 +1,37 @@
+package testjfx;
+
+import java.util.List;
+
+/**
+ * The obstacle sensors and responses of one type of robot, run after the robots move.
+ * The engine groups the robots by type and hands a stage only robots of its own type,
+ * so each stage is a tight loop over one class of robot instead of a type check per robot.
+ *
+ * Groups are split into chunks that may run in parallel, so a stage must only read the
+ * arena and change the robots it is given.
+ */
+public interface BehaviourStage {
+    /**
+     * Runs the stage for robot items.
+     *
+     * @param arena   The arena, with its obstacle grids up to date.
+     * @param robots  The arena's robot items.
+     * @param members Indices into robots; those from from to to are all of this stage's type.
+     * @param from    The first position in members to run.
+     * @param to      One past the last position in members to run.
+     * @return The number of robots whose sensor detected an obstacle.
+     */
+    int senseItems(RobotArena arena, List<Robot> robots, int[] members, int from, int to);
+
+    /**
+     * Runs the stage for compactly stored robots.
+     *
+     * @param arena   The arena, with its obstacle grids up to date.
+     * @param store   The arena's compact robot store.
+     * @param members Indices into the store; those from from to to are all of this stage's type.
+     * @param from    The first position in members to run.
+     * @param to      One past the last position in members to run.
+     * @return The number of robots whose sensor detected an obstacle.
+     */
+    int senseCompact(RobotArena arena, RobotStore store, int[] members, int from, int to);
+}
@@ -0,0 +1,262 @@
+package testjfx;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over the obstacles' boxes, for casting short rays such as whiskers
+ * against them. Each box is entered in every cell it overlaps, so a ray only tests the
+ * boxes in the cells it passes through, and those cells are visited in order along the
+ * ray by a DDA traversal, stepping across whichever cell border the ray reaches next.
+ * A ray's cost therefore depends on its length and how crowded the boxes are where it
+ * goes, not on how many boxes there are in total.
+ *
+ * Cells are hashed into buckets as in SpatialGrid, so the grid covers a world of any
+ * size without storing its empty cells. Casting only reads the grid, so any number of
+ * threads may cast at once between rebuilds.
+ */
+public class BoxGrid {
+    private final double cellSize; // Width and height of one cell in pixels; should be at least the largest box
+
+    private int size;              // Number of boxes indexed
+    private int mask;              // Bucket table size - 1 (table size is a power of two)
+    private int[] bucketStart = new int[1];     // Start of each bucket in the entry arrays
+    private int[] entryCellX = new int[0];      // Cell column of each entry, grouped by bucket
+    private int[] entryCellY = new int[0];      // Cell row of each entry
+    private double[] entryMinX = new double[0]; // Bounds of each entry's box
+    private double[] entryMinY = new double[0];
+    private double[] entryMaxX = new double[0];
+    private double[] entryMaxY = new double[0];
+
+    /**
+     * A batch of rays to cast together, with room for their results. Batches are reused,
+     * so casting many rays a tick allocates nothing once the arrays have grown.
+     */
+    public static final class RayBatch {
+        private int count = 0;
+        private double[] fromX = new double[64]; // Start of each ray
+        private double[] fromY = new double[64];
+        private double[] toX = new double[64];   // End of each ray
+        private double[] toY = new double[64];
+        private boolean[] hit = new boolean[64]; // Whether each ray touched a box, after casting
+
+        /**
+         * Empties the batch.
+         */
+        public void clear() {
+            count = 0;
+        }
+
+        /**
+         * Adds a ray, a line segment, to the batch.
+         *
+         * @param x0 The x-coordinate of the start.
+         * @param y0 The y-coordinate of the start.
+         * @param x1 The x-coordinate of the end.
+         * @param y1 The y-coordinate of the end.
+         * @return The index of the ray in the batch.
+         */
+        public int add(double x0, double y0, double x1, double y1) {
+            if (count == fromX.length) {
+                int capacity = count * 2;
+                fromX = Arrays.copyOf(fromX, capacity);
+                fromY = Arrays.copyOf(fromY, capacity);
+                toX = Arrays.copyOf(toX, capacity);
+                toY = Arrays.copyOf(toY, capacity);
+                hit = Arrays.copyOf(hit, capacity);
+            }
+            fromX[count] = x0;
+            fromY[count] = y0;
+            toX[count] = x1;
+            toY[count] = y1;
+            return count++;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        /**
+         * Tells whether a ray touched a box when the batch was last cast.
+         *
+         * @param ray The index returned by add.
+         * @return True if the ray touched a box.
+         */
+        public boolean isHit(int ray) {
+            return hit[ray];
+        }
+    }
+
+    /**
+     * Creates an empty grid.
+     *
+     * @param cellSize The cell size, normally a little more than the largest box.
+     */
+    public BoxGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rebuilds the grid from the obstacles, each one a square box twice its sizing across.
+     *
+     * @param obstacles The obstacles to index.
+     */
+    public void rebuild(List<Obstacle> obstacles) {
+        size = obstacles.size();
+
+        // Count the cells each box overlaps, to size the entry arrays
+        int entries = 0;
+        for (Obstacle obstacle : obstacles) {
+            double half = obstacle.getSizing();
+            entries += (cellOf(obstacle.getX() + half) - cellOf(obstacle.getX() - half) + 1)
+                     * (cellOf(obstacle.getY() + half) - cellOf(obstacle.getY() - half) + 1);
+        }
+        if (entryCellX.length < entries) {
+            int capacity = Math.max(entries, entryCellX.length * 2);
+            entryCellX = new int[capacity];
+            entryCellY = new int[capacity];
+            entryMinX = new double[capacity];
+            entryMinY = new double[capacity];
+            entryMaxX = new double[capacity];
+            entryMaxY = new double[capacity];
+        }
+        int tableSize = Integer.highestOneBit(Math.max(16, entries * 2) - 1) << 1;
+        if (bucketStart.length != tableSize + 1) {
+            bucketStart = new int[tableSize + 1];
+        } else {
+            Arrays.fill(bucketStart, 0);
+        }
+        mask = tableSize - 1;
+
+        // Counting sort of the entries into their buckets, as in SpatialGrid
+        for (Obstacle obstacle : obstacles) {
+            double half = obstacle.getSizing();
+            for (int cy = cellOf(obstacle.getY() - half), maxCy = cellOf(obstacle.getY() + half); cy <= maxCy; cy++) {
+                for (int cx = cellOf(obstacle.getX() - half), maxCx = cellOf(obstacle.getX() + half); cx <= maxCx; cx++) {
+                    bucketStart[bucketOf(cx, cy) + 1]++;
+                }
+            }
+        }
+        for (int b = 0; b < tableSize; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+        for (int i = 0; i < size; i++) {
+            Obstacle obstacle = obstacles.get(i);
+            double half = obstacle.getSizing();
+            double minX = obstacle.getX() - half, minY = obstacle.getY() - half;
+            double maxX = obstacle.getX() + half, maxY = obstacle.getY() + half;
+            for (int cy = cellOf(minY), maxCy = cellOf(maxY); cy <= maxCy; cy++) {
+                for (int cx = cellOf(minX), maxCx = cellOf(maxX); cx <= maxCx; cx++) {
+                    int e = bucketStart[bucketOf(cx, cy)]++;
+                    entryCellX[e] = cx;
+                    entryCellY[e] = cy;
+                    entryMinX[e] = minX;
+                    entryMinY[e] = minY;
+                    entryMaxX[e] = maxX;
+                    entryMaxY[e] = maxY;
+                }
+            }
+        }
+        System.arraycopy(bucketStart, 0, bucketStart, 1, tableSize);
+        bucketStart[0] = 0;
+    }
+
+    /**
+     * Casts every ray in a batch, recording for each whether it touched a box.
+     *
+     * @param rays The rays.
+     * @return The number of rays that touched a box.
+     */
+    public int castRays(RayBatch rays) {
+        int hits = 0;
+        for (int r = 0; r < rays.count; r++) {
+            boolean hit = castRay(rays.fromX[r], rays.fromY[r], rays.toX[r], rays.toY[r]);
+            rays.hit[r] = hit;
+            if (hit) hits++;
+        }
+        return hits;
+    }
+
+    /**
+     * Checks whether a ray, a line segment, touches any box. A ray starting inside a box touches it.
+     *
+     * @param x0 The x-coordinate of the start.
+     * @param y0 The y-coordinate of the start.
+     * @param x1 The x-coordinate of the end.
+     * @param y1 The y-coordinate of the end.
+     * @return True if the ray touches a box.
+     */
+    public boolean castRay(double x0, double y0, double x1, double y1) {
+        if (size == 0) return false;
+        double dx = x1 - x0, dy = y1 - y0;
+        int cx = cellOf(x0), cy = cellOf(y0);
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+
+        // The fraction of the ray at which it crosses the next column and row border, and between borders
+        double inverseX = 1 / dx, inverseY = 1 / dy;
+        double nextX = dx == 0 ? Double.POSITIVE_INFINITY : ((cx + (dx > 0 ? 1 : 0)) * cellSize - x0) * inverseX;
+        double nextY = dy == 0 ? Double.POSITIVE_INFINITY : ((cy + (dy > 0 ? 1 : 0)) * cellSize - y0) * inverseY;
+        double acrossX = cellSize * Math.abs(inverseX); // Infinite when the ray runs along a row
+        double acrossY = cellSize * Math.abs(inverseY);
+
+        // Every cell from the start's to the end's, so rounding in the crossings cannot end the walk early or late
+        int cells = Math.abs(cellOf(x1) - cx) + Math.abs(cellOf(y1) - cy);
+        for (int c = 0; ; c++) {
+            int bucket = bucketOf(cx, cy);
+            for (int e = bucketStart[bucket], end = bucketStart[bucket + 1]; e < end; e++) {
+                if (entryCellX[e] == cx && entryCellY[e] == cy
+                        && touches(x0, y0, dx, dy, entryMinX[e], entryMinY[e], entryMaxX[e], entryMaxY[e])) {
+                    return true;
+                }
+            }
+            if (c == cells) return false;
+            if (nextX < nextY) {
+                cx += stepX;
+                nextX += acrossX;
+            } else {
+                cy += stepY;
+                nextY += acrossY;
+            }
+        }
+    }
+
+    /**
+     * Clips a line segment against a box, one pair of sides at a time.
+     */
+    static boolean touches(double x0, double y0, double dx, double dy,
+                                   double minX, double minY, double maxX, double maxY) {
+        double enter = 0, exit = 1; // Fractions of the segment between which it is inside the sides clipped so far
+        if (dx == 0) {
+            if (x0 < minX || x0 > maxX) return false;
+        } else {
+            double t0 = (minX - x0) / dx, t1 = (maxX - x0) / dx;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        if (dy == 0) {
+            if (y0 < minY || y0 > maxY) return false;
+        } else {
+            double t0 = (minY - y0) / dy, t1 = (maxY - y0) / dy;
+            enter = Math.max(enter, Math.min(t0, t1));
+            exit = Math.min(exit, Math.max(t0, t1));
+        }
+        return enter <= exit;
+    }
+
+    /**
+     * Converts a coordinate to a cell number.
+     */
+    int cellOf(double coordinate) {
+        double cells = coordinate / cellSize;
+        int cell = (int) cells;
+        return cells < cell ? cell - 1 : cell; // Rounds down, also for negative coordinates, without Math.floor's slow path
+    }
+
+    private int bucketOf(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & mask;
+    }
+}
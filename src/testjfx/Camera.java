@@ -0,0 +1,161 @@
+package testjfx;
+
+import javafx.scene.canvas.GraphicsContext;
+
+/**
+ * The part of the world shown on the canvas.
+ * Tracks the world position of the view's top-left corner and a zoom factor, and keeps
+ * the view over the world: a world smaller than the view is centred, a larger one can be
+ * panned across but not past its edges.
+ */
+public class Camera {
+    private static final double MAX_ZOOM = 8; // Screen pixels per world unit when fully zoomed in
+
+    private final double viewWidth, viewHeight;  // Size of the canvas in pixels
+    private double worldWidth, worldHeight;      // Size of the world being viewed
+    private double x = 0, y = 0;                 // World position of the view's top-left corner
+    private double zoom = 1;                     // Screen pixels per world unit
+    private long version = 0;                    // Changes whenever the view moves
+
+    /**
+     * Creates a camera showing the top-left of the world at 1:1.
+     *
+     * @param viewWidth  The width of the canvas.
+     * @param viewHeight The height of the canvas.
+     */
+    public Camera(double viewWidth, double viewHeight) {
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.worldWidth = viewWidth;
+        this.worldHeight = viewHeight;
+    }
+
+    /**
+     * Sets the size of the world being viewed, e.g. after a different arena is loaded.
+     *
+     * @param worldWidth  The width of the world.
+     * @param worldHeight The height of the world.
+     */
+    public void setWorld(double worldWidth, double worldHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        zoom = Math.max(zoom, getMinZoom());
+        clamp();
+    }
+
+    /**
+     * Moves the view by a distance in screen pixels, e.g. for a mouse drag.
+     *
+     * @param dx The horizontal distance the world should move on screen.
+     * @param dy The vertical distance the world should move on screen.
+     */
+    public void pan(double dx, double dy) {
+        x -= dx / zoom;
+        y -= dy / zoom;
+        clamp();
+    }
+
+    /**
+     * Zooms in or out, keeping the world point under a screen position in place.
+     *
+     * @param factor  How much to multiply the zoom by.
+     * @param screenX The x-coordinate on the canvas to zoom around.
+     * @param screenY The y-coordinate on the canvas to zoom around.
+     */
+    public void zoomAt(double factor, double screenX, double screenY) {
+        double worldX = toWorldX(screenX);
+        double worldY = toWorldY(screenY);
+        zoom = Math.max(getMinZoom(), Math.min(MAX_ZOOM, zoom * factor));
+        x = worldX - screenX / zoom;
+        y = worldY - screenY / zoom;
+        clamp();
+    }
+
+    /**
+     * Moves the view so that a world position is in its centre, as far as the edges allow.
+     *
+     * @param worldX The x-coordinate in the world.
+     * @param worldY The y-coordinate in the world.
+     */
+    public void centreOn(double worldX, double worldY) {
+        x = worldX - viewWidth / zoom / 2;
+        y = worldY - viewHeight / zoom / 2;
+        clamp();
+    }
+
+    /**
+     * Checks whether anything drawn within a radius of a world position can be seen.
+     *
+     * @param worldX The x-coordinate in the world.
+     * @param worldY The y-coordinate in the world.
+     * @param radius How far the drawing reaches from the position.
+     * @return True if the drawing overlaps the view.
+     */
+    public boolean isVisible(double worldX, double worldY, double radius) {
+        return worldX + radius >= x && worldX - radius <= getMaxX()
+                && worldY + radius >= y && worldY - radius <= getMaxY();
+    }
+
+    /**
+     * Sets a graphics context to draw in world coordinates through this camera.
+     *
+     * @param gc The graphics context.
+     */
+    public void apply(GraphicsContext gc) {
+        gc.setTransform(zoom, 0, 0, zoom, -x * zoom, -y * zoom);
+    }
+
+    public double toWorldX(double screenX) {
+        return x + screenX / zoom;
+    }
+
+    public double toWorldY(double screenY) {
+        return y + screenY / zoom;
+    }
+
+    public double getMinX() {
+        return x;
+    }
+
+    public double getMinY() {
+        return y;
+    }
+
+    public double getMaxX() {
+        return x + viewWidth / zoom;
+    }
+
+    public double getMaxY() {
+        return y + viewHeight / zoom;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the zoom at which the whole world fits in the view.
+     *
+     * @return The smallest zoom allowed.
+     */
+    private double getMinZoom() {
+        return Math.min(1, Math.min(viewWidth / worldWidth, viewHeight / worldHeight));
+    }
+
+    private void clamp() {
+        x = clampAxis(x, viewWidth / zoom, worldWidth);
+        y = clampAxis(y, viewHeight / zoom, worldHeight);
+        version++;
+    }
+
+    private static double clampAxis(double position, double viewSpan, double worldSpan) {
+        if (viewSpan >= worldSpan) {
+            return (worldSpan - viewSpan) / 2; // Centre a world smaller than the view
+        }
+        return Math.max(0, Math.min(worldSpan - viewSpan, position));
+    }
+}
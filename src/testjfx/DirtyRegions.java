@@ -0,0 +1,70 @@
+package testjfx;
+
+import javafx.scene.canvas.GraphicsContext;
+import java.util.Arrays;
+
+/**
+ * Collects the areas drawn on a layer during one frame, so the next frame can erase
+ * just those areas instead of the whole layer.
+ */
+public class DirtyRegions {
+    private static final double FULL_CLEAR_FRACTION = 0.5; // Clear everything once this much of the layer is dirty
+    private static final double MARGIN = 1;                 // Anti-aliased pixels outside a drawing's bounds
+
+    private double[] rects = new double[4 * 64]; // x, y, width, height per region
+    private int count = 0;                       // Number of regions recorded
+    private double area = 0;                     // Total area of the recorded regions
+
+    /**
+     * Records a square drawn around a point.
+     *
+     * @param x      The x-coordinate of the centre.
+     * @param y      The y-coordinate of the centre.
+     * @param radius Half the side of the square.
+     */
+    public void add(double x, double y, double radius) {
+        if (4 * count == rects.length) {
+            rects = Arrays.copyOf(rects, rects.length * 2);
+        }
+        double size = 2 * (radius + MARGIN);
+        int i = 4 * count++;
+        rects[i] = x - radius - MARGIN;
+        rects[i + 1] = y - radius - MARGIN;
+        rects[i + 2] = size;
+        rects[i + 3] = size;
+        area += size * size;
+    }
+
+    /**
+     * Erases the recorded regions and forgets them. When the regions cover most of the
+     * visible layer, a single clear of all of it is cheaper than many small ones.
+     *
+     * @param gc     The graphics context of the layer.
+     * @param x      The x-coordinate of the visible part of the layer, in the context's coordinates.
+     * @param y      The y-coordinate of the visible part.
+     * @param width  The width of the visible part.
+     * @param height The height of the visible part.
+     */
+    public void clear(GraphicsContext gc, double x, double y, double width, double height) {
+        if (area > FULL_CLEAR_FRACTION * width * height) {
+            gc.clearRect(x, y, width, height);
+        } else {
+            for (int i = 0; i < 4 * count; i += 4) {
+                gc.clearRect(rects[i], rects[i + 1], rects[i + 2], rects[i + 3]);
+            }
+        }
+        reset();
+    }
+
+    /**
+     * Forgets the recorded regions without erasing them.
+     */
+    public void reset() {
+        count = 0;
+        area = 0;
+    }
+
+    public int size() {
+        return count;
+    }
+}
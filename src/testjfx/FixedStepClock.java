@@ -0,0 +1,112 @@
+package testjfx;
+
+/**
+ * Decides how many fixed-length simulation steps are due each time the simulation
+ * thread wakes up (a "frame" below).
+ * Real time, multiplied by the time scale, is added to an accumulator and paid out in
+ * whole steps, so the simulation runs at the same speed whatever the frame rate. The
+ * time left over says how far the display is between two steps, for interpolation.
+ *
+ * After a stall the clock catches up by at most MAX_CATCH_UP of real time, and never runs
+ * more than MAX_STEPS_PER_FRAME in one frame, so a slow tick cannot snowball into ever
+ * longer frames. Time beyond those caps is dropped and the simulation falls behind instead.
+ */
+public class FixedStepClock {
+    public static final double STEPS_PER_SECOND = 60;   // Simulation steps per second at a time scale of 1
+    public static final double MIN_TIME_SCALE = 0.25;
+    public static final double MAX_TIME_SCALE = 100;
+    static final long MAX_CATCH_UP = 250_000_000L;      // Most real time, in nanoseconds, made up after a stall
+    static final int MAX_STEPS_PER_FRAME = 200;         // Most steps paid out for one frame
+
+    private static final double STEP_NANOS = 1e9 / STEPS_PER_SECOND;
+
+    private double timeScale = 1;   // Simulated time per unit of real time
+    private double accumulator = 0; // Scaled nanoseconds not yet paid out as steps
+    private long lastTime = -1;     // Time of the previous frame, or -1 before the first
+    private long droppedSteps = 0;  // Steps lost to the catch-up caps
+
+    public double getTimeScale() {
+        return timeScale;
+    }
+
+    /**
+     * Sets how much faster than real time the simulation runs.
+     *
+     * @param timeScale The time scale, clamped to [MIN_TIME_SCALE, MAX_TIME_SCALE].
+     */
+    public void setTimeScale(double timeScale) {
+        this.timeScale = Math.max(MIN_TIME_SCALE, Math.min(MAX_TIME_SCALE, timeScale));
+    }
+
+    /**
+     * Works out how many steps are due at a frame.
+     *
+     * @param now The frame time in nanoseconds.
+     * @return The number of steps to run before drawing the frame.
+     */
+    public int advance(long now) {
+        if (lastTime < 0) {
+            lastTime = now;
+            return 0;
+        }
+        long elapsed = Math.min(now - lastTime, MAX_CATCH_UP);
+        lastTime = now;
+        accumulator += elapsed * timeScale;
+
+        long due = (long) (accumulator / STEP_NANOS);
+        accumulator -= due * STEP_NANOS;
+        if (due > MAX_STEPS_PER_FRAME) {
+            droppedSteps += due - MAX_STEPS_PER_FRAME;
+            due = MAX_STEPS_PER_FRAME;
+        }
+        return (int) due;
+    }
+
+    /**
+     * Returns how long until the next step is due, in real time.
+     *
+     * @return The nanoseconds until the next step.
+     */
+    public long nanosUntilNextStep() {
+        return (long) Math.ceil((STEP_NANOS - accumulator) / timeScale);
+    }
+
+    /**
+     * Returns the real time between steps at the current time scale.
+     *
+     * @return The nanoseconds per step.
+     */
+    public double getStepNanos() {
+        return STEP_NANOS / timeScale;
+    }
+
+    /**
+     * Records that some of the steps due were not run, e.g. because the frame ran out of time.
+     *
+     * @param steps The number of steps skipped.
+     */
+    public void drop(int steps) {
+        droppedSteps += steps;
+    }
+
+    /**
+     * Returns how far the display is between the last step and the next one.
+     *
+     * @return The fraction of a step, from 0 to 1.
+     */
+    public double getAlpha() {
+        return Math.min(1, accumulator / STEP_NANOS);
+    }
+
+    public long getDroppedSteps() {
+        return droppedSteps;
+    }
+
+    /**
+     * Restarts timing from the next frame, e.g. after the simulation was paused.
+     */
+    public void reset() {
+        lastTime = -1;
+        accumulator = 0;
+    }
+}
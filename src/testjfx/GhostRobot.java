@@ -2,14 +2,21 @@ package testjfx;
 
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
+import java.util.List;
 
 /**
  * Subclass of Robot that goes through obstacles.
  */
 class GhostRobot extends Robot {
+    static final double PROXIMITY_RANGE = 100; // Distance at which the ghost slows down
 
-    public GhostRobot(double x, double y) {
-        super(x, y);
+    public GhostRobot(double x, double y, double direction) {
+        super(x, y, direction);
+    }
+
+    @Override
+    public RobotType getType() {
+        return RobotType.GHOST;
     }
 
     @Override
@@ -27,11 +34,46 @@ class GhostRobot extends Robot {
      * @param obstacle The obstacle to check against.
      */
     public void detectProximity(Obstacle obstacle) {
-        double distance = Math.sqrt(Math.pow(x - obstacle.getX(), 2) + Math.pow(y - obstacle.getY(), 2));
-        if (distance < 100) {
+        if (Kinematics.withinRange(x - obstacle.getX(), y - obstacle.getY(), PROXIMITY_RANGE)) {
             speed = 0.5; // Slow down
         } else {
             speed = 1; // Reset speed
         }
     }
+
+    /**
+     * Slows down while the arena's most recently added obstacle is in range. Only that one
+     * counts: a ghost has always checked every obstacle in the order they were added, each
+     * check overriding the last, so the last obstacle decides. Without obstacles the speed
+     * is left as it is.
+     *
+     * @param arena The arena whose last obstacle is checked.
+     * @return True if the obstacle is in range.
+     */
+    public boolean detectProximity(RobotArena arena) {
+        Obstacle obstacle = arena.getLastObstacle();
+        if (obstacle == null) return false;
+        boolean near = Kinematics.withinRange(x - obstacle.getX(), y - obstacle.getY(), PROXIMITY_RANGE);
+        speed = near ? 0.5 : 1; // Slow down next to the obstacle
+        return near;
+    }
+
+    /**
+     * Runs ghosts' obstacle proximity sensors.
+     */
+    static final class ProximityStage implements BehaviourStage {
+        @Override
+        public int senseItems(RobotArena arena, List<Robot> robots, int[] members, int from, int to) {
+            int contacts = 0;
+            for (int m = from; m < to; m++) {
+                if (((GhostRobot) robots.get(members[m])).detectProximity(arena)) contacts++;
+            }
+            return contacts;
+        }
+
+        @Override
+        public int senseCompact(RobotArena arena, RobotStore store, int[] members, int from, int to) {
+            return store.detectProximity(arena, members, from, to);
+        }
+    }
 }
@@ -0,0 +1,105 @@
+package testjfx;
+
+import java.util.Arrays;
+
+/**
+ * Hands out stable integer handles for the items in an arena and maps each handle to
+ * the item and its current index in the arena's robot or obstacle list.
+ * Handles stay the same however the lists are reordered. A removed item's handle never
+ * becomes valid again, nor is it handed out to another item: its slot is reused, but
+ * under a new generation, and a slot whose generations have run out is retired for good.
+ * Handles double as robot ids in frames, telemetry and the spectator stream, so they
+ * must never repeat.
+ */
+final class HandleTable {
+    private static final int SLOT_BITS = 22;                     // Low bits of a handle: the slot
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = 0x1FF;            // High bits: the slot's generation, kept positive
+    private static final int RETIRED = GENERATION_MASK + 1;      // Generation of a used-up slot, matching no handle
+
+    private ArenaItem[] items = new ArenaItem[64]; // Item per slot, null when the slot is free
+    private int[] indices = new int[64];           // Index of each slot's item in its list
+    private int[] generations = new int[64];       // Bumped whenever a slot is freed, up to RETIRED
+    private int[] freeSlots = new int[64];         // Freed slots, reused most recent first
+    private int freeCount = 0;
+    private int slotCount = 0;                     // Slots used so far
+
+    /**
+     * Allocates a handle for an item.
+     *
+     * @param item  The item.
+     * @param index The item's index in its list.
+     * @return The new handle.
+     */
+    int allocate(ArenaItem item, int index) {
+        int slot;
+        if (freeCount > 0) {
+            slot = freeSlots[--freeCount];
+        } else {
+            if (slotCount > SLOT_MASK) {
+                throw new IllegalStateException("Too many arena items");
+            }
+            if (slotCount == items.length) {
+                int capacity = slotCount * 2;
+                items = Arrays.copyOf(items, capacity);
+                indices = Arrays.copyOf(indices, capacity);
+                generations = Arrays.copyOf(generations, capacity);
+            }
+            slot = slotCount++;
+        }
+        items[slot] = item;
+        indices[slot] = index;
+        return generations[slot] << SLOT_BITS | slot;
+    }
+
+    /**
+     * Frees a valid handle's slot for reuse, unless it has been reused as often as it can be.
+     *
+     * @param handle The handle to free.
+     */
+    void release(int handle) {
+        int slot = handle & SLOT_MASK;
+        items[slot] = null;
+        if (++generations[slot] == RETIRED) {
+            return; // Every handle of this slot has been used, so never reuse it
+        }
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Returns the item a handle refers to.
+     *
+     * @param handle The handle.
+     * @return The item, or null if the handle is not (or no longer) valid.
+     */
+    ArenaItem get(int handle) {
+        int slot = handle & SLOT_MASK;
+        if (handle < 0 || slot >= slotCount || handle >>> SLOT_BITS != generations[slot]) {
+            return null;
+        }
+        return items[slot];
+    }
+
+    /**
+     * Returns the index of a valid handle's item in its list.
+     *
+     * @param handle The handle.
+     * @return The index.
+     */
+    int indexOf(int handle) {
+        return indices[handle & SLOT_MASK];
+    }
+
+    /**
+     * Records that a valid handle's item has moved within its list.
+     *
+     * @param handle The handle.
+     * @param index  The item's new index.
+     */
+    void move(int handle, int index) {
+        indices[handle & SLOT_MASK] = index;
+    }
+}
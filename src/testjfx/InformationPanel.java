@@ -7,11 +7,14 @@ import javafx.scene.text.Text;
 public class InformationPanel {
     private final VBox panel;
     private final Label label;
+    private final Label statsLabel;          // Live performance figures, empty unless profiling
     private static final int MAX_INFO = 6;  // Maximum number of information items to keep
 
     public InformationPanel() {
         label = new Label("Robot Info:");
-        panel = new VBox(10, label);
+        statsLabel = new Label("");
+        statsLabel.setStyle("-fx-font-family: monospace;");
+        panel = new VBox(10, label, statsLabel);
 
         // Setting style, colour and other
         panel.setStyle("-fx-padding: 10; -fx-background-color: #4CAF50; -fx-text-fill: white;  " +
@@ -32,8 +35,17 @@ public class InformationPanel {
         panel.getChildren().add(newInfo);
 
         // If the VBox has more than MAX_INFO items, remove the oldest one
-        if (panel.getChildren().size() > MAX_INFO) {
-            panel.getChildren().remove(1);  // Removes the first item after the info label
+        if (panel.getChildren().size() > MAX_INFO + 1) {
+            panel.getChildren().remove(2);  // Removes the first item after the info and stats labels
         }
     }
+
+    /**
+     * Shows the latest performance figures, replacing the previous ones.
+     *
+     * @param stats The figures, or an empty string to hide them.
+     */
+    public void updateStats(String stats) {
+        statsLabel.setText(stats);
+    }
 }
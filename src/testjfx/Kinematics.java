@@ -0,0 +1,113 @@
+package testjfx;
+
+/**
+ * Shared maths for moving robots and sensing around them.
+ * Robots keep their heading as a unit vector, worked out from the direction only when
+ * the direction changes, and range checks compare squared distances so they need no
+ * square root.
+ *
+ * Sine and cosine come from Math by default, which keeps trajectories exactly as they
+ * were. Switching to the lookup table makes each heading at most TABLE_TOLERANCE off,
+ * so a robot drifts by at most speed * dt * TABLE_TOLERANCE pixels per step from the
+ * exact path until it next turns. Choose the mode before simulating: runs, replays and
+ * state hashes only match under the same mode.
+ */
+public final class Kinematics {
+    public static final double TABLE_TOLERANCE = 1e-6; // Largest error of the table sine and cosine
+
+    private static final int TABLE_SIZE = 4096;                         // Table entries per full turn
+    private static final double STEPS_PER_DEGREE = TABLE_SIZE / 360.0;
+    private static final double[] SINE = new double[TABLE_SIZE + 1];   // One extra entry to interpolate towards
+
+    private static boolean tableTrig = Boolean.getBoolean("robotarena.tableTrig"); // Use the lookup table
+
+    static {
+        for (int i = 0; i <= TABLE_SIZE; i++) {
+            SINE[i] = Math.sin(2 * Math.PI * i / TABLE_SIZE);
+        }
+    }
+
+    private Kinematics() {
+    }
+
+    /**
+     * Chooses where sine and cosine come from.
+     *
+     * @param enabled True to use the lookup table, false for Math.
+     */
+    public static void setTableTrig(boolean enabled) {
+        tableTrig = enabled;
+    }
+
+    public static boolean isTableTrig() {
+        return tableTrig;
+    }
+
+    /**
+     * Returns the cosine of an angle, i.e. the x part of a unit heading.
+     *
+     * @param degrees The angle in degrees.
+     * @return The cosine.
+     */
+    public static double cos(double degrees) {
+        return tableTrig ? tableSin(degrees + 90) : Math.cos(Math.toRadians(degrees));
+    }
+
+    /**
+     * Returns the sine of an angle, i.e. the y part of a unit heading.
+     *
+     * @param degrees The angle in degrees.
+     * @return The sine.
+     */
+    public static double sin(double degrees) {
+        return tableTrig ? tableSin(degrees) : Math.sin(Math.toRadians(degrees));
+    }
+
+    /**
+     * Looks up the sine of an angle, interpolating between table entries.
+     *
+     * @param degrees The angle in degrees.
+     * @return The sine, within TABLE_TOLERANCE.
+     */
+    static double tableSin(double degrees) {
+        double position = degrees * STEPS_PER_DEGREE;
+        double floor = Math.floor(position);
+        int i = (int) ((long) floor & (TABLE_SIZE - 1));
+        double fraction = position - floor;
+        return SINE[i] + fraction * (SINE[i + 1] - SINE[i]);
+    }
+
+    /**
+     * Checks whether an offset is shorter than a range, without a square root.
+     *
+     * @param dx    The x part of the offset.
+     * @param dy    The y part of the offset.
+     * @param range The range; offsets exactly this long are not within it.
+     * @return True if the offset is within range.
+     */
+    public static boolean withinRange(double dx, double dy, double range) {
+        return dx * dx + dy * dy < range * range;
+    }
+
+    /**
+     * Works out when a point moving in a straight line first comes within range of a fixed point.
+     *
+     * @param dx    The x part of the moving point's offset from the fixed point, at the start.
+     * @param dy    The y part of the offset.
+     * @param moveX The x part of the whole move.
+     * @param moveY The y part of the whole move.
+     * @param range The range, as for withinRange.
+     * @return The fraction of the move made when the distance falls to the range, from 0 up to
+     *         but not including 1; or -1 if the point starts within range or never comes into it.
+     */
+    public static double timeOfImpact(double dx, double dy, double moveX, double moveY, double range) {
+        double c = dx * dx + dy * dy - range * range;
+        if (c <= 0) return -1; // Already within range
+        double b = dx * moveX + dy * moveY; // Half the rate the squared distance starts changing at
+        if (b >= 0) return -1;              // Moving away
+        double discriminant = b * b - (moveX * moveX + moveY * moveY) * c;
+        if (discriminant < 0) return -1;    // Passes by outside the range
+        double t = c / (Math.sqrt(discriminant) - b); // The earlier root, without cancellation
+        return t < 1 ? t : -1;
+    }
+}
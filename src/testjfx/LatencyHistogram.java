@@ -0,0 +1,105 @@
+package testjfx;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative values, such as durations in nanoseconds or byte counts.
+ * Buckets are linear up to 64 and then 32 to each power of two, so any recorded value
+ * is reported to within about 3% while the whole long range fits in under 2000 buckets.
+ * Recording is a few arithmetic operations and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;                // 32 buckets per power of two
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;  // Number of values recorded
+    private long sum = 0;    // Sum of the values recorded
+    private long max = 0;    // Largest value recorded
+
+    /**
+     * Records a value. Negative values are recorded as zero.
+     *
+     * @param value The value.
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        max = Math.max(max, value);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Returns the value below which a percentage of the recorded values fall.
+     *
+     * @param percentile The percentage, from 0 to 100.
+     * @return The highest value in the bucket holding that percentile, or 0 when nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+            if (seen >= target) {
+                return Math.min(max, highestValueIn(bucket));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Counts the recorded values above a limit, e.g. a latency budget.
+     *
+     * @param limit The limit.
+     * @return The number of values in buckets wholly above the limit's bucket.
+     */
+    public long getCountAbove(long limit) {
+        long above = 0;
+        for (int bucket = bucketOf(Math.max(0, limit)) + 1; bucket < BUCKETS; bucket++) {
+            above += counts[bucket];
+        }
+        return above;
+    }
+
+    /**
+     * Forgets every value recorded so far.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Works out the bucket for a value. Values below 64 have a bucket each; above that the
+     * bucket is the value's top six bits, offset by how far they had to be shifted down.
+     */
+    static int bucketOf(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    static long highestValueIn(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BUCKET_BITS) - 1;
+        long top = (bucket & (SUB_BUCKETS - 1)) + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -4,6 +4,7 @@ import javafx.application.Application;
 import javafx.scene.Scene;
 import javafx.scene.layout.BorderPane;
 import javafx.stage.Stage;
+import java.io.IOException;
 
 public class Main extends Application {
     @Override
@@ -11,16 +12,38 @@ public class Main extends Application {
         primaryStage.setTitle("Wisam's Robot Arena");
 
         BorderPane borderz = new BorderPane();
-        ArenaCanvas arenaCanvas = new ArenaCanvas(700, 600); // ArenaCanvas without initial user-controlled robot
+        // The world can be larger than the canvas, e.g. --world=100000x100000
+        String world = getParameters().getNamed().getOrDefault("world", "700x600");
+        String[] size = world.split("x");
+        ArenaCanvas arenaCanvas = new ArenaCanvas(700, 600, Double.parseDouble(size[0]), Double.parseDouble(size[1]));
+        // How fast held keys move and turn the user-controlled robot, e.g. --userSpeed=8 --userTurnRate=6
+        double userSpeed = Double.parseDouble(getParameters().getNamed().getOrDefault("userSpeed",
+                String.valueOf(UserControlledRobot.DEFAULT_MOVE_SPEED)));
+        double userTurnRate = Double.parseDouble(getParameters().getNamed().getOrDefault("userTurnRate",
+                String.valueOf(UserControlledRobot.DEFAULT_TURN_RATE)));
+        if (userSpeed != UserControlledRobot.DEFAULT_MOVE_SPEED || userTurnRate != UserControlledRobot.DEFAULT_TURN_RATE) {
+            arenaCanvas.execute(engine -> engine.setControlRates(userSpeed, userTurnRate));
+        }
         InformationPanel infoPanel = new InformationPanel();
         ToolBar controlPanel = new ToolBar(primaryStage, arenaCanvas, infoPanel);
+        // Let other processes watch with SpectatorViewer, e.g. --spectatorPort=7345
+        String spectatorPort = getParameters().getNamed().get("spectatorPort");
+        if (spectatorPort != null) {
+            try {
+                SpectatorServer spectators = new SpectatorServer(Integer.parseInt(spectatorPort));
+                arenaCanvas.execute(engine -> engine.setSpectators(spectators));
+                infoPanel.updateInfo("Spectators can watch on port " + spectators.getPort() + ".");
+            } catch (IOException e) {
+                infoPanel.updateInfo("Cannot listen for spectators: " + e.getMessage());
+            }
+        }
 
         // Add the user-controlled robot to the arena (only once)
      //   UserControlledRobot userRobot = new UserControlledRobot(350, 300);  // Add robot at the center
      //   arenaCanvas.addRobot(userRobot);  // Add the user-controlled robot to the arena
 
         // Set the arenaCanvas in the centre
-        borderz.setCenter(arenaCanvas.getCanvas());
+        borderz.setCenter(arenaCanvas.getView());
 
         // Set the fixed size information panel to the left side
         borderz.setLeft(infoPanel.getPanel());
@@ -2,7 +2,7 @@ package testjfx;
 
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * Represents a circular obstacle in the robot arena.
@@ -15,12 +15,40 @@ public class Obstacle extends ArenaItem {
      *
      * @param arenaWidth  The width of the arena.
      * @param arenaHeight The height of the arena.
+     * @param random      The arena's random number generator.
      */
-    public Obstacle(double arenaWidth, double arenaHeight) {
-        super(randomCoordinate(arenaWidth), randomCoordinate(arenaHeight));
+    public Obstacle(double arenaWidth, double arenaHeight, SplittableRandom random) {
+        super(randomCoordinate(arenaWidth, random), randomCoordinate(arenaHeight, random));
         this.sizing = 20; // Medium-sized circle
     }
 
+    /**
+     * Creates an obstacle at a known position.
+     *
+     * @param x      The x-coordinate of the obstacle centre.
+     * @param y      The y-coordinate of the obstacle centre.
+     * @param sizing The half-width of the obstacle.
+     */
+    private Obstacle(double x, double y, double sizing) {
+        super(x, y);
+        this.sizing = sizing;
+    }
+
+    /**
+     * Creates an obstacle at a known position, e.g. when loading a saved arena.
+     *
+     * @param x The x-coordinate of the obstacle centre.
+     * @param y The y-coordinate of the obstacle centre.
+     * @return The new obstacle.
+     */
+    public static Obstacle at(double x, double y) {
+        return new Obstacle(x, y, 20);
+    }
+
+    public double getSizing() {
+        return sizing;
+    }
+
     @Override
     public void draw(GraphicsContext gc) {
         gc.setFill(Color.BLACK);
@@ -30,11 +58,11 @@ public class Obstacle extends ArenaItem {
     /**
      * Generates a random coordinate within the arena boundaries.
      *
-     * @param max The maximum allowable value for the coordinate.
+     * @param max    The maximum allowable value for the coordinate.
+     * @param random The random number generator to draw from.
      * @return A random coordinate within the range [20, max - 20].
      */
-    private static double randomCoordinate(double max) {
-        Random random = new Random();
+    private static double randomCoordinate(double max, SplittableRandom random) {
         return 20 + random.nextDouble() * (max - 40); // Keep obstacles within boundaries
     }
 }
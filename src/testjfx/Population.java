@@ -0,0 +1,161 @@
+package testjfx;
+
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * A batch of robots generated in one go, for seeding large test arenas.
+ * Positions and directions are generated in parallel, in fixed-size chunks that each
+ * draw from their own split of the seed, so a seed always gives the same robots
+ * whatever the number of threads. The batch is then added to an arena in one step.
+ */
+public final class Population {
+    private static final int CHUNK_SIZE = 1 << 14; // Robots generated per parallel work item
+    private static final int CLUSTER_COUNT = 8;    // Clusters in a clustered population
+
+    /**
+     * How the robots are spread over the arena.
+     */
+    public enum Distribution {
+        UNIFORM("Uniform"),     // Anywhere in the arena, with equal probability
+        CLUSTERED("Clustered"), // Normally distributed around a few random centres
+        GRID("Grid");           // Evenly spaced on a lattice covering the arena
+
+        private final String label; // Name shown in the tool bar
+
+        Distribution(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final int count;           // Number of robots
+    private final byte[] tags;         // RobotType tag of each robot
+    private final double[] x;          // x-coordinates
+    private final double[] y;          // y-coordinates
+    private final double[] direction;  // Directions in degrees
+
+    private Population(int count) {
+        this.count = count;
+        tags = new byte[count];
+        x = new double[count];
+        y = new double[count];
+        direction = new double[count];
+    }
+
+    /**
+     * Generates a population. The types are assigned in turn, so each type gets an
+     * equal share of the robots.
+     *
+     * @param types        The types of robot to generate.
+     * @param count        The number of robots.
+     * @param distribution How the robots are spread over the arena.
+     * @param seed         The seed for the robots' positions and directions.
+     * @param width        The width of the arena.
+     * @param height       The height of the arena.
+     * @return The generated population.
+     */
+    public static Population generate(RobotType[] types, int count, Distribution distribution, long seed,
+                                      double width, double height) {
+        if (types.length == 0) {
+            throw new IllegalArgumentException("No robot types to generate");
+        }
+        Population population = new Population(count);
+
+        // Keep robots clear of the walls they would otherwise bounce off straight away
+        double minX = Math.min(Robot.WALL_MARGIN, width / 2), maxX = width - minX;
+        double minY = Math.min(Robot.WALL_MARGIN, height / 2), maxY = height - minY;
+
+        // Split the seed serially, so each chunk's stream is fixed before any thread starts
+        SplittableRandom root = new SplittableRandom(seed);
+        double[] clusterX = new double[CLUSTER_COUNT], clusterY = new double[CLUSTER_COUNT];
+        for (int c = 0; c < CLUSTER_COUNT; c++) {
+            clusterX[c] = minX + root.nextDouble() * (maxX - minX);
+            clusterY[c] = minY + root.nextDouble() * (maxY - minY);
+        }
+        int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for (int c = 0; c < chunks; c++) {
+            randoms[c] = root.split();
+        }
+
+        // Lattice with roughly square cells, for the grid distribution
+        int columns = (int) Math.max(1, Math.round(Math.sqrt(count * (maxX - minX) / Math.max(1, maxY - minY))));
+        int rows = Math.max(1, (count + columns - 1) / columns);
+        double spread = Math.min(maxX - minX, maxY - minY) / 16; // Standard deviation of a cluster
+
+        IntStream.range(0, chunks).parallel().forEach(c -> {
+            SplittableRandom random = randoms[c];
+            int end = Math.min(count, (c + 1) * CHUNK_SIZE);
+            for (int i = c * CHUNK_SIZE; i < end; i++) {
+                population.tags[i] = types[i % types.length].tag();
+                switch (distribution) {
+                    case UNIFORM -> {
+                        population.x[i] = minX + random.nextDouble() * (maxX - minX);
+                        population.y[i] = minY + random.nextDouble() * (maxY - minY);
+                    }
+                    case CLUSTERED -> {
+                        int cluster = random.nextInt(CLUSTER_COUNT);
+                        population.x[i] = clamp(clusterX[cluster] + random.nextGaussian() * spread, minX, maxX);
+                        population.y[i] = clamp(clusterY[cluster] + random.nextGaussian() * spread, minY, maxY);
+                    }
+                    case GRID -> {
+                        population.x[i] = minX + (i % columns + 0.5) * (maxX - minX) / columns;
+                        population.y[i] = minY + (i / columns + 0.5) * (maxY - minY) / rows;
+                    }
+                }
+                population.direction[i] = random.nextDouble() * 360;
+            }
+        });
+        return population;
+    }
+
+    private static double clamp(double value, double min, double max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public RobotType getType(int i) {
+        return RobotType.fromTag(tags[i]);
+    }
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public double getY(int i) {
+        return y[i];
+    }
+
+    public double getDirection(int i) {
+        return direction[i];
+    }
+
+    /**
+     * Adds every robot to an arena in one batch.
+     *
+     * @param arena   The arena to add to.
+     * @param compact Whether to add the robots to the compact store rather than as robot objects.
+     */
+    public void addTo(RobotArena arena, boolean compact) {
+        if (compact) {
+            arena.getCompactRobots().addAll(tags, x, y, direction, count);
+        } else {
+            Robot[] robots = new Robot[count];
+            IntStream.range(0, (count + CHUNK_SIZE - 1) / CHUNK_SIZE).parallel().forEach(c -> {
+                int end = Math.min(count, (c + 1) * CHUNK_SIZE);
+                for (int i = c * CHUNK_SIZE; i < end; i++) {
+                    robots[i] = getType(i).create(x[i], y[i], direction[i]);
+                }
+            });
+            arena.addRobots(robots);
+        }
+    }
+}
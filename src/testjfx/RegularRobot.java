@@ -2,14 +2,21 @@ package testjfx;
 
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
+import java.util.List;
 
 /**
  * Subclass of Robot with bump sensors.
  */
 class RegularRobot extends Robot {
+    static final double COLLISION_RANGE = 40; // Bump sensor range
 
-    public RegularRobot(double x, double y) {
-        super(x, y);
+    public RegularRobot(double x, double y, double direction) {
+        super(x, y, direction);
+    }
+
+    @Override
+    public RobotType getType() {
+        return RobotType.REGULAR;
     }
 
     @Override
@@ -27,10 +34,41 @@ class RegularRobot extends Robot {
      * @param obstacle is the obstacle to check against.
      */
     public void detectCollision(Obstacle obstacle) {
-        double distance = Math.sqrt(Math.pow(x - obstacle.getX(), 2) + Math.pow(y - obstacle.getY(), 2));
-        if (distance < 40) {
+        if (Kinematics.withinRange(x - obstacle.getX(), y - obstacle.getY(), COLLISION_RANGE)) {
             direction = (direction + 180) % 360; // Reverse direction
         }
     }
-}
 
+    /**
+     * Detects collisions with the obstacles in the cells around the robot.
+     *
+     * @param arena The arena whose obstacle grid is checked.
+     * @return True if the robot bumped into an obstacle.
+     */
+    public boolean detectCollision(RobotArena arena) {
+        int hits = arena.getObstacleGrid().countWithin(x, y, COLLISION_RANGE);
+        for (int h = 0; h < hits; h++) {
+            direction = (direction + 180) % 360; // Reverse direction
+        }
+        return hits > 0;
+    }
+
+    /**
+     * Runs regular robots' bump sensors.
+     */
+    static final class BumpStage implements BehaviourStage {
+        @Override
+        public int senseItems(RobotArena arena, List<Robot> robots, int[] members, int from, int to) {
+            int contacts = 0;
+            for (int m = from; m < to; m++) {
+                if (((RegularRobot) robots.get(members[m])).detectCollision(arena)) contacts++;
+            }
+            return contacts;
+        }
+
+        @Override
+        public int senseCompact(RobotArena arena, RobotStore store, int[] members, int from, int to) {
+            return store.detectBumps(arena, members, from, to);
+        }
+    }
+}
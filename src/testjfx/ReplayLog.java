@@ -0,0 +1,238 @@
+package testjfx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records a session as its seed plus the user's commands, stamped with the tick they
+ * were applied at. Because everything random in the arena comes from the seed, that is
+ * enough to re-simulate the whole session headless. A hash of the state after every tick
+ * is kept as well, so a replay can report where it stopped matching. So that long
+ * sessions neither grow the log without bound nor keep paying for a hash every tick, at
+ * most MAX_HASHES are kept: when the log fills up every other hash is dropped and from
+ * then on the state is only hashed half as often.
+ *
+ * A replay only reproduces its session under the simulation rules it was recorded with,
+ * so VERSION is bumped whenever they change, as well as whenever the file layout does,
+ * and files of any other version are refused rather than reported as diverging.
+ */
+public class ReplayLog {
+    public static final String EXTENSION = "replay";
+
+    private static final int MAGIC = 0x4152504C; // "ARPL"
+    // 2: obstacles hashed first and whiskers cast as rays; 3: ghosts only check the last obstacle;
+    // 4: hashes sampled at an interval; 5: whisker tips rotated from the heading and not swept;
+    // 6: whisker border checks use the same tips
+    private static final int VERSION = 6;
+    static final int MAX_HASHES = 1 << 16; // Most state hashes kept, 512KB
+
+    /**
+     * The kinds of command a session records.
+     */
+    public enum EventType {
+        KEY,              // Argument: the KeyCode name; a single discrete move, from logs before KEY_PRESSED
+        ADD_ROBOT,        // Argument: the RobotType name
+        ADD_OBSTACLE,
+        REMOVE_OBSTACLE,
+        RESET_ARENA,
+        SPAWN_ROBOTS,     // Argument: count;Distribution name;seed;compact;RobotType names joined by ','
+        KEY_PRESSED,      // Argument: the KeyCode name
+        KEY_RELEASED,     // Argument: the KeyCode name
+        CONTROL_RATES,    // Argument: move speed;turn rate
+        ROBOT_COLLISIONS  // Argument: true or false
+    }
+
+    /**
+     * One recorded command.
+     *
+     * @param tick     The tick count when the command was applied, i.e. before that tick's step.
+     * @param type     The kind of command.
+     * @param argument The command's argument, or an empty string.
+     */
+    public record Event(long tick, EventType type, String argument) {
+    }
+
+    private final long seed;
+    private final double width, height;
+    private final List<Event> events = new ArrayList<>();
+    private long[] hashes = new long[1024]; // State hash after every hashInterval ticks
+    private int hashCount = 0;
+    private int hashInterval = 1;           // Ticks per hash, doubled each time the hashes fill up
+    private int tickCount = 0;
+
+    /**
+     * Creates an empty log for a session.
+     *
+     * @param seed   The seed the session's arena was built from.
+     * @param width  The width of the arena.
+     * @param height The height of the arena.
+     */
+    public ReplayLog(long seed, double width, double height) {
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Records a command.
+     *
+     * @param tick     The tick count when the command was applied.
+     * @param type     The kind of command.
+     * @param argument The command's argument, or an empty string.
+     */
+    public void record(long tick, EventType type, String argument) {
+        events.add(new Event(tick, type, argument));
+    }
+
+    /**
+     * Returns whether the state after the next tick is to be hashed.
+     *
+     * @return True when the next tick must be recorded with recordTick(long).
+     */
+    public boolean isHashDue() {
+        return (tickCount + 1) % hashInterval == 0;
+    }
+
+    /**
+     * Records the end of the next tick, when its state is not due to be hashed.
+     */
+    public void recordTick() {
+        tickCount++;
+    }
+
+    /**
+     * Records the end of the next tick with its state hash, when one is due.
+     *
+     * @param hash The state hash.
+     */
+    public void recordTick(long hash) {
+        if (hashCount == MAX_HASHES) {
+            // Keep the hashes of every second sampled tick, the ticks the doubled interval falls on
+            for (int i = 1; i < hashCount; i += 2) {
+                hashes[i / 2] = hashes[i];
+            }
+            hashCount /= 2;
+            hashInterval *= 2;
+        } else if (hashCount == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashCount * 2);
+        }
+        tickCount++;
+        if (tickCount % hashInterval == 0) {
+            hashes[hashCount++] = hash;
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    public int getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Re-simulates the session headless as fast as possible, checking the state after each
+     * tick that was hashed.
+     *
+     * @return The first checked tick whose state differs from the recording, or -1 if the replay matched.
+     */
+    public long verify() {
+        SimulationEngine engine = SimulationEngine.newSession(seed, width, height);
+        int next = 0;
+        for (int tick = 0; tick < tickCount; tick++) {
+            while (next < events.size() && events.get(next).tick() == tick) {
+                engine.apply(events.get(next++));
+            }
+            engine.step(1);
+            if ((tick + 1) % hashInterval == 0 && engine.stateHash() != hashes[(tick + 1) / hashInterval - 1]) {
+                return tick;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the log to a file.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seed);
+            out.writeDouble(width);
+            out.writeDouble(height);
+            out.writeInt(events.size());
+            for (Event event : events) {
+                out.writeLong(event.tick());
+                out.writeByte(event.type().ordinal());
+                out.writeUTF(event.argument());
+            }
+            out.writeInt(tickCount);
+            out.writeInt(hashInterval);
+            out.writeInt(hashCount);
+            for (int i = 0; i < hashCount; i++) {
+                out.writeLong(hashes[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a log from a file.
+     *
+     * @param file The file to read.
+     * @return The loaded log.
+     * @throws IOException If the file cannot be read or is not a replay file.
+     */
+    public static ReplayLog load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a replay file: " + file);
+            }
+            int version = in.readInt();
+            if (version < VERSION) {
+                throw new IOException("Replay file version " + version + " was recorded by an older simulation "
+                                      + "and cannot be replayed by this one (version " + VERSION + "): " + file);
+            }
+            if (version > VERSION) {
+                throw new IOException("Unsupported replay file version " + version + ": " + file);
+            }
+            ReplayLog log = new ReplayLog(in.readLong(), in.readDouble(), in.readDouble());
+            EventType[] types = EventType.values();
+            int eventCount = in.readInt();
+            for (int i = 0; i < eventCount; i++) {
+                long tick = in.readLong();
+                int type = in.readUnsignedByte();
+                if (type >= types.length) {
+                    throw new IOException("Unknown replay event type " + type + " in " + file);
+                }
+                log.record(tick, types[type], in.readUTF());
+            }
+            log.tickCount = in.readInt();
+            log.hashInterval = in.readInt();
+            log.hashCount = in.readInt();
+            if (log.tickCount < 0 || log.hashInterval < 1 || log.hashCount != log.tickCount / log.hashInterval) {
+                throw new IOException("Inconsistent replay hashes in " + file);
+            }
+            log.hashes = new long[Math.max(1, log.hashCount)];
+            for (int i = 0; i < log.hashCount; i++) {
+                log.hashes[i] = in.readLong();
+            }
+            return log;
+        }
+    }
+}
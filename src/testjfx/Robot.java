@@ -7,19 +7,73 @@ import javafx.scene.paint.Color;
  * Represents a generic robot in the arena.
  */
 public class Robot extends ArenaItem {
+    static final double BODY_RADIUS = 20; // Radius of the robot body as drawn
+    static final double WALL_MARGIN = 30; // Distance from the world's edges at which robots bounce
+
     protected double speed; // Speed of the robot
     protected double direction; // Direction in degrees (0-360)
+    protected double headingX, headingY; // Unit vector along direction
+    private double headingDirection;     // The direction the heading was worked out for
+    protected double previousX, previousY; // Position before the last move, for drawing between steps
 
     /**
-     * Constructs a generic robot with a position.
+     * Constructs a generic robot with a position and direction.
      *
-     * @param x The x-coordinate of the robot.
-     * @param y The y-coordinate of the robot.
+     * @param x         The x-coordinate of the robot.
+     * @param y         The y-coordinate of the robot.
+     * @param direction The initial direction in degrees.
      */
-    public Robot(double x, double y) {
+    public Robot(double x, double y, double direction) {
         super(x, y);
         this.speed = 1; // Default speed
-        this.direction = Math.random() * 360; // Random initial direction
+        this.direction = direction;
+        this.headingX = Kinematics.cos(direction);
+        this.headingY = Kinematics.sin(direction);
+        this.headingDirection = direction;
+        this.previousX = x;
+        this.previousY = y;
+    }
+
+    /**
+     * Returns the robot's type. Each subclass with a RobotType overrides this, so finding
+     * it costs a virtual call rather than a chain of instanceof checks.
+     *
+     * @return Its type, or null for a plain or user-controlled robot.
+     */
+    public RobotType getType() {
+        return null;
+    }
+
+    /**
+     * Returns the x-coordinate part of the way through the last move.
+     *
+     * @param alpha How far through the move, from 0 (where it started) to 1 (where it is now).
+     * @return The interpolated x-coordinate.
+     */
+    public double interpolateX(double alpha) {
+        return previousX + (x - previousX) * alpha;
+    }
+
+    /**
+     * Returns the y-coordinate part of the way through the last move.
+     *
+     * @param alpha How far through the move, from 0 (where it started) to 1 (where it is now).
+     * @return The interpolated y-coordinate.
+     */
+    public double interpolateY(double alpha) {
+        return previousY + (y - previousY) * alpha;
+    }
+
+    /**
+     * Brings the heading vector up to date after the direction has changed.
+     * Costs a comparison when the robot has not turned since the last call.
+     */
+    protected void updateHeading() {
+        if (direction != headingDirection) {
+            headingX = Kinematics.cos(direction);
+            headingY = Kinematics.sin(direction);
+            headingDirection = direction;
+        }
     }
 
     @Override
@@ -47,6 +101,15 @@ public class Robot extends ArenaItem {
     }
 
 
+    /**
+     * Returns how far the robot's drawing reaches from its centre.
+     *
+     * @return The radius of the area the robot draws in.
+     */
+    public double drawRadius() {
+        return 32; // Wheel corners, plus a pixel of anti-aliasing
+    }
+
     /**
      * Sets the speed of the robot.
      *
@@ -57,15 +120,52 @@ public class Robot extends ArenaItem {
     }
 
     /**
-     * Moves the robot based on its speed and direction.
+     * Moves the robot one tick based on its speed and direction, in a default-sized arena.
      */
     public void move() {
-        x += speed * Math.cos(Math.toRadians(direction)); // Update x-coordinate
-        y += speed * Math.sin(Math.toRadians(direction)); // Update y-coordinate
+        move(1, RobotArena.DEFAULT_WIDTH, RobotArena.DEFAULT_HEIGHT);
+    }
+
+    /**
+     * Moves the robot based on its speed and direction.
+     *
+     * @param dt          The length of the step in ticks.
+     * @param worldWidth  The width of the world the robot bounces around in.
+     * @param worldHeight The height of the world.
+     */
+    public void move(double dt, double worldWidth, double worldHeight) {
+        updateHeading();
+        previousX = x;
+        previousY = y;
+        x += speed * dt * headingX; // Update x-coordinate
+        y += speed * dt * headingY; // Update y-coordinate
 
         // Bounce off walls
-        if (x < 30 || x > 670) direction = 180 - direction; // Reverse horizontal direction
-        if (y < 30 || y > 570) direction = -direction; // Reverse vertical direction
+        if (x < WALL_MARGIN || x > worldWidth - WALL_MARGIN) direction = 180 - direction; // Reverse horizontal direction
+        if (y < WALL_MARGIN || y > worldHeight - WALL_MARGIN) direction = -direction; // Reverse vertical direction
+    }
+
+    /**
+     * Moves the robot around an arena. Moves longer than a unit step at the default speed
+     * are swept, so the robot reacts to every wall and obstacle it reaches on the way rather
+     * than only checking where it ends up.
+     *
+     * @param dt    The length of the step in ticks.
+     * @param arena The arena, with its obstacle grid up to date.
+     */
+    public void move(double dt, RobotArena arena) {
+        if (!SweptMotion.isSwept(speed, dt)) {
+            move(dt, arena.getWidth(), arena.getHeight());
+            return;
+        }
+        updateHeading();
+        previousX = x;
+        previousY = y;
+        SweptMotion sweep = SweptMotion.around(arena);
+        sweep.move(x, y, direction, speed * dt, getType());
+        x = sweep.getX();
+        y = sweep.getY();
+        direction = sweep.getDirection();
     }
 }
 
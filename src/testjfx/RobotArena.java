@@ -1,64 +1,595 @@
 package testjfx;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.SplittableRandom;
 //import java.util.stream.Collectors;
 import javafx.scene.canvas.GraphicsContext;
 
 /**
  * Manages robots and obstacles in the arena.
+ * Robots and obstacles are kept in separate lists, and every item has a stable handle.
+ * Items are removed by moving the last item of their list into the gap, so removal is
+ * O(1) but reorders the list; use handles, not list positions, to refer to items.
  */
 public class RobotArena {
-    private final List<ArenaItem> items; // Holds all robots and obstacles
+    public static final double DEFAULT_WIDTH = 700;   // Arena size used when none is given
+    public static final double DEFAULT_HEIGHT = 600;
+
+    private final long seed;              // Seed all of the arena's randomness derives from
+    private final SplittableRandom random; // Source of random positions and directions
+    private final double width, height;  // Size of the arena
+    private final ArrayList<Robot> robots = new ArrayList<>();  // All robot items, in no particular order
+    private final List<Obstacle> obstacles = new ArrayList<>(); // All obstacles, in no particular order
+    private final List<Robot> robotsView = Collections.unmodifiableList(robots);
+    private final List<Obstacle> obstaclesView = Collections.unmodifiableList(obstacles);
+    private final HandleTable handles = new HandleTable();      // Maps handles to items and list positions
+    private int[] obstacleStack = new int[16];                  // Obstacle handles in the order added
+    private int obstacleStackSize = 0;
+    private final RobotStore compactRobots = new RobotStore(); // Robots kept in compact array form
+    private final SpatialGrid obstacleGrid = new SpatialGrid(GhostRobot.PROXIMITY_RANGE); // Cell size from the largest query radius
+    private final BoxGrid obstacleBoxes = new BoxGrid(BOX_CELL_SIZE); // The obstacles' boxes, for whisker ray casts
+    private long obstacleVersion = 0;     // Changes whenever the set of obstacles does
+    private long gridObstacleVersion = -1; // Obstacle version the obstacle grid was built from
+    private Obstacle lastObstacle;         // The most recently added obstacle, as of the last grid update
+    private long robotVersion = 0;        // Changes whenever the set of robot items does
+    public static final double ROBOT_GRID_SLACK = 20;  // How far robots may move before the robot grid is rebuilt
+    static final double BOX_CELL_SIZE = 50;            // Box grid cell size, a little more than an obstacle
+
+    private double[] robotX = new double[64];              // Positions of every robot indexed by the robot grid,
+    private double[] robotY = new double[64];              // the robot items followed by the compact robots
+    private double[] indexedX = new double[64];            // Positions when the robot grid was last rebuilt
+    private double[] indexedY = new double[64];
+    private long indexedRobotVersion = -1;                 // Robot and compact store versions when it was last rebuilt
+    private long indexedCompactVersion = -1;
+    private final SpatialGrid robotGrid = new SpatialGrid(UserControlledRobot.DETECTION_CONE_RANGE);
+    private final SweepAndPrune broadphase = new SweepAndPrune(); // Finds robots touching each other
+    private final long[] robotContacts = new long[RobotType.values().length]; // Robots turned by touching another, per type tag
+    private long sweptRobotVersion = -1;                   // Robot and compact store versions when it last swept
+    private long sweptCompactVersion = -1;
 
     /**
-     * Constructs a new RobotArena and initialises with default items.
+     * Constructs a new RobotArena with a random seed and initialises with default items.
      */
     public RobotArena() {
-        this.items = new ArrayList<>();
-        // Add a default obstacle
-        items.add(new Obstacle(400, 300)); // Default obstacle
+        this(new SplittableRandom().nextLong(), DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    /**
+     * Constructs a new RobotArena and initialises with default items.
+     * Arenas built from the same seed and the same sequence of calls are identical.
+     *
+     * @param seed   The seed for the arena's random numbers.
+     * @param width  The width of the arena.
+     * @param height The height of the arena.
+     */
+    public RobotArena(long seed, double width, double height) {
+        this(seed, width, height, true);
+    }
+
+    private RobotArena(long seed, double width, double height, boolean defaultItems) {
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+        this.width = width;
+        this.height = height;
+        if (defaultItems) {
+            addItem(new Obstacle(400, 300, random)); // Default obstacle
+        }
+    }
+
+    /**
+     * Constructs an arena with no items at all, e.g. to load a saved arena into.
+     *
+     * @return The empty arena.
+     */
+    public static RobotArena empty() {
+        return empty(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+    /**
+     * Constructs an arena of a given size with no items at all.
+     *
+     * @param width  The width of the arena.
+     * @param height The height of the arena.
+     * @return The empty arena.
+     */
+    public static RobotArena empty(double width, double height) {
+        return new RobotArena(new SplittableRandom().nextLong(), width, height, false);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the arena's random number generator.
+     * Anything random that happens to the arena should draw from this (or a split of it).
+     *
+     * @return The random number generator.
+     */
+    public SplittableRandom getRandom() {
+        return random;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    /**
+     * Adds a robot at a random position and direction.
+     *
+     * @param type The type of robot to add.
+     * @return The new robot.
+     */
+    public Robot addRandomRobot(RobotType type) {
+        double x = random.nextInt(0, (int) width - 50);
+        double y = random.nextInt(0, (int) height - 50);
+        Robot robot = type.create(x, y, random.nextDouble() * 360);
+        addItem(robot);
+        return robot;
+    }
+
+    /**
+     * Adds an obstacle at a random position.
+     *
+     * @return The new obstacle.
+     */
+    public Obstacle addRandomObstacle() {
+        Obstacle obstacle = new Obstacle(width, height, random);
+        addItem(obstacle);
+        return obstacle;
     }
 
     /**
      * Adds an item (robot or obstacle) to the arena.
      *
      * @param item The item to add.
+     * @return The item's handle.
+     * @throws IllegalArgumentException If the item is already in an arena.
      */
-    public void addItem(ArenaItem item) {
-        items.add(item);
+    public int addItem(ArenaItem item) {
+        if (item.handle != -1) {
+            throw new IllegalArgumentException("Item is already in an arena");
+        }
+        if (item instanceof Robot robot) {
+            item.handle = handles.allocate(item, robots.size());
+            robots.add(robot);
+            robotVersion++;
+        } else if (item instanceof Obstacle obstacle) {
+            item.handle = handles.allocate(item, obstacles.size());
+            obstacles.add(obstacle);
+            pushObstacle(item.handle);
+            obstacleVersion++;
+        } else {
+            throw new IllegalArgumentException("Unknown arena item " + item.getClass().getName());
+        }
+        return item.handle;
+    }
+
+    /**
+     * Adds a batch of robot objects, e.g. a generated population, in one step.
+     *
+     * @param batch The robots to add.
+     * @throws IllegalArgumentException If any of the robots is already in an arena.
+     */
+    public void addRobots(Robot[] batch) {
+        for (Robot robot : batch) {
+            if (robot.handle != -1) {
+                throw new IllegalArgumentException("Robot is already in an arena");
+            }
+        }
+        robots.ensureCapacity(robots.size() + batch.length);
+        for (Robot robot : batch) {
+            robot.handle = handles.allocate(robot, robots.size());
+            robots.add(robot);
+        }
+        robotVersion++;
+    }
+
+    /**
+     * Generates a population of robots and adds it in one batch.
+     *
+     * @param types        The types of robot to add, in equal shares.
+     * @param count        The number of robots.
+     * @param distribution How the robots are spread over the arena.
+     * @param seed         The seed for the robots' positions and directions.
+     * @param compact      Whether to add the robots to the compact store rather than as robot objects.
+     * @return The population added.
+     */
+    public Population spawnRobots(RobotType[] types, int count, Population.Distribution distribution,
+                                  long seed, boolean compact) {
+        Population population = Population.generate(types, count, distribution, seed, width, height);
+        population.addTo(this, compact);
+        return population;
+    }
+
+    /**
+     * Returns the item with a handle.
+     *
+     * @param handle The handle.
+     * @return The item, or null if no item in the arena has that handle.
+     */
+    public ArenaItem get(int handle) {
+        return handles.get(handle);
+    }
+
+    /**
+     * Removes the item with a handle.
+     *
+     * @param handle The handle of the item to remove.
+     * @return Whether there was such an item.
+     */
+    public boolean remove(int handle) {
+        ArenaItem item = handles.get(handle);
+        if (item == null) {
+            return false;
+        }
+        if (item instanceof Robot) {
+            removeAt(robots, handles.indexOf(handle));
+            robotVersion++;
+        } else {
+            removeAt(obstacles, handles.indexOf(handle));
+            obstacleVersion++;
+        }
+        return true;
+    }
+
+    /**
+     * Removes a batch of items by handle. Handles of items that are not in the arena are ignored.
+     *
+     * @param batch The handles of the items to remove.
+     * @param count The number of handles to use.
+     * @return The number of items removed.
+     */
+    public int removeAll(int[] batch, int count) {
+        int removed = 0;
+        for (int i = 0; i < count; i++) {
+            if (remove(batch[i])) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the robot or obstacle at an index of its list, moving the list's last item into its place.
+     */
+    private <T extends ArenaItem> void removeAt(List<T> list, int index) {
+        T item = list.get(index);
+        T last = list.remove(list.size() - 1);
+        if (last != item) {
+            list.set(index, last);
+            handles.move(last.handle, index);
+        }
+        handles.release(item.handle);
+        item.handle = -1;
     }
 
     /**
      * Removes the last obstacle from the arena.
      */
     public void removeLastObstacle() {
-        for (int i = items.size() - 1; i >= 0; i--) {
-            if (items.get(i) instanceof Obstacle) {
-                items.remove(i); // Remove the obstacle
-                break; // Remove only the last obstacle
+        // Obstacles removed some other way are still on the stack, so skip them
+        while (obstacleStackSize > 0) {
+            int handle = obstacleStack[--obstacleStackSize];
+            if (handles.get(handle) instanceof Obstacle) {
+                remove(handle); // Remove only the last obstacle
+                break;
             }
         }
     }
 
+    private void pushObstacle(int handle) {
+        if (obstacleStackSize == obstacleStack.length) {
+            // Drop handles of obstacles that have since been removed before growing
+            int n = 0;
+            for (int i = 0; i < obstacleStackSize; i++) {
+                if (handles.get(obstacleStack[i]) instanceof Obstacle) {
+                    obstacleStack[n++] = obstacleStack[i];
+                }
+            }
+            obstacleStackSize = n;
+            if (n > obstacleStack.length / 2) {
+                obstacleStack = Arrays.copyOf(obstacleStack, obstacleStack.length * 2);
+            }
+        }
+        obstacleStack[obstacleStackSize++] = handle;
+    }
+
     /**
-     * Returns all items in the arena.
+     * Returns the compact robot storage.
+     * Large populations live here instead of as one object per robot in the item list.
      *
-     * @return A list of all items in the arena.
+     * @return The compact robot store.
      */
-    public List<ArenaItem> getItems() {
-        return items;
+    public RobotStore getCompactRobots() {
+        return compactRobots;
     }
 
     /**
-     * Returns a list of all robots in the arena.
+     * Brings the obstacle grid and obstacle boxes up to date with the obstacles.
+     * Called once per tick before the robots query it; obstacles never move, so the grid
+     * is only rebuilt after obstacles have been added or removed.
+     */
+    public void updateGrid() {
+        if (gridObstacleVersion != obstacleVersion) {
+            obstacleGrid.rebuild(obstacles);
+            obstacleBoxes.rebuild(obstacles);
+            lastObstacle = findLastObstacle();
+            gridObstacleVersion = obstacleVersion;
+        }
+    }
+
+    /**
+     * Returns the most recently added of the obstacles still in the arena, as of the last
+     * updateGrid. Ghosts slow down for this obstacle alone.
      *
-     * @return A list of robots in the arena.
+     * @return The obstacle, or null if there are none.
      */
-  //  public List<Robot> getRobots() {
-       // return items;
-         
-  //  }
+    public Obstacle getLastObstacle() {
+        return lastObstacle;
+    }
+
+    /**
+     * Returns the obstacles in the order they were added.
+     *
+     * @return A new list of the obstacles, oldest first.
+     */
+    public List<Obstacle> getObstaclesInOrder() {
+        List<Obstacle> inOrder = new ArrayList<>(obstacles.size());
+        for (int i = 0; i < obstacleStackSize; i++) {
+            if (handles.get(obstacleStack[i]) instanceof Obstacle obstacle) {
+                inOrder.add(obstacle);
+            }
+        }
+        return inOrder;
+    }
+
+    private Obstacle findLastObstacle() {
+        for (int i = obstacleStackSize - 1; i >= 0; i--) {
+            if (handles.get(obstacleStack[i]) instanceof Obstacle obstacle) {
+                return obstacle;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Returns a counter that changes whenever robot items are added or removed.
+     *
+     * @return The robot version.
+     */
+    public long getRobotVersion() {
+        return robotVersion;
+    }
+
+    /**
+     * Returns a counter that changes whenever obstacles are added or removed.
+     * Obstacles never move, so anything drawn from them only needs redrawing when this changes.
+     *
+     * @return The obstacle version.
+     */
+    public long getObstacleVersion() {
+        return obstacleVersion;
+    }
+
+    /**
+     * Returns the obstacles. Obstacle grid query results are indices into this list.
+     *
+     * @return A read-only view of the obstacles.
+     */
+    public List<Obstacle> getObstacles() {
+        return obstaclesView;
+    }
+
+    /**
+     * Returns the spatial hash over the obstacles.
+     *
+     * @return The obstacle grid.
+     */
+    public SpatialGrid getObstacleGrid() {
+        return obstacleGrid;
+    }
+
+    /**
+     * Returns the grid of obstacle boxes that whiskers are cast against.
+     *
+     * @return The obstacle boxes.
+     */
+    public BoxGrid getObstacleBoxes() {
+        return obstacleBoxes;
+    }
+
+    /**
+     * Brings the robot grid up to date with the robots' current positions.
+     * Grid index i is the robot item getRobots().get(i) when i is below getRobots().size(),
+     * and otherwise the compact robot i - getRobots().size().
+     *
+     * The grid is loose: it is only rebuilt when robots have been added or removed, or
+     * once some robot has moved more than ROBOT_GRID_SLACK from where it was indexed.
+     * Queries must widen their area by ROBOT_GRID_SLACK and do their exact tests against
+     * getRobotX/getRobotY, which are always current.
+     */
+    public void updateRobotGrid() {
+        boolean rebuild = robotVersion != indexedRobotVersion || compactRobots.getVersion() != indexedCompactVersion;
+        int total = gatherRobotPositions();
+
+        // Rebuild once any robot has left the slack around its indexed position
+        for (int i = 0; i < total && !rebuild; i++) {
+            rebuild = Math.abs(robotX[i] - indexedX[i]) > ROBOT_GRID_SLACK
+                    || Math.abs(robotY[i] - indexedY[i]) > ROBOT_GRID_SLACK;
+        }
+        if (rebuild) {
+            robotGrid.rebuild(total, robotX, robotY);
+            System.arraycopy(robotX, 0, indexedX, 0, total);
+            System.arraycopy(robotY, 0, indexedY, 0, total);
+            indexedRobotVersion = robotVersion;
+            indexedCompactVersion = compactRobots.getVersion();
+        }
+    }
+
+    /**
+     * Copies every robot's current position into robotX/robotY, robot items first.
+     *
+     * @return The number of robots.
+     */
+    private int gatherRobotPositions() {
+        int n = robots.size();
+        int total = n + compactRobots.size();
+        if (robotX.length < total) {
+            int capacity = Math.max(total, robotX.length * 2);
+            robotX = Arrays.copyOf(robotX, capacity);
+            robotY = Arrays.copyOf(robotY, capacity);
+            indexedX = Arrays.copyOf(indexedX, capacity);
+            indexedY = Arrays.copyOf(indexedY, capacity);
+        }
+        for (int i = 0; i < n; i++) {
+            robotX[i] = robots.get(i).getX();
+            robotY[i] = robots.get(i).getY();
+        }
+        for (int i = 0; i < compactRobots.size(); i++) {
+            robotX[n + i] = compactRobots.getX(i);
+            robotY[n + i] = compactRobots.getY(i);
+        }
+        return total;
+    }
+
+    /**
+     * Finds the robots whose bodies touch and lets each react as its type does: regular
+     * robots reverse and whisker robots turn, as they do off obstacles, and ghosts pass
+     * through other robots and let them pass through. A robot only reacts while it is
+     * heading towards the robot it touches, so it does not turn back into it.
+     * Robots are numbered as in the robot grid, and getBroadphase() holds the pairs found
+     * until the next call.
+     *
+     * @param robotTags The RobotType tag of each robot object, in list order, or
+     *                  TypeGroups.NO_TYPE for a robot of no type; SimulationEngine keeps
+     *                  these for its type groups.
+     * @return The number of touching pairs found.
+     */
+    public int collideRobots(byte[] robotTags) {
+        boolean resort = robotVersion != sweptRobotVersion || compactRobots.getVersion() != sweptCompactVersion;
+        int total = gatherRobotPositions();
+        broadphase.update(total, robotX, robotY, 2 * Robot.BODY_RADIUS, resort);
+        sweptRobotVersion = robotVersion;
+        sweptCompactVersion = compactRobots.getVersion();
+
+        int n = robots.size();
+        byte[] compactTags = compactRobots.getTags();
+        int pairs = broadphase.getPairCount();
+        for (int p = 0; p < pairs; p++) {
+            int a = broadphase.getFirst(p), b = broadphase.getSecond(p);
+            byte tagA = a < n ? robotTags[a] : compactTags[a - n];
+            byte tagB = b < n ? robotTags[b] : compactTags[b - n];
+            if (tagA == TypeGroups.NO_TYPE || tagB == TypeGroups.NO_TYPE) continue; // Typeless robots pass through
+            RobotType typeA = RobotType.fromTag(tagA), typeB = RobotType.fromTag(tagB);
+            if (typeA.isSolid() && typeB.isSolid()) {
+                if (bounce(a, typeA, robotX[b], robotY[b])) robotContacts[typeA.tag()]++;
+                if (bounce(b, typeB, robotX[a], robotY[a])) robotContacts[typeB.tag()]++;
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * Returns how many times robots of a type have turned away from another robot they
+     * touched, over every collideRobots so far.
+     *
+     * @param type The robot type.
+     * @return The number of turns.
+     */
+    public long getRobotContacts(RobotType type) {
+        return robotContacts[type.tag()];
+    }
+
+    /**
+     * Returns the broadphase holding the touching pairs found by the last collideRobots.
+     *
+     * @return The broadphase.
+     */
+    public SweepAndPrune getBroadphase() {
+        return broadphase;
+    }
+
+    /**
+     * Turns a robot by its type's contact turn if it is heading towards a point.
+     *
+     * @return True if the robot turned.
+     */
+    private boolean bounce(int i, RobotType type, double towardsX, double towardsY) {
+        double dx = towardsX - robotX[i], dy = towardsY - robotY[i];
+        int n = robots.size();
+        if (i < n) {
+            Robot robot = robots.get(i);
+            robot.updateHeading();
+            if (robot.headingX * dx + robot.headingY * dy > 0) {
+                robot.direction = (robot.direction + type.getContactTurn()) % 360;
+                return true;
+            }
+        } else if (compactRobots.isHeadingTowards(i - n, dx, dy)) {
+            compactRobots.turn(i - n, type.getContactTurn());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the robot items in the arena.
+     *
+     * @return A read-only view of the robot items.
+     */
+    public List<Robot> getRobots() {
+        return robotsView;
+    }
+
+    /**
+     * Returns the spatial hash over every robot, both robot items and compact robots.
+     * Indexed positions can lag the robots by up to ROBOT_GRID_SLACK.
+     *
+     * @return The robot grid.
+     */
+    public SpatialGrid getRobotGrid() {
+        return robotGrid;
+    }
+
+    public double getRobotX(int i) {
+        return robotX[i];
+    }
+
+    public double getRobotY(int i) {
+        return robotY[i];
+    }
+
+    /**
+     * Removes a batch of robots found through the robot grid, which must not have had
+     * robots added or removed since it was last updated. Obstacles are never removed.
+     * Robots are removed from the highest index down, so each one moved into a gap has
+     * an index below every robot still to be removed.
+     *
+     * @param indices Robot grid indices of the robots to remove; sorted by this call.
+     * @param count   The number of indices to use.
+     */
+    public void removeRobots(int[] indices, int count) {
+        Arrays.sort(indices, 0, count);
+        int objects = robots.size();
+        int k = count - 1;
+        for (; k >= 0 && indices[k] >= objects; k--) {
+            compactRobots.remove(indices[k] - objects);
+        }
+        if (k >= 0) {
+            for (; k >= 0; k--) {
+                removeAt(robots, indices[k]);
+            }
+            robotVersion++;
+        }
+    }
 
     /**
      * Draws all items (robots and obstacles) in the arena.
@@ -66,21 +597,40 @@ public class RobotArena {
      * @param graphics The graphics context to draw on.
      */
     public void drawAll(GraphicsContext graphics) {
-        for (ArenaItem item : items) {
-            item.draw(graphics);
+        for (int i = 0; i < obstacles.size(); i++) {
+            obstacles.get(i).draw(graphics);
+        }
+        for (int i = 0; i < robots.size(); i++) {
+            robots.get(i).draw(graphics);
+        }
+        for (int i = 0; i < compactRobots.size(); i++) {
+            compactRobots.view(i).draw(graphics);
+        }
+    }
+
+    /**
+     * Draws all items, with robots drawn from pre-rendered sprites.
+     *
+     * @param graphics The graphics context to draw on.
+     * @param sprites  The sprite cache to draw robots from.
+     */
+    public void drawAll(GraphicsContext graphics, SpriteCache sprites) {
+        for (int i = 0; i < obstacles.size(); i++) {
+            obstacles.get(i).draw(graphics);
+        }
+        for (int i = 0; i < robots.size(); i++) {
+            sprites.draw(graphics, robots.get(i));
+        }
+        for (int i = 0; i < compactRobots.size(); i++) {
+            sprites.draw(graphics, compactRobots.getType(i), compactRobots.getX(i),
+                         compactRobots.getY(i), compactRobots.getDirection(i));
         }
     }
 
     public void removeItem(Robot robot) {
-        // Loop through all items in the arena
-        for (int i = 0; i < items.size(); i++) {
-            ArenaItem item = items.get(i);
-            
-            // Checks if item is the robot that needs to be removed
-            if (item == robot) {
-                items.remove(i);  // Removes robot from list
-                break;  
-            }
+        // Only remove the robot if it is in this arena
+        if (handles.get(robot.handle) == robot) {
+            remove(robot.handle);
         }
     }
 
@@ -0,0 +1,73 @@
+package testjfx;
+
+import java.util.List;
+
+/**
+ * A copy of every robot's id, type, position and heading after one step, for handing to
+ * another thread such as a telemetry or spectator writer. Copying is all the simulation
+ * thread does: compact robots are copied column by column, and their serial numbers are
+ * only turned into ids by the thread that uses the frame. Frames are reused, so their
+ * arrays are only reallocated when the number of robots outgrows them.
+ *
+ * A robot's id is its handle for a robot object and -(serial + 1) for a compact robot,
+ * so robots keep their ids while others are added and removed.
+ */
+final class RobotFrame {
+    long tick;       // The engine's tick count after the step
+    int count;       // Number of robots
+    int objects;     // Robot objects, which come before the compact robots
+    int[] ids = new int[0];
+    byte[] tags = new byte[0];  // RobotType tags, -1 for a robot without one
+    double[] x = new double[0], y = new double[0], direction = new double[0];
+    private boolean resolved;   // Whether the compact robots' serials have been turned into ids
+
+    /**
+     * Copies the robots of an arena. Must be called on the thread running the engine.
+     *
+     * @param tick  The engine's tick count.
+     * @param arena The arena.
+     */
+    void capture(long tick, RobotArena arena) {
+        List<Robot> robots = arena.getRobots();
+        RobotStore compactRobots = arena.getCompactRobots();
+        int n = robots.size(), compact = compactRobots.size();
+        ensureCapacity(n + compact);
+        this.tick = tick;
+        this.count = n + compact;
+        this.objects = n;
+        this.resolved = false;
+        for (int i = 0; i < n; i++) {
+            Robot robot = robots.get(i);
+            RobotType type = robot.getType();
+            ids[i] = robot.getHandle();
+            tags[i] = type == null ? -1 : type.tag();
+            x[i] = robot.getX();
+            y[i] = robot.getY();
+            direction[i] = robot.direction;
+        }
+        compactRobots.copyState(0, compact, x, y, direction, tags, ids, n);
+    }
+
+    /**
+     * Turns the compact robots' serial numbers into ids, on the thread using the frame.
+     * Does nothing when already done.
+     */
+    void resolveIds() {
+        if (resolved) return;
+        for (int i = objects; i < count; i++) {
+            ids[i] = -(ids[i] + 1);
+        }
+        resolved = true;
+    }
+
+    private void ensureCapacity(int count) {
+        if (ids.length < count) {
+            int capacity = count + count / 4;
+            ids = new int[capacity];
+            tags = new byte[capacity];
+            x = new double[capacity];
+            y = new double[capacity];
+            direction = new double[capacity];
+        }
+    }
+}
@@ -0,0 +1,539 @@
+package testjfx;
+
+import java.util.Arrays;
+
+/**
+ * Compact storage for large robot populations.
+ * Keeps positions, headings, speeds and type tags in parallel primitive arrays so the
+ * move and obstacle passes are tight loops over contiguous memory, instead of one heap
+ * object per robot. Behaves exactly like the equivalent Robot objects.
+ */
+public class RobotStore {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size = 0;         // Number of robots stored
+    private long version = 0;     // Changes whenever robots are added or removed
+    private double[] x;           // x-coordinates
+    private double[] y;           // y-coordinates
+    private double[] direction;   // Directions in degrees
+    private double[] speed;       // Speeds in pixels per tick
+    private double[] headingX;    // Unit vectors along the directions, kept up to date on every turn
+    private double[] headingY;
+    private double[] previousX;   // Positions before the last move, for drawing between steps
+    private double[] previousY;
+    private byte[] type;          // RobotType tags
+    private int[] serial;         // Number each robot was given when added, which follows it when others are removed
+    private int nextSerial = 0;   // Serial number of the next robot added
+
+    // One reusable object per type, used to present a stored robot as a Robot
+    private final Robot[] views = new Robot[RobotType.values().length];
+
+    // Whisker rays for detectWhiskers, one batch per thread since groups are checked in parallel
+    private static final ThreadLocal<BoxGrid.RayBatch> WHISKER_RAYS = ThreadLocal.withInitial(BoxGrid.RayBatch::new);
+
+    /**
+     * Tests a robot position.
+     */
+    public interface PositionTest {
+        boolean test(double x, double y);
+    }
+
+    public RobotStore() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty store.
+     *
+     * @param capacity The number of robots to reserve room for.
+     */
+    public RobotStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        x = new double[capacity];
+        y = new double[capacity];
+        direction = new double[capacity];
+        speed = new double[capacity];
+        headingX = new double[capacity];
+        headingY = new double[capacity];
+        previousX = new double[capacity];
+        previousY = new double[capacity];
+        type = new byte[capacity];
+        serial = new int[capacity];
+    }
+
+    /**
+     * Adds a robot with the default speed.
+     *
+     * @param robotType The type of robot.
+     * @param x         The x-coordinate of the robot.
+     * @param y         The y-coordinate of the robot.
+     * @param direction The direction in degrees.
+     * @return The index of the new robot.
+     */
+    public int add(RobotType robotType, double x, double y, double direction) {
+        if (size == this.x.length) {
+            grow(size * 2);
+        }
+        int i = size++;
+        version++;
+        this.x[i] = x;
+        this.y[i] = y;
+        this.previousX[i] = x;
+        this.previousY[i] = y;
+        this.direction[i] = direction;
+        this.speed[i] = 1; // Default speed, as in Robot
+        this.type[i] = robotType.tag();
+        this.serial[i] = nextSerial++;
+        updateHeading(i);
+        return i;
+    }
+
+    /**
+     * Adds a copy of a robot object's state.
+     *
+     * @param robot The robot to copy.
+     * @return The index of the new robot.
+     * @throws IllegalArgumentException If the robot has no RobotType, which a compact robot must have.
+     */
+    public int add(Robot robot) {
+        RobotType type = robot.getType();
+        if (type == null) {
+            throw new IllegalArgumentException("Robot has no type to store it compactly: " + robot.getClass().getName());
+        }
+        int i = add(type, robot.getX(), robot.getY(), robot.direction);
+        speed[i] = robot.speed;
+        return i;
+    }
+
+    /**
+     * Adds a batch of robots with the default speed, growing the arrays at most once.
+     *
+     * @param tags      The RobotType tag of each robot.
+     * @param x         The x-coordinates.
+     * @param y         The y-coordinates.
+     * @param direction The directions in degrees.
+     * @param count     The number of robots to add from the arrays.
+     */
+    public void addAll(byte[] tags, double[] x, double[] y, double[] direction, int count) {
+        if (size + count > this.x.length) {
+            grow(Math.max(size + count, size * 2));
+        }
+        System.arraycopy(tags, 0, this.type, size, count);
+        System.arraycopy(x, 0, this.x, size, count);
+        System.arraycopy(y, 0, this.y, size, count);
+        System.arraycopy(x, 0, this.previousX, size, count);
+        System.arraycopy(y, 0, this.previousY, size, count);
+        System.arraycopy(direction, 0, this.direction, size, count);
+        Arrays.fill(speed, size, size + count, 1); // Default speed, as in Robot
+        int start = size;
+        size += count;
+        version++;
+        for (int i = start; i < size; i++) {
+            serial[i] = nextSerial++;
+            updateHeading(i);
+        }
+    }
+
+    /**
+     * Removes a robot by moving the last robot into its place.
+     *
+     * @param i The index of the robot to remove.
+     */
+    public void remove(int i) {
+        int last = --size;
+        version++;
+        x[i] = x[last];
+        y[i] = y[last];
+        direction[i] = direction[last];
+        speed[i] = speed[last];
+        headingX[i] = headingX[last];
+        headingY[i] = headingY[last];
+        previousX[i] = previousX[last];
+        previousY[i] = previousY[last];
+        type[i] = type[last];
+        serial[i] = serial[last];
+    }
+
+    /**
+     * Removes every robot whose position passes a test.
+     *
+     * @param test The test applied to each robot position.
+     * @return The number of robots removed.
+     */
+    public int removeIf(PositionTest test) {
+        int removed = 0;
+        // Walk backwards so the robot swapped into a hole has already been tested
+        for (int i = size - 1; i >= 0; i--) {
+            if (test.test(x[i], y[i])) {
+                remove(i);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public void clear() {
+        size = 0;
+        version++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a counter that changes whenever robots are added or removed, and so
+     * whenever any robot's index may have changed.
+     *
+     * @return The store version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public double getX(int i) {
+        return x[i];
+    }
+
+    public double getY(int i) {
+        return y[i];
+    }
+
+    public double getDirection(int i) {
+        return direction[i];
+    }
+
+    /**
+     * Returns a robot's x-coordinate part of the way through the last move.
+     *
+     * @param i     The index of the robot.
+     * @param alpha How far through the move, from 0 (where it started) to 1 (where it is now).
+     * @return The interpolated x-coordinate.
+     */
+    public double interpolateX(int i, double alpha) {
+        return previousX[i] + (x[i] - previousX[i]) * alpha;
+    }
+
+    /**
+     * Returns a robot's y-coordinate part of the way through the last move.
+     *
+     * @param i     The index of the robot.
+     * @param alpha How far through the move, from 0 (where it started) to 1 (where it is now).
+     * @return The interpolated y-coordinate.
+     */
+    public double interpolateY(int i, double alpha) {
+        return previousY[i] + (y[i] - previousY[i]) * alpha;
+    }
+
+    public double getSpeed(int i) {
+        return speed[i];
+    }
+
+    public void setSpeed(int i, double speed) {
+        this.speed[i] = speed;
+    }
+
+    public RobotType getType(int i) {
+        return RobotType.fromTag(type[i]);
+    }
+
+    public byte getTag(int i) {
+        return type[i];
+    }
+
+    /**
+     * Returns a robot's serial number. Robots are numbered in the order they were added,
+     * and keep their number while robots before them are removed and their index changes.
+     *
+     * @param i The index of the robot.
+     * @return The serial number.
+     */
+    public int getSerial(int i) {
+        return serial[i];
+    }
+
+    /**
+     * Copies the robots' positions, directions, type tags and serial numbers into arrays.
+     *
+     * @param from      The index of the first robot to copy.
+     * @param count     The number of robots to copy.
+     * @param x         Receives the x-coordinates.
+     * @param y         Receives the y-coordinates.
+     * @param direction Receives the directions in degrees.
+     * @param tags      Receives the RobotType tags.
+     * @param serials   Receives the serial numbers.
+     * @param at        Where in the arrays to start.
+     */
+    public void copyState(int from, int count, double[] x, double[] y, double[] direction, byte[] tags,
+                          int[] serials, int at) {
+        System.arraycopy(this.x, from, x, at, count);
+        System.arraycopy(this.y, from, y, at, count);
+        System.arraycopy(this.direction, from, direction, at, count);
+        System.arraycopy(this.type, from, tags, at, count);
+        System.arraycopy(this.serial, from, serials, at, count);
+    }
+
+    /**
+     * Returns the type tags array itself, for grouping the robots by type without a call per robot.
+     * Only the first size() entries are robots; the array must not be changed.
+     *
+     * @return The type tags.
+     */
+    byte[] getTags() {
+        return type;
+    }
+
+    /**
+     * Moves every robot, as Robot.move does for a single robot.
+     *
+     * @param dt          The length of the step in ticks.
+     * @param worldWidth  The width of the world the robots bounce around in.
+     * @param worldHeight The height of the world.
+     */
+    public void moveAll(double dt, double worldWidth, double worldHeight) {
+        move(dt, worldWidth, worldHeight, 0, size);
+    }
+
+    /**
+     * Moves the robots in the index range [from, to).
+     *
+     * @param dt          The length of the step in ticks.
+     * @param worldWidth  The width of the world the robots bounce around in.
+     * @param worldHeight The height of the world.
+     * @param from        The first index to move.
+     * @param to          One past the last index to move.
+     */
+    public void move(double dt, double worldWidth, double worldHeight, int from, int to) {
+        final double[] x = this.x, y = this.y, direction = this.direction, speed = this.speed;
+        final double[] headingX = this.headingX, headingY = this.headingY;
+        System.arraycopy(x, from, previousX, from, to - from);
+        System.arraycopy(y, from, previousY, from, to - from);
+        for (int i = from; i < to; i++) {
+            x[i] += speed[i] * dt * headingX[i];
+            y[i] += speed[i] * dt * headingY[i];
+        }
+
+        // Bounce off walls, kept out of the loop above so that loop stays branch free
+        final double maxX = worldWidth - Robot.WALL_MARGIN, maxY = worldHeight - Robot.WALL_MARGIN;
+        for (int i = from; i < to; i++) {
+            boolean bounceX = x[i] < Robot.WALL_MARGIN || x[i] > maxX;
+            boolean bounceY = y[i] < Robot.WALL_MARGIN || y[i] > maxY;
+            if (bounceX) direction[i] = 180 - direction[i];
+            if (bounceY) direction[i] = -direction[i];
+            if (bounceX || bounceY) updateHeading(i);
+        }
+    }
+
+    /**
+     * Moves the robots in the index range [from, to) around an arena, sweeping the moves
+     * longer than a unit step at the default speed as Robot.move(double, RobotArena) does.
+     * When no robot in the range moves that far this is the same as the plain move.
+     *
+     * @param dt    The length of the step in ticks.
+     * @param arena The arena, with its obstacle grid up to date.
+     * @param from  The first index to move.
+     * @param to    One past the last index to move.
+     */
+    public void move(double dt, RobotArena arena, int from, int to) {
+        final double[] x = this.x, y = this.y, direction = this.direction, speed = this.speed;
+        double fastest = 0;
+        for (int i = from; i < to; i++) {
+            fastest = Math.max(fastest, speed[i]);
+        }
+        if (!SweptMotion.isSwept(fastest, dt)) {
+            move(dt, arena.getWidth(), arena.getHeight(), from, to);
+            return;
+        }
+
+        SweptMotion sweep = SweptMotion.around(arena);
+        final double maxX = arena.getWidth() - Robot.WALL_MARGIN, maxY = arena.getHeight() - Robot.WALL_MARGIN;
+        System.arraycopy(x, from, previousX, from, to - from);
+        System.arraycopy(y, from, previousY, from, to - from);
+        for (int i = from; i < to; i++) {
+            double before = direction[i];
+            if (SweptMotion.isSwept(speed[i], dt)) {
+                sweep.move(x[i], y[i], direction[i], speed[i] * dt, RobotType.fromTag(type[i]));
+                x[i] = sweep.getX();
+                y[i] = sweep.getY();
+                direction[i] = sweep.getDirection();
+            } else {
+                x[i] += speed[i] * dt * headingX[i];
+                y[i] += speed[i] * dt * headingY[i];
+                if (x[i] < Robot.WALL_MARGIN || x[i] > maxX) direction[i] = 180 - direction[i];
+                if (y[i] < Robot.WALL_MARGIN || y[i] > maxY) direction[i] = -direction[i];
+            }
+            if (direction[i] != before) {
+                updateHeading(i);
+            }
+        }
+    }
+
+    /**
+     * Runs the bump sensors of a group of regular robots, as RegularRobot.detectCollision does.
+     *
+     * @param arena   The arena whose obstacle grid is checked.
+     * @param members Robot indices, all of regular robots.
+     * @param from    The first position in members to check.
+     * @param to      One past the last position in members to check.
+     * @return The number of robots that bumped into an obstacle.
+     */
+    public int detectBumps(RobotArena arena, int[] members, int from, int to) {
+        SpatialGrid grid = arena.getObstacleGrid();
+        final double[] x = this.x, y = this.y, direction = this.direction;
+        int contacts = 0;
+        for (int m = from; m < to; m++) {
+            int i = members[m];
+            int hits = grid.countWithin(x[i], y[i], RegularRobot.COLLISION_RANGE);
+            if (hits == 0) continue;
+            contacts++;
+            double before = direction[i];
+            for (int h = 0; h < hits; h++) {
+                direction[i] = (direction[i] + 180) % 360; // Reverse direction
+            }
+            if (direction[i] != before) {
+                updateHeading(i);
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * Runs the whiskers of a group of whisker robots, as WhiskerRobot.detectCollision and
+     * detectBorderCollision do. Every whisker in the group is cast in one batch.
+     *
+     * @param arena   The arena whose obstacle boxes and border are checked.
+     * @param members Robot indices, all of whisker robots.
+     * @param from    The first position in members to check.
+     * @param to      One past the last position in members to check.
+     * @return The number of robots with a whisker touching an obstacle.
+     */
+    public int detectWhiskers(RobotArena arena, int[] members, int from, int to) {
+        final double width = arena.getWidth(), height = arena.getHeight();
+        final double[] x = this.x, y = this.y, direction = this.direction;
+        final double[] headingX = this.headingX, headingY = this.headingY;
+        BoxGrid.RayBatch rays = WHISKER_RAYS.get();
+        rays.clear();
+        for (int m = from; m < to; m++) {
+            int i = members[m];
+            double hx = headingX[i], hy = headingY[i];
+            rays.add(x[i], y[i], WhiskerRobot.tipX(x[i], hx, hy, WhiskerRobot.LEFT),
+                     WhiskerRobot.tipY(y[i], hx, hy, WhiskerRobot.LEFT));
+            rays.add(x[i], y[i], WhiskerRobot.tipX(x[i], hx, hy, WhiskerRobot.RIGHT),
+                     WhiskerRobot.tipY(y[i], hx, hy, WhiskerRobot.RIGHT));
+        }
+        arena.getObstacleBoxes().castRays(rays);
+
+        // Turn the robots in the order their whiskers were queued, left then right
+        int ray = 0, contacts = 0;
+        for (int m = from; m < to; m++) {
+            int i = members[m];
+            double before = direction[i];
+            boolean left = rays.isHit(ray), right = rays.isHit(ray + 1);
+            if (left || right) contacts++;
+            direction[i] = WhiskerRobot.whiskerTurn(direction[i], left, right);
+            if (direction[i] != before) {
+                updateHeading(i); // The border check needs the heading after the whiskers' turn
+            }
+            double turned = direction[i];
+            direction[i] = WhiskerRobot.borderTurn(x[i], y[i], direction[i], headingX[i], headingY[i], width, height);
+            ray += 2;
+            if (direction[i] != turned) {
+                updateHeading(i);
+            }
+        }
+        return contacts;
+    }
+
+    /**
+     * Runs the proximity sensors of a group of ghosts, as GhostRobot.detectProximity does:
+     * only the arena's most recently added obstacle counts.
+     *
+     * @param arena   The arena whose last obstacle is checked.
+     * @param members Robot indices, all of ghosts.
+     * @param from    The first position in members to check.
+     * @param to      One past the last position in members to check.
+     * @return The number of ghosts next to an obstacle.
+     */
+    public int detectProximity(RobotArena arena, int[] members, int from, int to) {
+        Obstacle obstacle = arena.getLastObstacle();
+        if (obstacle == null) return 0; // Speeds stay as they are
+        final double obstacleX = obstacle.getX(), obstacleY = obstacle.getY();
+        final double[] x = this.x, y = this.y, speed = this.speed;
+        int contacts = 0;
+        for (int m = from; m < to; m++) {
+            int i = members[m];
+            boolean near = Kinematics.withinRange(x[i] - obstacleX, y[i] - obstacleY, GhostRobot.PROXIMITY_RANGE);
+            speed[i] = near ? 0.5 : 1; // Slow down next to obstacles
+            if (near) contacts++;
+        }
+        return contacts;
+    }
+
+    /**
+     * Turns a robot.
+     *
+     * @param i       The index of the robot.
+     * @param degrees The angle to turn by, clockwise.
+     */
+    public void turn(int i, double degrees) {
+        direction[i] = (direction[i] + degrees) % 360;
+        updateHeading(i);
+    }
+
+    /**
+     * Tells whether a robot is heading towards a point.
+     *
+     * @param i  The index of the robot.
+     * @param dx The x-offset of the point from the robot.
+     * @param dy The y-offset of the point from the robot.
+     * @return True if the point is ahead of the robot.
+     */
+    public boolean isHeadingTowards(int i, double dx, double dy) {
+        return headingX[i] * dx + headingY[i] * dy > 0;
+    }
+
+    /**
+     * Works out a robot's heading vector from its direction, after it has turned.
+     *
+     * @param i The index of the robot.
+     */
+    private void updateHeading(int i) {
+        headingX[i] = Kinematics.cos(direction[i]);
+        headingY[i] = Kinematics.sin(direction[i]);
+    }
+
+    /**
+     * Presents a stored robot as a Robot object, for drawing and inspection.
+     * The returned object is shared and only valid until the next call for the same type;
+     * changes made to it are not written back.
+     *
+     * @param i The index of the robot.
+     * @return A view of the robot.
+     */
+    public Robot view(int i) {
+        int tag = type[i];
+        Robot view = views[tag];
+        if (view == null) {
+            view = RobotType.fromTag(tag).create(0, 0, 0);
+            views[tag] = view;
+        }
+        view.x = x[i];
+        view.y = y[i];
+        view.direction = direction[i];
+        view.speed = speed[i];
+        return view;
+    }
+
+    private void grow(int capacity) {
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        direction = Arrays.copyOf(direction, capacity);
+        speed = Arrays.copyOf(speed, capacity);
+        headingX = Arrays.copyOf(headingX, capacity);
+        headingY = Arrays.copyOf(headingY, capacity);
+        previousX = Arrays.copyOf(previousX, capacity);
+        previousY = Arrays.copyOf(previousY, capacity);
+        type = Arrays.copyOf(type, capacity);
+        serial = Arrays.copyOf(serial, capacity);
+    }
+}
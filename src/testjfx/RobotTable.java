@@ -0,0 +1,122 @@
+package testjfx;
+
+import java.util.Arrays;
+
+/**
+ * Robots keyed by id, with their positions and headings in the fixed-point units the
+ * spectator protocol sends them in. The rows are kept densely in insertion order, so they
+ * can be walked without the hash slots, and found by id through an open-addressing table
+ * of row numbers. Rows are never removed one at a time: a table is cleared and refilled,
+ * or copied without the rows marked, so the hash table needs no tombstones.
+ */
+final class RobotTable {
+    static final byte MARKED = 1; // Flag set on a row, e.g. seen this tick or removed
+
+    int size = 0;
+    int[] ids = new int[16];
+    byte[] tags = new byte[16];
+    int[] x = new int[16], y = new int[16], direction = new int[16];
+    int[] dx = new int[16], dy = new int[16]; // Distance moved in the last tick
+    byte[] flags = new byte[16];
+    private int[] slots = new int[32];        // Row + 1 of the robot in each hash slot, 0 when empty
+
+    /**
+     * Finds a robot's row.
+     *
+     * @param id The robot's id.
+     * @return The row, or -1 when the robot is not in the table.
+     */
+    int find(int id) {
+        int mask = slots.length - 1;
+        for (int h = hash(id) & mask; slots[h] != 0; h = (h + 1) & mask) {
+            int row = slots[h] - 1;
+            if (ids[row] == id) return row;
+        }
+        return -1;
+    }
+
+    /**
+     * Adds a robot, or replaces its row when it is already in the table.
+     *
+     * @param id        The robot's id.
+     * @param tag       Its RobotType tag.
+     * @param x         Its x-coordinate.
+     * @param y         Its y-coordinate.
+     * @param direction Its direction.
+     * @return The robot's row.
+     */
+    int put(int id, byte tag, int x, int y, int direction) {
+        int row = find(id);
+        if (row < 0) {
+            if (size == ids.length) {
+                grow();
+            }
+            row = size++;
+            ids[row] = id;
+            insertSlot(row);
+        }
+        tags[row] = tag;
+        this.x[row] = x;
+        this.y[row] = y;
+        this.direction[row] = direction;
+        dx[row] = 0;
+        dy[row] = 0;
+        flags[row] = 0;
+        return row;
+    }
+
+    /**
+     * Removes every robot.
+     */
+    void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    /**
+     * Replaces this table's robots with another's, leaving out the rows marked there.
+     *
+     * @param other The table to copy.
+     */
+    void copyUnmarked(RobotTable other) {
+        clear();
+        for (int row = 0; row < other.size; row++) {
+            if (other.flags[row] != MARKED) {
+                int copy = put(other.ids[row], other.tags[row], other.x[row], other.y[row], other.direction[row]);
+                dx[copy] = other.dx[row];
+                dy[copy] = other.dy[row];
+            }
+        }
+    }
+
+    private void insertSlot(int row) {
+        int mask = slots.length - 1;
+        int h = hash(ids[row]) & mask;
+        while (slots[h] != 0) {
+            h = (h + 1) & mask;
+        }
+        slots[h] = row + 1;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        tags = Arrays.copyOf(tags, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        direction = Arrays.copyOf(direction, capacity);
+        dx = Arrays.copyOf(dx, capacity);
+        dy = Arrays.copyOf(dy, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        // Keep the hash table at most half full
+        slots = new int[capacity * 2];
+        for (int row = 0; row < size; row++) {
+            insertSlot(row);
+        }
+    }
+
+    private static int hash(int id) {
+        int h = id * 0x9E3779B9; // Ids are mostly consecutive, so spread them over the table
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,88 @@
+package testjfx;
+
+import javafx.scene.paint.Color;
+
+/**
+ * The kinds of robot that can live in the arena.
+ * The ordinal doubles as the compact type tag stored by RobotStore.
+ */
+public enum RobotType {
+    REGULAR("Regular Robot", Color.LIGHTBLUE, 180, RegularRobot.COLLISION_RANGE, RegularRobot::new), // Reverses off other robots, as off obstacles
+    WHISKER("Whisker Robot", Color.LIGHTGREEN, 45, 0, WhiskerRobot::new),                            // Turns off other robots, as off obstacles
+    GHOST("Ghost Robot", Color.GREY, 0, 0, GhostRobot::new);                                         // Passes through other robots and obstacles
+
+    /**
+     * Creates robot objects of a type.
+     */
+    interface Factory {
+        Robot create(double x, double y, double direction);
+    }
+
+    private static final RobotType[] VALUES = values();
+
+    private final String label;  // Name shown in menus
+    private final Color colour;  // Body colour, used when robots are too small to draw in detail
+    private final double contactTurn; // Degrees turned on bumping into another robot or an obstacle, 0 to pass through
+    private final double obstacleRange; // Distance from an obstacle at which the sensor turns the robot, 0 for none or whiskers
+    private final Factory factory;      // Creates the robot objects, which return this type from getType
+
+    RobotType(String label, Color colour, double contactTurn, double obstacleRange, Factory factory) {
+        this.label = label;
+        this.colour = colour;
+        this.contactTurn = contactTurn;
+        this.obstacleRange = obstacleRange;
+        this.factory = factory;
+    }
+
+    /**
+     * Creates a robot object of this type.
+     *
+     * @param x         The x-coordinate of the robot.
+     * @param y         The y-coordinate of the robot.
+     * @param direction The initial direction in degrees.
+     * @return The new robot.
+     */
+    public Robot create(double x, double y, double direction) {
+        return factory.create(x, y, direction);
+    }
+
+    /**
+     * Returns the type for a compact type tag.
+     *
+     * @param tag The tag, as stored by RobotStore.
+     * @return The robot type.
+     */
+    public static RobotType fromTag(int tag) {
+        return VALUES[tag];
+    }
+
+    public double getContactTurn() {
+        return contactTurn;
+    }
+
+    public double getObstacleRange() {
+        return obstacleRange;
+    }
+
+    /**
+     * Tells whether robots of this type bump into other robots rather than passing through.
+     *
+     * @return True if solid.
+     */
+    public boolean isSolid() {
+        return contactTurn != 0;
+    }
+
+    public Color getColour() {
+        return colour;
+    }
+
+    public byte tag() {
+        return (byte) ordinal();
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
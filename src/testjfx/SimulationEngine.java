@@ -0,0 +1,562 @@
+package testjfx;
+
+import javafx.scene.input.KeyCode;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Advances the robot arena simulation.
+ * Owns the movement, collision and detection cone logic, and has no dependency
+ * on the JavaFX toolkit, so arenas can also be run headless.
+ */
+public class SimulationEngine {
+    private RobotArena arena;                     // The arena being simulated
+    private final UserControlledRobot userRobot;  // The robot steered by the user
+    private long tickCount = 0;                   // Number of steps taken so far
+    private ReplayLog replayLog;                  // Records commands and state hashes, null when not recording
+
+    static final int CHUNK_SIZE = 4096;           // Robots per parallel work item
+    private ForkJoinPool pool;                    // Runs the per-robot phase, null when single-threaded
+    private final TickProfiler profiler = new TickProfiler(); // Times the phases of each step, when enabled
+    private boolean robotCollisions = false;      // Whether robots bump into each other
+
+    private static final RobotType[] TYPES = RobotType.values();
+    private final BehaviourPipeline pipeline = BehaviourPipeline.standard(); // The sensor stage of each robot type
+    private final TypeGroups itemGroups = new TypeGroups();    // Robot items grouped by type within each chunk
+    private final TypeGroups compactGroups = new TypeGroups(); // Compact robots grouped the same way
+    private byte[] itemTags = new byte[0];                     // Scratch: the robot items' type tags
+    private RobotArena groupedArena;                           // The arena the groups were built for
+    private long groupedRobotVersion, groupedCompactVersion;   // Its robot versions at the time
+    private TelemetryWriter telemetry;            // Records every robot's state after each step, null when off
+    private SpectatorServer spectators;           // Streams the state after each step to spectators, null when off
+    private final AtomicLongArray obstacleContacts = new AtomicLongArray(TYPES.length); // Sensor detections per type tag
+
+    /**
+     * A piece of per-robot work over the index range [from, to).
+     */
+    private interface RangeAction {
+        void run(int from, int to);
+    }
+
+    /**
+     * Creates an engine for an arena.
+     *
+     * @param arena     The arena to simulate.
+     * @param userRobot The user-controlled robot hunting the other robots.
+     */
+    public SimulationEngine(RobotArena arena, UserControlledRobot userRobot) {
+        this.arena = arena;
+        this.userRobot = userRobot;
+    }
+
+    /**
+     * Starts a new session: an arena built from the seed with the default obstacles,
+     * two regular robots and the user-controlled robot in the centre.
+     * Sessions started from the same seed are identical.
+     *
+     * @param seed   The seed for the arena's random numbers.
+     * @param width  The width of the arena.
+     * @param height The height of the arena.
+     * @return The engine for the new session.
+     */
+    public static SimulationEngine newSession(long seed, double width, double height) {
+        RobotArena arena = new RobotArena(seed, width, height);
+        for (int i = 0; i < 5; i++) {
+            arena.addRandomObstacle(); // 5 default obstacles
+        }
+        arena.addRandomRobot(RobotType.REGULAR); // Two initial bump robots
+        arena.addRandomRobot(RobotType.REGULAR);
+        return new SimulationEngine(arena, new UserControlledRobot(width / 2, height / 2));
+    }
+
+    /**
+     * Starts recording this session's commands and state hashes.
+     * Only a session fresh from newSession can be replayed from its log.
+     *
+     * @return The log being recorded.
+     */
+    public ReplayLog startRecording() {
+        replayLog = new ReplayLog(arena.getSeed(), arena.getWidth(), arena.getHeight());
+        return replayLog;
+    }
+
+    /**
+     * Returns the log being recorded.
+     *
+     * @return The replay log, or null when not recording.
+     */
+    public ReplayLog getReplayLog() {
+        return replayLog;
+    }
+
+    /**
+     * Passes a key press to the user-controlled robot as a single discrete move.
+     *
+     * @param code The key pressed.
+     */
+    public void handleKeyInput(KeyCode code) {
+        record(ReplayLog.EventType.KEY, code.name());
+        userRobot.handleKeyInput(code);
+    }
+
+    /**
+     * Records a control key being pressed or released. The user-controlled robot is
+     * steered by the keys held at each step.
+     *
+     * @param code    The key.
+     * @param pressed True when pressed, false when released.
+     */
+    public void setKeyPressed(KeyCode code, boolean pressed) {
+        if (!UserControlledRobot.isControlKey(code)) return;
+        record(pressed ? ReplayLog.EventType.KEY_PRESSED : ReplayLog.EventType.KEY_RELEASED, code.name());
+        userRobot.setKeyPressed(code, pressed);
+    }
+
+    /**
+     * Sets how fast held keys move and turn the user-controlled robot.
+     *
+     * @param moveSpeed The speed in pixels per tick.
+     * @param turnRate  The turn rate in degrees per tick.
+     */
+    public void setControlRates(double moveSpeed, double turnRate) {
+        record(ReplayLog.EventType.CONTROL_RATES, moveSpeed + ";" + turnRate);
+        userRobot.setControlRates(moveSpeed, turnRate);
+    }
+
+    /**
+     * Turns robot-to-robot collisions on or off. They are off by default: finding the
+     * touching pairs is cheap while robots are spread out, but grows with the square of
+     * the number of robots crowded into the same space.
+     *
+     * @param enabled Whether robots bump into each other.
+     */
+    public void setRobotCollisions(boolean enabled) {
+        record(ReplayLog.EventType.ROBOT_COLLISIONS, String.valueOf(enabled));
+        robotCollisions = enabled;
+    }
+
+    public boolean isRobotCollisions() {
+        return robotCollisions;
+    }
+
+    /**
+     * Starts or stops recording every robot's position and heading after each step. The
+     * caller owns the writer and closes it once it has been detached.
+     *
+     * @param telemetry The writer to record to, or null to stop recording.
+     */
+    public void setTelemetry(TelemetryWriter telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    public TelemetryWriter getTelemetry() {
+        return telemetry;
+    }
+
+    /**
+     * Starts or stops streaming the arena to spectators after each step. The caller owns
+     * the server and closes it once it has been detached.
+     *
+     * @param spectators The server to publish to, or null to stop.
+     */
+    public void setSpectators(SpectatorServer spectators) {
+        this.spectators = spectators;
+    }
+
+    public SpectatorServer getSpectators() {
+        return spectators;
+    }
+
+    /**
+     * Adds a robot at a random position.
+     *
+     * @param type The type of robot to add.
+     * @return The new robot.
+     */
+    public Robot addRobot(RobotType type) {
+        record(ReplayLog.EventType.ADD_ROBOT, type.name());
+        return arena.addRandomRobot(type);
+    }
+
+    /**
+     * Generates a population of robots and adds it to the arena in one batch.
+     *
+     * @param types        The types of robot to add, in equal shares.
+     * @param count        The number of robots.
+     * @param distribution How the robots are spread over the arena.
+     * @param seed         The seed for the robots' positions and directions.
+     * @param compact      Whether to add the robots to the compact store rather than as robot objects.
+     * @return The population added.
+     */
+    public Population spawnRobots(RobotType[] types, int count, Population.Distribution distribution,
+                                  long seed, boolean compact) {
+        StringJoiner typeNames = new StringJoiner(",");
+        for (RobotType type : types) {
+            typeNames.add(type.name());
+        }
+        record(ReplayLog.EventType.SPAWN_ROBOTS,
+               count + ";" + distribution.name() + ";" + seed + ";" + compact + ";" + typeNames);
+        return arena.spawnRobots(types, count, distribution, seed, compact);
+    }
+
+    /**
+     * Adds an obstacle at a random position.
+     */
+    public void addObstacle() {
+        record(ReplayLog.EventType.ADD_OBSTACLE, "");
+        arena.addRandomObstacle();
+    }
+
+    /**
+     * Removes the last added obstacle.
+     */
+    public void removeLastObstacle() {
+        record(ReplayLog.EventType.REMOVE_OBSTACLE, "");
+        arena.removeLastObstacle();
+    }
+
+    /**
+     * Replaces the arena with a fresh one holding the default obstacle and two regular robots.
+     * The new arena's seed is drawn from the old one, so resets replay too.
+     */
+    public void resetArena() {
+        record(ReplayLog.EventType.RESET_ARENA, "");
+        arena = new RobotArena(arena.getRandom().nextLong(), arena.getWidth(), arena.getHeight());
+        arena.addRandomRobot(RobotType.REGULAR);
+        arena.addRandomRobot(RobotType.REGULAR);
+    }
+
+    /**
+     * Applies a recorded command.
+     *
+     * @param event The command to apply.
+     */
+    public void apply(ReplayLog.Event event) {
+        switch (event.type()) {
+            case KEY -> handleKeyInput(KeyCode.valueOf(event.argument()));
+            case KEY_PRESSED -> setKeyPressed(KeyCode.valueOf(event.argument()), true);
+            case KEY_RELEASED -> setKeyPressed(KeyCode.valueOf(event.argument()), false);
+            case ROBOT_COLLISIONS -> setRobotCollisions(Boolean.parseBoolean(event.argument()));
+            case CONTROL_RATES -> {
+                String[] fields = event.argument().split(";");
+                setControlRates(Double.parseDouble(fields[0]), Double.parseDouble(fields[1]));
+            }
+            case ADD_ROBOT -> addRobot(RobotType.valueOf(event.argument()));
+            case ADD_OBSTACLE -> addObstacle();
+            case REMOVE_OBSTACLE -> removeLastObstacle();
+            case RESET_ARENA -> resetArena();
+            case SPAWN_ROBOTS -> {
+                String[] fields = event.argument().split(";");
+                String[] typeNames = fields[4].split(",");
+                RobotType[] types = new RobotType[typeNames.length];
+                for (int i = 0; i < types.length; i++) {
+                    types[i] = RobotType.valueOf(typeNames[i]);
+                }
+                spawnRobots(types, Integer.parseInt(fields[0]), Population.Distribution.valueOf(fields[1]),
+                            Long.parseLong(fields[2]), Boolean.parseBoolean(fields[3]));
+            }
+        }
+    }
+
+    private void record(ReplayLog.EventType type, String argument) {
+        if (replayLog != null) {
+            replayLog.record(tickCount, type, argument);
+        }
+    }
+
+    /**
+     * Hashes the position, direction and speed of everything in the arena.
+     *
+     * @return The state hash.
+     */
+    public long stateHash() {
+        long hash = 17;
+        for (Obstacle obstacle : arena.getObstacles()) {
+            hash = mix(hash, obstacle.getX());
+            hash = mix(hash, obstacle.getY());
+        }
+        for (Robot robot : arena.getRobots()) {
+            hash = mix(hash, robot.getX());
+            hash = mix(hash, robot.getY());
+            hash = mix(hash, robot.direction);
+            hash = mix(hash, robot.speed);
+        }
+        RobotStore compactRobots = arena.getCompactRobots();
+        for (int i = 0; i < compactRobots.size(); i++) {
+            hash = mix(hash, compactRobots.getX(i));
+            hash = mix(hash, compactRobots.getY(i));
+            hash = mix(hash, compactRobots.getDirection(i));
+            hash = mix(hash, compactRobots.getSpeed(i));
+        }
+        hash = mix(hash, userRobot.getX());
+        hash = mix(hash, userRobot.getY());
+        return mix(hash, userRobot.direction);
+    }
+
+    private static long mix(long hash, double value) {
+        return hash * 31 + Double.doubleToLongBits(value);
+    }
+
+    /**
+     * Returns the pipeline of sensor stages the robots run through after moving. Register
+     * a stage here to give a robot type its behaviour.
+     *
+     * @return The behaviour pipeline.
+     */
+    public BehaviourPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Advances the simulation by one step.
+     * Each robot's move and sensor checks only read the obstacles and its own state, so in
+     * parallel mode they run in fixed chunks across the pool and give bit-for-bit the same
+     * result as a single thread. Changes to the arena's contents happen afterwards, serially.
+     *
+     * @param dt The length of the step in ticks; robots move speed * dt pixels.
+     */
+    public void step(double dt) {
+        // Index the obstacles so each robot only checks the cells around it, and group the robots by type
+        long start = profiler.start();
+        arena.updateGrid();
+        updateTypeGroups();
+        profiler.stop(TickProfiler.Phase.OBSTACLES, start);
+
+        // Move robots and handle interactions: a chunk of moves, then each type's robots in the chunk through its stage
+        List<Robot> robots = arena.getRobots();
+        forEachChunk(robots.size(), (from, to) -> {
+            long moveStart = profiler.start();
+            for (int i = from; i < to; i++) {
+                robots.get(i).move(dt, arena);
+            }
+            long senseStart = profiler.stop(TickProfiler.Phase.MOVE, moveStart);
+            for (RobotType type : TYPES) {
+                BehaviourStage stage = pipeline.getStage(type);
+                if (stage != null) {
+                    int contacts = stage.senseItems(arena, robots, itemGroups.members(),
+                                                    itemGroups.start(from, type), itemGroups.end(from, type));
+                    if (contacts > 0) obstacleContacts.addAndGet(type.tag(), contacts);
+                }
+            }
+            profiler.stop(TickProfiler.Phase.OBSTACLES, senseStart);
+        });
+
+        // Same pass over the compactly stored robots
+        RobotStore compactRobots = arena.getCompactRobots();
+        forEachChunk(compactRobots.size(), (from, to) -> {
+            long moveStart = profiler.start();
+            compactRobots.move(dt, arena, from, to);
+            long senseStart = profiler.stop(TickProfiler.Phase.MOVE, moveStart);
+            for (RobotType type : TYPES) {
+                BehaviourStage stage = pipeline.getStage(type);
+                if (stage != null) {
+                    int contacts = stage.senseCompact(arena, compactRobots, compactGroups.members(),
+                                                      compactGroups.start(from, type), compactGroups.end(from, type));
+                    if (contacts > 0) obstacleContacts.addAndGet(type.tag(), contacts);
+                }
+            }
+            profiler.stop(TickProfiler.Phase.OBSTACLES, senseStart);
+        });
+
+        // Bounce robots off each other, serially since each contact turns two robots
+        if (robotCollisions) {
+            start = profiler.start();
+            arena.collideRobots(itemTags); // Up to date, as no robot is added or removed before here
+            profiler.stop(TickProfiler.Phase.COLLIDE, start);
+        }
+
+        // Steer the user-controlled robot by the keys held, then remove the robots in its detection cone
+        start = profiler.start();
+        userRobot.steer(dt);
+        arena.updateRobotGrid();
+        userRobot.detectAndRemoveRobots(arena);
+        profiler.stop(TickProfiler.Phase.CONE, start);
+
+        tickCount++;
+        if (replayLog != null) {
+            if (replayLog.isHashDue()) {
+                start = profiler.start();
+                replayLog.recordTick(stateHash());
+                profiler.stop(TickProfiler.Phase.REPLAY, start);
+            } else {
+                replayLog.recordTick();
+            }
+        }
+        if (telemetry != null) {
+            start = profiler.start();
+            telemetry.capture(tickCount, arena);
+            profiler.stop(TickProfiler.Phase.TELEMETRY, start);
+        }
+        if (spectators != null) {
+            start = profiler.start();
+            spectators.publish(this);
+            profiler.stop(TickProfiler.Phase.SPECTATE, start);
+        }
+    }
+
+    /**
+     * Regroups the robots by type when robots have been added or removed since the last step.
+     * Robots never change type, so the groups otherwise stay as they are.
+     */
+    private void updateTypeGroups() {
+        boolean newArena = arena != groupedArena;
+        if (newArena || arena.getRobotVersion() != groupedRobotVersion) {
+            List<Robot> robots = arena.getRobots();
+            if (itemTags.length < robots.size()) {
+                itemTags = new byte[robots.size() + robots.size() / 4];
+            }
+            for (int i = 0; i < robots.size(); i++) {
+                RobotType type = robots.get(i).getType();
+                itemTags[i] = type == null ? TypeGroups.NO_TYPE : type.tag();
+            }
+            itemGroups.rebuild(itemTags, robots.size(), CHUNK_SIZE);
+            groupedRobotVersion = arena.getRobotVersion();
+        }
+        RobotStore compactRobots = arena.getCompactRobots();
+        if (newArena || compactRobots.getVersion() != groupedCompactVersion) {
+            compactGroups.rebuild(compactRobots.getTags(), compactRobots.size(), CHUNK_SIZE);
+            groupedCompactVersion = compactRobots.getVersion();
+        }
+        groupedArena = arena;
+    }
+
+    /**
+     * Runs an action over [0, count) one chunk of CHUNK_SIZE at a time, on the pool when there is one.
+     * Chunk boundaries depend only on count, never on the number of threads.
+     */
+    private void forEachChunk(int count, RangeAction action) {
+        if (pool == null || count <= CHUNK_SIZE) {
+            for (int from = 0; from < count; from += CHUNK_SIZE) {
+                action.run(from, Math.min(count, from + CHUNK_SIZE));
+            }
+        } else {
+            pool.invoke(new ChunkTask(action, 0, (count + CHUNK_SIZE - 1) / CHUNK_SIZE, count));
+        }
+    }
+
+    /**
+     * Splits a run of chunks in half until each task holds one chunk.
+     */
+    @SuppressWarnings("serial") // Tasks are never serialized
+    private static class ChunkTask extends RecursiveAction {
+        private final RangeAction action;
+        private final int firstChunk, endChunk, count;
+
+        ChunkTask(RangeAction action, int firstChunk, int endChunk, int count) {
+            this.action = action;
+            this.firstChunk = firstChunk;
+            this.endChunk = endChunk;
+            this.count = count;
+        }
+
+        @Override
+        protected void compute() {
+            if (endChunk - firstChunk == 1) {
+                action.run(firstChunk * CHUNK_SIZE, Math.min(count, endChunk * CHUNK_SIZE));
+            } else {
+                int middle = (firstChunk + endChunk) >>> 1;
+                invokeAll(new ChunkTask(action, firstChunk, middle, count),
+                          new ChunkTask(action, middle, endChunk, count));
+            }
+        }
+    }
+
+    /**
+     * Sets how many threads run the per-robot phase of each step.
+     *
+     * @param threads The number of threads; 1 runs everything on the calling thread.
+     */
+    public void setParallelism(int threads) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Returns how many threads run the per-robot phase of each step.
+     *
+     * @return The number of threads.
+     */
+    public int getParallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    /**
+     * Runs a number of unit steps back to back, each one a tick for the profiler.
+     *
+     * @param ticks The number of steps to run.
+     */
+    public void run(int ticks) {
+        run(ticks, 1);
+    }
+
+    /**
+     * Runs a number of equal steps back to back, each one a tick for the profiler.
+     * Steps longer than a tick sweep each robot's move, so robots still react to every
+     * wall and obstacle they pass, e.g. for fast-forwarding a headless run. Replays are
+     * played back in unit steps, so a session recorded this way will not verify.
+     *
+     * @param steps The number of steps to run.
+     * @param dt    The length of each step in ticks.
+     */
+    public void run(int steps, double dt) {
+        for (int i = 0; i < steps; i++) {
+            profiler.beginTick();
+            step(dt);
+            profiler.endTick();
+        }
+    }
+
+    /**
+     * Returns how many times robots of a type have detected an obstacle with their sensors
+     * since the engine was created, counting each robot once per step.
+     *
+     * @param type The robot type.
+     * @return The number of detections.
+     */
+    public long getObstacleContacts(RobotType type) {
+        return obstacleContacts.get(type.tag());
+    }
+
+    /**
+     * Returns the number of steps taken so far.
+     *
+     * @return The tick count.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public RobotArena getArena() {
+        return arena;
+    }
+
+    /**
+     * Replaces the arena being simulated, e.g. with one loaded from a file.
+     * A loaded arena cannot be rebuilt from a seed, so this stops any replay recording.
+     *
+     * @param arena The new arena.
+     */
+    public void setArena(RobotArena arena) {
+        this.arena = arena;
+        replayLog = null;
+    }
+
+    /**
+     * Returns the profiler timing the phases of each step.
+     * It is disabled until turned on, and the tick's driver marks where ticks begin and end.
+     *
+     * @return The tick profiler.
+     */
+    public TickProfiler getProfiler() {
+        return profiler;
+    }
+
+    public UserControlledRobot getUserRobot() {
+        return userRobot;
+    }
+}
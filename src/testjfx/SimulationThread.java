@@ -0,0 +1,200 @@
+package testjfx;
+
+import javafx.scene.input.KeyCode;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Runs a simulation engine on its own thread, so a slow tick never holds up input or
+ * drawing and a slow frame never holds up the simulation.
+ * Only this thread touches the engine. Other threads change it by submitting commands,
+ * which run in order between steps, and see it through snapshots published after the
+ * steps. Steps are paid out by a FixedStepClock and the thread sleeps until the next one
+ * is due, or until a command arrives.
+ *
+ * Snapshots are handed over through three reused buffers: the simulation thread fills
+ * one, the renderer draws another, and the third, the most recently published, waits in
+ * between. Both sides swap buffers with a single atomic exchange, so neither ever waits
+ * for the other. There must be only one renderer.
+ */
+public class SimulationThread implements SnapshotSource {
+    static final long STEP_BUDGET = 12_000_000L;      // Nanoseconds of steps per wake-up before skipping the rest
+    static final long PUBLISH_INTERVAL = 4_000_000L;  // Least nanoseconds between snapshots while running
+
+    private final SimulationEngine engine;
+    private final Thread thread;
+    private final Queue<Consumer<SimulationEngine>> commands = new ConcurrentLinkedQueue<>(); // Waiting to run
+    private final FixedStepClock clock = new FixedStepClock(); // Only used on the simulation thread
+    private volatile boolean stopped = false;
+
+    // Simulation thread state
+    private boolean running = false;   // Whether steps are being taken
+    private ArenaSnapshot back = new ArenaSnapshot(); // Filled by the simulation thread
+    private long sequence = 0;         // Sequence number of the last snapshot published
+    private long publishedAt;          // When the last snapshot was published
+    private long steppedAt;            // When the last step finished
+    private RobotArena lastArena;      // The arena of the last snapshot
+    private long arenaSerial = 0;      // Changes whenever the engine's arena is replaced
+    private long pendingInputAt = 0;   // When the earliest key press not yet stepped was made, or 0
+    private long appliedInputAt = 0;   // When the latest key press stepped was made, or 0
+
+    private final AtomicReference<ArenaSnapshot> middle = new AtomicReference<>(new ArenaSnapshot()); // Latest published
+    private ArenaSnapshot front = new ArenaSnapshot(); // Drawn by the renderer
+
+    /**
+     * Creates the thread for an engine and publishes the engine's current state. The thread
+     * does not run until started, and from then on the engine must only be used through commands.
+     *
+     * @param engine The engine to run.
+     */
+    public SimulationThread(SimulationEngine engine) {
+        this.engine = engine;
+        this.thread = new Thread(this::loop, "Simulation");
+        thread.setDaemon(true);
+        publish(System.nanoTime());
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the thread after any command or step in progress.
+     */
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Queues a command to run on the simulation thread, between steps. Commands run in the
+     * order submitted and a snapshot is published after them. A command must not touch the
+     * JavaFX scene; pass results back with Platform.runLater.
+     *
+     * @param command The command, given the engine.
+     */
+    public void submit(Consumer<SimulationEngine> command) {
+        commands.add(command);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Passes a control key being pressed or released to the engine, noting when a press
+     * was made so its latency can be measured once it shows.
+     *
+     * @param code    The key.
+     * @param pressed True when pressed, false when released.
+     */
+    public void input(KeyCode code, boolean pressed) {
+        long at = System.nanoTime();
+        submit(engine -> {
+            engine.setKeyPressed(code, pressed);
+            if (pressed && running && pendingInputAt == 0) {
+                pendingInputAt = at;
+            }
+        });
+    }
+
+    /**
+     * Starts or pauses the simulation.
+     *
+     * @param running Whether steps should be taken.
+     */
+    public void setRunning(boolean running) {
+        submit(engine -> {
+            if (running && !this.running) {
+                clock.reset();
+            }
+            this.running = running;
+            pendingInputAt = 0; // Presses made while paused show no motion to time
+        });
+    }
+
+    /**
+     * Sets how much faster than real time the simulation runs.
+     *
+     * @param timeScale The time scale, from FixedStepClock.MIN_TIME_SCALE to FixedStepClock.MAX_TIME_SCALE.
+     */
+    public void setTimeScale(double timeScale) {
+        submit(engine -> clock.setTimeScale(timeScale));
+    }
+
+    @Override
+    public ArenaSnapshot latest() {
+        if (middle.get().sequence > front.sequence) {
+            // Only the simulation thread puts snapshots in the middle, and each is newer than the last
+            front = middle.getAndSet(front);
+        }
+        return front;
+    }
+
+    private void loop() {
+        while (!stopped) {
+            boolean changed = runCommands();
+            long now = System.nanoTime();
+
+            if (running) {
+                // Run the steps due, skipping any that would hold up commands and snapshots for too long
+                int steps = clock.advance(now);
+                for (int i = 0; i < steps; i++) {
+                    if (i > 0 && System.nanoTime() - now > STEP_BUDGET) {
+                        clock.drop(steps - i);
+                        break;
+                    }
+                    engine.run(1);
+                    steppedAt = System.nanoTime();
+                    changed |= steppedAt - publishedAt >= PUBLISH_INTERVAL;
+                    if (pendingInputAt != 0) {
+                        // Show the robot's response to a key press without waiting for the interval
+                        appliedInputAt = pendingInputAt;
+                        pendingInputAt = 0;
+                        changed = true;
+                    }
+                }
+            }
+            if (changed) {
+                publish(steppedAt);
+            }
+
+            if (!commands.isEmpty()) continue;
+            if (running) {
+                LockSupport.parkNanos(clock.nanosUntilNextStep());
+            } else {
+                LockSupport.park();
+            }
+        }
+    }
+
+    /**
+     * Runs the commands waiting, on the simulation thread.
+     *
+     * @return Whether there were any.
+     */
+    private boolean runCommands() {
+        boolean ran = false;
+        Consumer<SimulationEngine> command;
+        while ((command = commands.poll()) != null) {
+            try {
+                command.accept(engine);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // A bad command must not stop the simulation
+            }
+            ran = true;
+        }
+        return ran;
+    }
+
+    private void publish(long steppedAt) {
+        if (engine.getArena() != lastArena) {
+            lastArena = engine.getArena();
+            arenaSerial++;
+        }
+        back.capture(engine, arenaSerial, running, steppedAt, clock.getStepNanos(), appliedInputAt);
+        back.sequence = ++sequence;
+        publishedAt = System.nanoTime();
+        back = middle.getAndSet(back);
+    }
+}
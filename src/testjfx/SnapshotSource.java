@@ -0,0 +1,15 @@
+package testjfx;
+
+/**
+ * Something that publishes snapshots of an arena for a renderer to draw, such as the
+ * simulation thread running it or a spectator watching it from another process.
+ */
+public interface SnapshotSource {
+    /**
+     * Returns the latest snapshot published. Must only be called by the renderer, and the
+     * snapshot returned must not be used after the next call.
+     *
+     * @return The latest snapshot.
+     */
+    ArenaSnapshot latest();
+}
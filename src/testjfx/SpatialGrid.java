@@ -0,0 +1,322 @@
+package testjfx;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Uniform spatial hash over a set of points in the arena.
+ * Items are identified by their index in the list (or arrays) the grid was built from,
+ * so queries stay allocation free and the caller keeps ownership of the items.
+ */
+public class SpatialGrid {
+    private final double cellSize; // Width and height of one cell in pixels
+
+    private int size;              // Number of indexed points
+    private int mask;              // Bucket table size - 1 (table size is a power of two)
+    private int[] bucketStart = new int[1];  // Start of each bucket in the entry arrays
+    private int[] entryIndex = new int[0];   // Item index of each entry, grouped by bucket
+    private int[] entryCellX = new int[0];   // Cell column of each entry
+    private int[] entryCellY = new int[0];   // Cell row of each entry
+    private double[] entryX = new double[0]; // x-coordinate of each entry
+    private double[] entryY = new double[0]; // y-coordinate of each entry
+    private double[] pointX = new double[0]; // Scratch: x-coordinate of each point
+    private double[] pointY = new double[0]; // Scratch: y-coordinate of each point
+    private int[] pointCellX = new int[0];   // Scratch: cell column of each point
+    private int[] pointCellY = new int[0];   // Scratch: cell row of each point
+
+    /**
+     * Creates an empty grid.
+     *
+     * @param cellSize The cell size, normally the largest query radius.
+     */
+    public SpatialGrid(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    public double getCellSize() {
+        return cellSize;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Rebuilds the grid from the positions of a list of items.
+     *
+     * @param items The items to index; query results are indices into this list.
+     */
+    public void rebuild(List<? extends ArenaItem> items) {
+        int n = items.size();
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            ArenaItem item = items.get(i);
+            pointX[i] = item.getX();
+            pointY[i] = item.getY();
+            pointCellX[i] = cellOf(pointX[i]);
+            pointCellY[i] = cellOf(pointY[i]);
+        }
+        build(n);
+    }
+
+    /**
+     * Rebuilds the grid from parallel coordinate arrays.
+     *
+     * @param n  The number of points to index.
+     * @param xs The x-coordinates.
+     * @param ys The y-coordinates.
+     */
+    public void rebuild(int n, double[] xs, double[] ys) {
+        ensureCapacity(n);
+        System.arraycopy(xs, 0, pointX, 0, n);
+        System.arraycopy(ys, 0, pointY, 0, n);
+        for (int i = 0; i < n; i++) {
+            pointCellX[i] = cellOf(xs[i]);
+            pointCellY[i] = cellOf(ys[i]);
+        }
+        build(n);
+    }
+
+    /**
+     * Visits every indexed point whose cell overlaps the square around (x, y).
+     * This is a broad test: the caller still does the exact distance check.
+     *
+     * @param x      The centre x-coordinate.
+     * @param y      The centre y-coordinate.
+     * @param radius The query radius.
+     * @param action Receives the index of each candidate, once per point.
+     */
+    public void forEachNear(double x, double y, double radius, IntConsumer action) {
+        forEachInBox(x - radius, y - radius, x + radius, y + radius, action);
+    }
+
+    /**
+     * Counts the points closer than a distance to (x, y).
+     *
+     * @param x      The centre x-coordinate.
+     * @param y      The centre y-coordinate.
+     * @param radius The distance; points exactly this far away are not counted.
+     * @return The number of points in range.
+     */
+    public int countWithin(double x, double y, double radius) {
+        if (size == 0) return 0;
+        int count = 0;
+        int minCx = cellOf(x - radius), maxCx = cellOf(x + radius);
+        int minCy = cellOf(y - radius), maxCy = cellOf(y + radius);
+        for (int cy = minCy; cy <= maxCy; cy++) {
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                int bucket = bucketOf(cx, cy);
+                for (int e = bucketStart[bucket], end = bucketStart[bucket + 1]; e < end; e++) {
+                    if (entryCellX[e] == cx && entryCellY[e] == cy
+                            && Kinematics.withinRange(x - entryX[e], y - entryY[e], radius)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether any point is closer than a distance to (x, y).
+     *
+     * @param x      The centre x-coordinate.
+     * @param y      The centre y-coordinate.
+     * @param radius The distance; points exactly this far away do not count.
+     * @return True if a point is in range.
+     */
+    public boolean anyWithin(double x, double y, double radius) {
+        if (size == 0) return false;
+        int minCx = cellOf(x - radius), maxCx = cellOf(x + radius);
+        int minCy = cellOf(y - radius), maxCy = cellOf(y + radius);
+        for (int cy = minCy; cy <= maxCy; cy++) {
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                int bucket = bucketOf(cx, cy);
+                for (int e = bucketStart[bucket], end = bucketStart[bucket + 1]; e < end; e++) {
+                    if (entryCellX[e] == cx && entryCellY[e] == cy
+                            && Kinematics.withinRange(x - entryX[e], y - entryY[e], radius)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests the points around (x, y) until one passes.
+     *
+     * @param x      The centre x-coordinate.
+     * @param y      The centre y-coordinate.
+     * @param radius The query radius.
+     * @param test   The exact test, given the index of each candidate.
+     * @return True if any candidate passed the test.
+     */
+    public boolean anyNear(double x, double y, double radius, IntPredicate test) {
+        if (size == 0) return false;
+        int minCx = cellOf(x - radius), maxCx = cellOf(x + radius);
+        int minCy = cellOf(y - radius), maxCy = cellOf(y + radius);
+        for (int cy = minCy; cy <= maxCy; cy++) {
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                int bucket = bucketOf(cx, cy);
+                for (int e = bucketStart[bucket], end = bucketStart[bucket + 1]; e < end; e++) {
+                    if (entryCellX[e] == cx && entryCellY[e] == cy && test.test(entryIndex[e])) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Counts the points around (x, y) that pass a test.
+     *
+     * @param x      The centre x-coordinate.
+     * @param y      The centre y-coordinate.
+     * @param radius The query radius.
+     * @param test   The exact test, given the index of each candidate.
+     * @return The number of candidates that passed the test.
+     */
+    public int countNear(double x, double y, double radius, IntPredicate test) {
+        if (size == 0) return 0;
+        int count = 0;
+        int minCx = cellOf(x - radius), maxCx = cellOf(x + radius);
+        int minCy = cellOf(y - radius), maxCy = cellOf(y + radius);
+        for (int cy = minCy; cy <= maxCy; cy++) {
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                int bucket = bucketOf(cx, cy);
+                for (int e = bucketStart[bucket], end = bucketStart[bucket + 1]; e < end; e++) {
+                    if (entryCellX[e] == cx && entryCellY[e] == cy && test.test(entryIndex[e])) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Visits every indexed point whose cell overlaps the given box.
+     *
+     * @param minX   The left edge of the box.
+     * @param minY   The top edge of the box.
+     * @param maxX   The right edge of the box.
+     * @param maxY   The bottom edge of the box.
+     * @param action Receives the index of each candidate, once per point.
+     */
+    public void forEachInBox(double minX, double minY, double maxX, double maxY, IntConsumer action) {
+        if (size == 0) return;
+        int minCx = cellOf(minX), maxCx = cellOf(maxX);
+        int minCy = cellOf(minY), maxCy = cellOf(maxY);
+        for (int cy = minCy; cy <= maxCy; cy++) {
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                int bucket = bucketOf(cx, cy);
+                for (int e = bucketStart[bucket], end = bucketStart[bucket + 1]; e < end; e++) {
+                    // Several cells can share a bucket, so skip entries from other cells
+                    if (entryCellX[e] == cx && entryCellY[e] == cy) {
+                        action.accept(entryIndex[e]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the first point a moving point comes within range of, along a straight move.
+     *
+     * @param x       The start x-coordinate.
+     * @param y       The start y-coordinate.
+     * @param moveX   The x part of the whole move.
+     * @param moveY   The y part of the whole move.
+     * @param radius  The range, as for countWithin; points already in range at the start are ignored.
+     * @param exclude The index of a point to ignore, or -1.
+     * @return The index of the point reached first, the lowest index on a tie, or -1 if none is reached.
+     */
+    public int firstContact(double x, double y, double moveX, double moveY, double radius, int exclude) {
+        if (size == 0) return -1;
+        int minCx = cellOf(Math.min(x, x + moveX) - radius), maxCx = cellOf(Math.max(x, x + moveX) + radius);
+        int minCy = cellOf(Math.min(y, y + moveY) - radius), maxCy = cellOf(Math.max(y, y + moveY) + radius);
+        int first = -1;
+        double firstTime = 1;
+        for (int cy = minCy; cy <= maxCy; cy++) {
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                int bucket = bucketOf(cx, cy);
+                for (int e = bucketStart[bucket], end = bucketStart[bucket + 1]; e < end; e++) {
+                    if (entryCellX[e] != cx || entryCellY[e] != cy || entryIndex[e] == exclude) continue;
+                    double t = Kinematics.timeOfImpact(x - entryX[e], y - entryY[e], moveX, moveY, radius);
+                    if (t >= 0 && (t < firstTime || (t == firstTime && entryIndex[e] < first))) {
+                        first = entryIndex[e];
+                        firstTime = t;
+                    }
+                }
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Converts a coordinate to a cell number.
+     */
+    int cellOf(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private int bucketOf(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & mask;
+    }
+
+    private void ensureCapacity(int n) {
+        if (pointCellX.length < n) {
+            int capacity = Math.max(n, pointCellX.length * 2);
+            pointCellX = new int[capacity];
+            pointCellY = new int[capacity];
+            entryIndex = new int[capacity];
+            entryCellX = new int[capacity];
+            entryCellY = new int[capacity];
+            entryX = new double[capacity];
+            entryY = new double[capacity];
+            pointX = new double[capacity];
+            pointY = new double[capacity];
+        }
+    }
+
+    /**
+     * Counting sort of the first n points into their buckets.
+     */
+    private void build(int n) {
+        size = n;
+        int tableSize = Integer.highestOneBit(Math.max(16, n * 2) - 1) << 1;
+        if (bucketStart.length != tableSize + 1) {
+            bucketStart = new int[tableSize + 1];
+        } else {
+            Arrays.fill(bucketStart, 0);
+        }
+        mask = tableSize - 1;
+
+        // Count the points per bucket, then turn the counts into start offsets
+        for (int i = 0; i < n; i++) {
+            bucketStart[bucketOf(pointCellX[i], pointCellY[i]) + 1]++;
+        }
+        for (int b = 0; b < tableSize; b++) {
+            bucketStart[b + 1] += bucketStart[b];
+        }
+
+        // Place the points, using the start offsets as write cursors
+        for (int i = 0; i < n; i++) {
+            int bucket = bucketOf(pointCellX[i], pointCellY[i]);
+            int e = bucketStart[bucket]++;
+            entryIndex[e] = i;
+            entryCellX[e] = pointCellX[i];
+            entryCellY[e] = pointCellY[i];
+            entryX[e] = pointX[i];
+            entryY[e] = pointY[i];
+        }
+
+        // The cursors now hold the end offsets, shift them back to start offsets
+        System.arraycopy(bucketStart, 0, bucketStart, 1, tableSize);
+        bucketStart[0] = 0;
+    }
+}
@@ -0,0 +1,275 @@
+package testjfx;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Watches an arena streamed by a SpectatorServer, rebuilding it from the server's messages
+ * on a thread of its own and publishing a snapshot after each step for an ArenaCanvas to
+ * draw. Snapshots are handed over through three reused buffers, as SimulationThread does,
+ * so there must be only one renderer.
+ *
+ * The robots are kept in the units the server sends them in, so applying each message
+ * reproduces exactly the state the server encoded it against.
+ */
+public class SpectatorClient implements SnapshotSource, Closeable {
+    private static final double DEFAULT_STEP_NANOS = 1e9 / 60; // Assumed time between steps until measured
+
+    private final SocketChannel channel;
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private volatile IOException failure;     // Why the connection ended, if it failed
+
+    // Client thread state, the arena as rebuilt so far
+    private ByteBuffer in = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private RobotTable robots = new RobotTable();
+    private RobotTable spare = new RobotTable(); // Scratch for leaving out removed robots
+    private long arenaSerial = 0;         // Counts the arenas sent
+    private double width, height;
+    private Obstacle[] obstacles = new Obstacle[0];
+    private long obstacleVersion = 0;     // Counts the obstacle lists sent
+    private long tick;
+    private int userX, userY, userDirection;
+    private int userDX, userDY;           // Distance the user-controlled robot moved in the last step
+    private boolean userPlaced = false;   // Whether the user-controlled robot has been sent in this arena
+    private long steppedAt;               // When the last step arrived
+    private double stepNanos = DEFAULT_STEP_NANOS; // Average time between steps
+    private ArenaSnapshot back = new ArenaSnapshot();
+    private long sequence = 0;
+
+    private final AtomicReference<ArenaSnapshot> middle = new AtomicReference<>(new ArenaSnapshot()); // Latest published
+    private ArenaSnapshot front = new ArenaSnapshot(); // Drawn by the renderer
+
+    /**
+     * Connects to a server on the loopback address and starts watching.
+     *
+     * @param port The server's port.
+     * @throws IOException If the server cannot be reached.
+     */
+    public SpectatorClient(int port) throws IOException {
+        channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        thread = new Thread(this::receive, "Spectator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public ArenaSnapshot latest() {
+        if (middle.get().sequence > front.sequence) {
+            // Only the client thread puts snapshots in the middle, and each is newer than the last
+            front = middle.getAndSet(front);
+        }
+        return front;
+    }
+
+    /**
+     * Asks the server to only send the robots within an area, e.g. what the camera can see.
+     * Robots leaving the area are removed and robots entering it added with the next step.
+     *
+     * @param minX The left edge of the area.
+     * @param minY The top edge of the area.
+     * @param maxX The right edge of the area.
+     * @param maxY The bottom edge of the area.
+     * @throws IOException If the message cannot be sent.
+     */
+    public void setView(double minX, double minY, double maxX, double maxY) throws IOException {
+        ByteBuffer message = ByteBuffer.allocate(4 + 1 + 4 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        message.putInt(1 + 4 * 8).put(SpectatorServer.VIEW);
+        message.putDouble(minX).putDouble(minY).putDouble(maxX).putDouble(maxY).flip();
+        synchronized (channel) {
+            while (message.hasRemaining()) {
+                channel.write(message);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the connection is still open.
+     *
+     * @return False once the server has gone or the client was closed.
+     */
+    public boolean isConnected() {
+        return thread.isAlive();
+    }
+
+    /**
+     * Returns why the connection ended, if it failed rather than being closed.
+     *
+     * @return The failure, or null.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    private void receive() {
+        try {
+            while (!closed) {
+                if (channel.read(in) < 0) {
+                    throw new EOFException("The server closed the connection");
+                }
+                in.flip();
+                boolean stepped = false;
+                while (in.remaining() >= 4) {
+                    int length = in.getInt(in.position());
+                    if (length < 1) {
+                        throw new IOException("Bad message length " + length);
+                    }
+                    if (in.remaining() < 4 + length) {
+                        if (in.capacity() < 4 + length) {
+                            // Make room for a message larger than any so far
+                            in = ByteBuffer.allocate(4 + length + length / 4).order(ByteOrder.LITTLE_ENDIAN).put(in);
+                            in.flip();
+                        }
+                        break;
+                    }
+                    int end = in.position() + 4 + length;
+                    in.position(in.position() + 4);
+                    stepped |= apply(in.get(), in);
+                    in.position(end);
+                }
+                in.compact();
+                if (stepped) {
+                    publish();
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                failure = e;
+            }
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already going away
+            }
+        }
+    }
+
+    /**
+     * Applies one message to the arena.
+     *
+     * @return Whether it was a step.
+     */
+    private boolean apply(byte type, ByteBuffer message) throws IOException {
+        switch (type) {
+            case SpectatorServer.ARENA -> {
+                int version = message.getInt();
+                if (version != SpectatorServer.VERSION) {
+                    throw new IOException("Unsupported spectator protocol version " + version);
+                }
+                width = message.getDouble();
+                height = message.getDouble();
+                robots.clear();
+                obstacles = new Obstacle[0];
+                arenaSerial++;
+                obstacleVersion++;
+                userPlaced = false;
+                return false;
+            }
+            case SpectatorServer.OBSTACLES -> {
+                // Obstacles are shared with the snapshots, so build a new array rather than reuse it
+                Obstacle[] list = new Obstacle[message.getInt()];
+                for (int i = 0; i < list.length; i++) {
+                    list[i] = Obstacle.at(message.getDouble(), message.getDouble());
+                }
+                obstacles = list;
+                obstacleVersion++;
+                return false;
+            }
+            case SpectatorServer.TICK -> {
+                applyTick(message);
+                return true;
+            }
+            default -> {
+                return false; // Skip messages from a newer server
+            }
+        }
+    }
+
+    private void applyTick(ByteBuffer message) {
+        tick = message.getLong();
+        int x = message.getInt(), y = message.getInt();
+        userDX = userPlaced ? x - userX : 0;
+        userDY = userPlaced ? y - userY : 0;
+        userPlaced = true;
+        userX = x;
+        userY = y;
+        userDirection = message.getShort();
+
+        // Robots not mentioned stood still
+        for (int row = 0; row < robots.size; row++) {
+            robots.dx[row] = 0;
+            robots.dy[row] = 0;
+        }
+        int moved = message.getInt();
+        for (int i = 0; i < moved; i++) {
+            int row = robots.find(message.getInt());
+            short dx = message.getShort(), dy = message.getShort(), turn = message.getShort();
+            if (row >= 0) {
+                robots.x[row] += dx;
+                robots.y[row] += dy;
+                robots.direction[row] = Math.floorMod(robots.direction[row] + turn, SpectatorServer.FULL_TURN);
+                robots.dx[row] = dx;
+                robots.dy[row] = dy;
+            }
+        }
+        int entered = message.getInt();
+        for (int i = 0; i < entered; i++) {
+            robots.put(message.getInt(), message.get(), message.getInt(), message.getInt(), message.getShort());
+        }
+        int removed = message.getInt();
+        for (int i = 0; i < removed; i++) {
+            int row = robots.find(message.getInt());
+            if (row >= 0) {
+                robots.flags[row] = RobotTable.MARKED;
+            }
+        }
+        if (removed > 0) {
+            spare.copyUnmarked(robots);
+            RobotTable swap = robots;
+            robots = spare;
+            spare = swap;
+        }
+
+        long now = System.nanoTime();
+        if (steppedAt != 0) {
+            // Smooth the time between steps, which the network makes uneven
+            stepNanos += (Math.max(1, now - steppedAt) - stepNanos) * 0.1;
+        }
+        steppedAt = now;
+    }
+
+    /**
+     * Copies the arena into a snapshot and hands it to the renderer.
+     */
+    private void publish() {
+        double position = SpectatorServer.POSITION_SCALE, degrees = SpectatorServer.DIRECTION_SCALE;
+        back.setFrame(tick, arenaSerial, width, height, true, steppedAt, stepNanos);
+        back.setObstacles(obstacles, obstacles.length, obstacleVersion);
+        back.setRobotCount(robots.size);
+        for (int row = 0; row < robots.size; row++) {
+            back.setRobot(row, robots.tags[row], (float) (robots.x[row] / position), (float) (robots.y[row] / position),
+                          (float) (robots.dx[row] / position), (float) (robots.dy[row] / position),
+                          (float) (robots.direction[row] / degrees));
+        }
+        back.setUserRobot(userX / position, userY / position, userDirection / degrees,
+                          userDX / position, userDY / position);
+        back.sequence = ++sequence;
+        back = middle.getAndSet(back);
+    }
+}
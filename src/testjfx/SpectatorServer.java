@@ -0,0 +1,467 @@
+package testjfx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams an arena to spectators watching it from other processes, over TCP connections
+ * on the loopback address. A spectator is first sent the whole arena and then, after
+ * every step, only what changed: the robots that moved, entered its view or left it.
+ *
+ * The thread running the engine only copies the robots' state and hands it over, through
+ * three reused frames swapped like SimulationThread's snapshots, so it never waits for
+ * the network. A selector thread of its own does all of the encoding and I/O with
+ * non-blocking sockets. It remembers what each spectator was last sent and encodes the
+ * next message against that. A spectator that has not yet taken its last message, because
+ * it is slow or not reading, is simply skipped until it has; its next message then covers
+ * every step it missed. Each spectator therefore only ever holds one message, and a stuck
+ * one costs neither the simulation nor the other spectators anything.
+ *
+ * Every message is an int length, counting the bytes after it, a type byte and the
+ * type's fields, all little-endian:
+ *   ARENA      version int, width and height doubles. Replaces the spectator's arena,
+ *              which has no robots or obstacles until the messages that follow.
+ *   OBSTACLES  obstacle count int, then the x and y of each as doubles.
+ *   TICK       tick long; the user-controlled robot's x and y ints and direction short;
+ *              the moved robots: count int, then id int, dx, dy and turn shorts for each;
+ *              the robots entering the view: count int, then id int, tag byte, x and y
+ *              ints and direction short for each; the robots removed or leaving the view:
+ *              count int, then their ids.
+ *   VIEW       Sent by a spectator: the minimum x and y and the maximum x and y of the
+ *              area it wants robots sent for, as doubles. Until it sends one it gets them all.
+ * Positions are fixed-point in 1/POSITION_SCALE units and directions in 1/DIRECTION_SCALE
+ * degrees from 0 up to a full turn. A robot's id is the id RobotFrame gives it, and
+ * robots without a RobotType are not sent.
+ */
+public class SpectatorServer implements Closeable {
+    static final int VERSION = 1;
+    static final int DEFAULT_PORT = 7345;
+    static final byte ARENA = 1, OBSTACLES = 2, TICK = 3, VIEW = 4; // Message types
+    static final int POSITION_SCALE = 32;   // Position units per pixel
+    static final int DIRECTION_SCALE = 16;  // Direction units per degree
+    static final int FULL_TURN = 360 * DIRECTION_SCALE;
+    static final int MAX_VIEW_MESSAGE = 64; // Longest message a spectator may send
+    private static final int ENTERED_BYTES = 4 + 1 + 4 + 4 + 2; // An entering robot in a TICK message
+
+    /**
+     * Everything sent to spectators about one step.
+     */
+    private static final class Frame {
+        volatile long sequence = 0;  // Increases with every frame published, 0 before the first
+        final RobotFrame robots = new RobotFrame();
+        long arenaSerial = -1;       // Changes whenever the engine's arena is replaced
+        double width, height;
+        long obstacleVersion;
+        int obstacleCount = 0;
+        double[] obstacleX = new double[0], obstacleY = new double[0];
+        double userX, userY, userDirection;
+
+        void capture(SimulationEngine engine, long arenaSerial) {
+            RobotArena arena = engine.getArena();
+            robots.capture(engine.getTickCount(), arena);
+            width = arena.getWidth();
+            height = arena.getHeight();
+
+            // Obstacles only change now and then, so only copy them when they have
+            if (arenaSerial != this.arenaSerial || arena.getObstacleVersion() != obstacleVersion) {
+                List<Obstacle> obstacles = arena.getObstacles();
+                obstacleCount = obstacles.size();
+                if (obstacleX.length < obstacleCount) {
+                    obstacleX = new double[obstacleCount + obstacleCount / 4];
+                    obstacleY = new double[obstacleX.length];
+                }
+                for (int i = 0; i < obstacleCount; i++) {
+                    obstacleX[i] = obstacles.get(i).getX();
+                    obstacleY[i] = obstacles.get(i).getY();
+                }
+                this.arenaSerial = arenaSerial;
+                this.obstacleVersion = arena.getObstacleVersion();
+            }
+
+            UserControlledRobot userRobot = engine.getUserRobot();
+            userX = userRobot.getX();
+            userY = userRobot.getY();
+            userDirection = userRobot.direction;
+        }
+    }
+
+    /**
+     * A connected spectator and what it was last sent.
+     */
+    private static final class Client {
+        final SocketChannel channel;
+        final SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(MAX_VIEW_MESSAGE + 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN).flip(); // The message being sent
+        RobotTable sent = new RobotTable();  // The robots in view as of the last message
+        RobotTable next = new RobotTable();  // Scratch: the robots in view as of the message being built
+        long sentSequence = 0;               // The frame the last message was built from
+        long arenaSerial = -1, obstacleVersion = -1; // The arena and obstacles it was last sent
+        double minX = Double.NEGATIVE_INFINITY, minY = Double.NEGATIVE_INFINITY; // Its view
+        double maxX = Double.POSITIVE_INFINITY, maxY = Double.POSITIVE_INFINITY;
+
+        Client(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Makes room for a number of bytes more in the outgoing message.
+         */
+        void reserve(int bytes) {
+            if (out.remaining() < bytes) {
+                int capacity = Math.max(out.capacity() * 2, out.position() + bytes);
+                out = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN).put(out.flip());
+            }
+        }
+    }
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private volatile int clientCount = 0;
+
+    // Engine thread state
+    private Frame back = new Frame();    // Filled by the engine's thread
+    private long sequence = 0;           // Sequence number of the last frame published
+    private RobotArena lastArena;        // The arena of the last frame
+    private long arenaSerial = 0;
+
+    private final AtomicReference<Frame> latest = new AtomicReference<>(new Frame()); // Latest published
+
+    // Selector thread state
+    private Frame front = new Frame();   // Being sent to the spectators
+    private final List<Client> clients = new ArrayList<>();
+    private ByteBuffer entering = ByteBuffer.allocate(1 << 12).order(ByteOrder.LITTLE_ENDIAN); // Scratch: entering robots
+
+    /**
+     * Starts listening for spectators on the loopback address.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     * @throws IOException If the port cannot be opened.
+     */
+    public SpectatorServer(int port) throws IOException {
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        try {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            server.close();
+            selector.close();
+            throw e;
+        }
+        thread = new Thread(this::serve, "Spectators");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the port spectators connect to.
+     *
+     * @return The port listened on.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    public int getClientCount() {
+        return clientCount;
+    }
+
+    /**
+     * Hands the engine's state after a step over to be sent to the spectators. Must be called
+     * on the thread running the engine; only copies the robots and never waits.
+     *
+     * @param engine The engine.
+     */
+    public void publish(SimulationEngine engine) {
+        if (closed) return;
+        if (engine.getArena() != lastArena) {
+            lastArena = engine.getArena();
+            arenaSerial++;
+        }
+        back.capture(engine, arenaSerial);
+        back.sequence = ++sequence;
+        back = latest.getAndSet(back);
+        selector.wakeup();
+    }
+
+    /**
+     * Disconnects every spectator and stops listening. Must only be called once the server
+     * has been detached from the engine, as publishing must not race with closing.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    if (key.isReadable()) {
+                        read(client);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        flush(client);
+                    }
+                }
+
+                // Only the engine's thread puts frames in latest, and each is newer than the last
+                if (latest.get().sequence > front.sequence) {
+                    front = latest.getAndSet(front);
+                }
+                if (front.sequence == 0) continue;
+                front.robots.resolveIds();
+                for (int i = clients.size() - 1; i >= 0; i--) { // Backwards, as a failed send drops the spectator
+                    Client client = clients.get(i);
+                    // A spectator still taking its last message skips this frame
+                    if (client.sentSequence < front.sequence && !client.out.hasRemaining()) {
+                        send(client, front);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // The selector itself failed, so spectating stops
+        } finally {
+            for (Client client : clients) {
+                closeQuietly(client.channel);
+            }
+            clients.clear();
+            clientCount = 0;
+            closeQuietly(server);
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Client client = new Client(channel, key);
+            key.attach(client);
+            clients.add(client);
+            clientCount = clients.size();
+        }
+    }
+
+    /**
+     * Reads the spectator's VIEW messages, dropping it when it has gone or sends nonsense.
+     */
+    private void read(Client client) {
+        try {
+            if (client.channel.read(client.in) < 0) {
+                drop(client);
+                return;
+            }
+        } catch (IOException e) {
+            drop(client);
+            return;
+        }
+        ByteBuffer in = client.in.flip();
+        while (in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 1 || length > MAX_VIEW_MESSAGE) {
+                drop(client);
+                return;
+            }
+            if (in.remaining() < 4 + length) break;
+            int end = in.position() + 4 + length;
+            in.position(in.position() + 4);
+            if (in.get() == VIEW && length == 1 + 4 * 8) {
+                client.minX = in.getDouble();
+                client.minY = in.getDouble();
+                client.maxX = in.getDouble();
+                client.maxY = in.getDouble();
+                client.sentSequence = 0; // Resend the latest frame for the new view
+            }
+            in.position(end); // Skip anything else
+        }
+        in.compact();
+    }
+
+    /**
+     * Writes as much of the spectator's message as its socket takes, waiting to write the
+     * rest once it has room.
+     */
+    private void flush(Client client) {
+        try {
+            client.channel.write(client.out);
+        } catch (IOException e) {
+            drop(client);
+            return;
+        }
+        client.key.interestOps(client.out.hasRemaining()
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void drop(Client client) {
+        client.key.cancel();
+        closeQuietly(client.channel);
+        clients.remove(client);
+        clientCount = clients.size();
+    }
+
+    /**
+     * Builds the spectator's message for a frame, against what it was sent last, and starts sending it.
+     */
+    private void send(Client client, Frame frame) {
+        client.out.clear();
+        if (frame.arenaSerial != client.arenaSerial) {
+            client.reserve(4 + 1 + 4 + 2 * 8);
+            int start = beginMessage(client.out, ARENA);
+            client.out.putInt(VERSION).putDouble(frame.width).putDouble(frame.height);
+            endMessage(client.out, start);
+            client.sent.clear(); // The spectator starts the new arena without robots
+            client.arenaSerial = frame.arenaSerial;
+            client.obstacleVersion = -1;
+        }
+        if (frame.obstacleVersion != client.obstacleVersion) {
+            client.reserve(4 + 1 + 4 + frame.obstacleCount * 2 * 8);
+            int start = beginMessage(client.out, OBSTACLES);
+            client.out.putInt(frame.obstacleCount);
+            for (int i = 0; i < frame.obstacleCount; i++) {
+                client.out.putDouble(frame.obstacleX[i]).putDouble(frame.obstacleY[i]);
+            }
+            endMessage(client.out, start);
+            client.obstacleVersion = frame.obstacleVersion;
+        }
+        encodeTick(client, frame);
+        client.sentSequence = frame.sequence;
+        client.out.flip();
+        flush(client);
+    }
+
+    /**
+     * Adds a TICK message with the robots that changed since the spectator's last one.
+     */
+    private void encodeTick(Client client, Frame frame) {
+        RobotFrame robots = frame.robots;
+        RobotTable sent = client.sent, next = client.next;
+        // Every robot could be entering, the larger case, and every robot sent last time leaving
+        client.reserve(4 + 1 + 8 + 4 + 4 + 2 + 3 * 4 + robots.count * ENTERED_BYTES + sent.size * 4);
+        if (entering.capacity() < robots.count * ENTERED_BYTES) {
+            entering = ByteBuffer.allocate(robots.count * ENTERED_BYTES + robots.count / 4).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        entering.clear();
+
+        ByteBuffer out = client.out;
+        int start = beginMessage(out, TICK);
+        out.putLong(robots.tick);
+        out.putInt(toPosition(frame.userX)).putInt(toPosition(frame.userY)).putShort(toDirection(frame.userDirection));
+
+        int movedAt = out.position();
+        out.putInt(0);
+        int moved = 0, entered = 0, removed = 0;
+        next.clear();
+        for (int i = 0; i < robots.count; i++) {
+            byte tag = robots.tags[i];
+            double x = robots.x[i], y = robots.y[i];
+            if (tag < 0 || x < client.minX || x > client.maxX || y < client.minY || y > client.maxY) continue;
+            int id = robots.ids[i];
+            int qx = toPosition(x), qy = toPosition(y), qd = toDirection(robots.direction[i]);
+            int row = sent.find(id);
+            if (row >= 0) {
+                sent.flags[row] = RobotTable.MARKED;
+                int dx = qx - sent.x[row], dy = qy - sent.y[row];
+                int turn = qd - sent.direction[row];
+                if (turn >= FULL_TURN / 2) {
+                    turn -= FULL_TURN;
+                } else if (turn < -FULL_TURN / 2) {
+                    turn += FULL_TURN;
+                }
+                if (dx != 0 || dy != 0 || turn != 0) {
+                    if (dx == (short) dx && dy == (short) dy) {
+                        out.putInt(id).putShort((short) dx).putShort((short) dy).putShort((short) turn);
+                        moved++;
+                    } else {
+                        // Too far for a delta, e.g. after many skipped frames, so send it afresh
+                        entering.putInt(id).put(tag).putInt(qx).putInt(qy).putShort((short) qd);
+                        entered++;
+                    }
+                }
+            } else {
+                entering.putInt(id).put(tag).putInt(qx).putInt(qy).putShort((short) qd);
+                entered++;
+            }
+            next.put(id, tag, qx, qy, qd);
+        }
+        out.putInt(movedAt, moved);
+        out.putInt(entered).put(entering.flip());
+
+        // Whatever was sent last time and not seen now has been removed or left the view
+        int removedAt = out.position();
+        out.putInt(0);
+        for (int row = 0; row < sent.size; row++) {
+            if (sent.flags[row] != RobotTable.MARKED) {
+                out.putInt(sent.ids[row]);
+                removed++;
+            }
+        }
+        out.putInt(removedAt, removed);
+        endMessage(out, start);
+
+        client.sent = next;
+        client.next = sent;
+    }
+
+    private static int beginMessage(ByteBuffer out, byte type) {
+        int start = out.position();
+        out.putInt(0).put(type);
+        return start;
+    }
+
+    private static void endMessage(ByteBuffer out, int start) {
+        out.putInt(start, out.position() - start - 4);
+    }
+
+    static int toPosition(double position) {
+        return (int) Math.round(position * POSITION_SCALE);
+    }
+
+    static short toDirection(double direction) {
+        return (short) Math.floorMod(Math.round(direction * DIRECTION_SCALE), FULL_TURN);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Already going away
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package testjfx;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Application;
+import javafx.scene.Scene;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import java.io.IOException;
+
+/**
+ * Watches an arena running in another process that was started with --spectatorPort=N.
+ * The arena is drawn by an ArenaCanvas from what a SpectatorClient receives; it can be
+ * panned and zoomed as usual, and the server is only asked for the robots on screen.
+ *
+ * Usage: java testjfx.SpectatorViewer --port=N
+ */
+public class SpectatorViewer extends Application {
+    private static final double VIEW_MARGIN = 50; // World units beyond the screen to receive robots for
+
+    @Override
+    public void start(Stage primaryStage) throws IOException {
+        int port = Integer.parseInt(getParameters().getNamed().getOrDefault("port",
+                String.valueOf(SpectatorServer.DEFAULT_PORT)));
+        SpectatorClient client = new SpectatorClient(port);
+        ArenaCanvas arenaCanvas = new ArenaCanvas(700, 600, client);
+        String title = "Wisam's Robot Arena - spectating port " + port;
+        primaryStage.setTitle(title);
+
+        // Tell the server what is on screen whenever the camera moves
+        AnimationTimer viewUpdater = new AnimationTimer() {
+            private long sentVersion = -1; // Camera version of the view last sent
+
+            @Override
+            public void handle(long now) {
+                Camera camera = arenaCanvas.getCamera();
+                if (!client.isConnected()) {
+                    primaryStage.setTitle(title + " (disconnected)");
+                    stop();
+                } else if (camera.getVersion() != sentVersion) {
+                    sentVersion = camera.getVersion();
+                    try {
+                        client.setView(camera.getMinX() - VIEW_MARGIN, camera.getMinY() - VIEW_MARGIN,
+                                       camera.getMaxX() + VIEW_MARGIN, camera.getMaxY() + VIEW_MARGIN);
+                    } catch (IOException e) {
+                        primaryStage.setTitle(title + " (disconnected)");
+                        stop();
+                    }
+                }
+            }
+        };
+        viewUpdater.start();
+        primaryStage.setOnHidden(event -> {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        });
+
+        BorderPane borderz = new BorderPane(arenaCanvas.getView());
+        primaryStage.setScene(new Scene(borderz, 700, 600));
+        primaryStage.show();
+    }
+
+    public static void main(String[] args) {
+        launch(args);
+    }
+}
@@ -0,0 +1,124 @@
+package testjfx;
+
+import javafx.scene.SnapshotParameters;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.paint.Color;
+import java.util.Arrays;
+
+/**
+ * Pre-rendered images of each robot type, so drawing a robot is a single drawImage call.
+ * Each type is rendered by its own draw method, once per quantized heading, the first
+ * time that heading is needed. Must be used on the JavaFX application thread.
+ */
+public class SpriteCache {
+    public static final int DEFAULT_ANGLE_STEPS = 72; // One sprite every 5 degrees
+
+    private final int angleSteps;      // Number of headings rendered per type
+    private final double stepDegrees;  // Heading covered by each sprite
+    private final Image[][] sprites;   // Indexed by type tag, then heading step
+    private final double[] radius;     // Half the sprite size, per type tag
+
+    public SpriteCache() {
+        this(DEFAULT_ANGLE_STEPS);
+    }
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param angleSteps The number of headings to render each type at.
+     */
+    public SpriteCache(int angleSteps) {
+        this.angleSteps = Math.max(angleSteps, 1);
+        this.stepDegrees = 360.0 / this.angleSteps;
+        RobotType[] types = RobotType.values();
+        this.sprites = new Image[types.length][this.angleSteps];
+        this.radius = new double[types.length];
+        for (RobotType type : types) {
+            radius[type.tag()] = Math.ceil(type.create(0, 0, 0).drawRadius());
+        }
+    }
+
+    public int getAngleSteps() {
+        return angleSteps;
+    }
+
+    /**
+     * Returns half the size of a type's sprites.
+     *
+     * @param type The type of robot.
+     * @return The sprite radius.
+     */
+    public double getRadius(RobotType type) {
+        return radius[type.tag()];
+    }
+
+    /**
+     * Draws a robot from its sprite. Robots without a RobotType, such as the
+     * user-controlled robot, are drawn directly.
+     *
+     * @param gc    The graphics context to draw on.
+     * @param robot The robot to draw.
+     */
+    public void draw(GraphicsContext gc, Robot robot) {
+        RobotType type = robot.getType();
+        if (type == null) {
+            robot.draw(gc);
+        } else {
+            draw(gc, type, robot.getX(), robot.getY(), robot.direction);
+        }
+    }
+
+    /**
+     * Draws a robot of the given type from its sprite.
+     *
+     * @param gc        The graphics context to draw on.
+     * @param type      The type of robot.
+     * @param x         The x-coordinate of the robot.
+     * @param y         The y-coordinate of the robot.
+     * @param direction The direction of the robot in degrees.
+     */
+    public void draw(GraphicsContext gc, RobotType type, double x, double y, double direction) {
+        int tag = type.tag();
+        int step = (int) Math.round(normalise(direction) / stepDegrees) % angleSteps;
+        Image sprite = sprites[tag][step];
+        if (sprite == null) {
+            sprite = render(type, step * stepDegrees);
+            sprites[tag][step] = sprite;
+        }
+        double r = radius[tag];
+        gc.drawImage(sprite, x - r, y - r);
+    }
+
+    /**
+     * Drops every rendered sprite, e.g. after the robots' look has changed.
+     */
+    public void clear() {
+        for (Image[] typeSprites : sprites) {
+            Arrays.fill(typeSprites, null);
+        }
+    }
+
+    /**
+     * Renders one sprite by drawing a robot in the centre of a transparent canvas.
+     *
+     * @param type      The type of robot.
+     * @param direction The heading to render in degrees.
+     * @return The rendered sprite.
+     */
+    private Image render(RobotType type, double direction) {
+        double r = radius[type.tag()];
+        Canvas scratch = new Canvas(2 * r, 2 * r);
+        type.create(r, r, direction).draw(scratch.getGraphicsContext2D());
+
+        SnapshotParameters parameters = new SnapshotParameters();
+        parameters.setFill(Color.TRANSPARENT);
+        return scratch.snapshot(parameters, null);
+    }
+
+    private static double normalise(double direction) {
+        double d = direction % 360;
+        return d < 0 ? d + 360 : d;
+    }
+}
@@ -0,0 +1,214 @@
+package testjfx;
+
+import java.util.Arrays;
+
+/**
+ * Finds every pair of robots closer than a contact distance by sorting and sweeping.
+ * The world is cut into horizontal strips one contact distance tall, and robots are
+ * sorted by strip and then by x-coordinate. Sweeping along the sorted order, a robot
+ * only needs checking against the robots just after it in its own strip and in the
+ * strip below, whose x-coordinates are within the contact distance of its own. Sweeping
+ * the whole world along x in one go would instead check every robot in a column as wide
+ * as the contact distance, which in a square world grows with the square root of the
+ * number of robots.
+ *
+ * The sorted order is kept from one update to the next. Robots move only a little each
+ * tick, so the old order is nearly sorted already and an insertion sort brings it up to
+ * date in close to linear time. Only when robots have been added or removed is the order
+ * sorted from scratch.
+ *
+ * Robots are identified by their index in the arrays passed to update; the pairs found
+ * stay valid until the next update.
+ */
+public class SweepAndPrune {
+    private int count = 0;                     // Number of robots sorted
+    private int[] order = new int[64];         // Robot indices, by strip and then x-coordinate
+    private int[] sortedStrip = new int[64];   // Each sorted robot's strip
+    private double[] sortedX = new double[64]; // ... x-coordinate
+    private double[] sortedY = new double[64]; // ... and y-coordinate
+    private long[] scratch = new long[0];      // Packed keys for sorting from scratch
+    private int[] stripStarts = new int[0];    // Counting sort buckets, for sorting from scratch
+    private int[] pairs = new int[128];        // Two robot indices per pair found
+    private int pairCount = 0;
+    private long shifts = 0;                   // Places robots moved in the last insertion sort
+
+    /**
+     * Brings the sorted order up to date and finds every pair of robots closer than the
+     * contact distance.
+     *
+     * @param count    The number of robots.
+     * @param x        The robots' x-coordinates.
+     * @param y        The robots' y-coordinates.
+     * @param distance The contact distance, which is also the strip height.
+     * @param resort   Whether robots have been added or removed since the last update, so
+     *                 the old order no longer applies.
+     */
+    public void update(int count, double[] x, double[] y, double distance, boolean resort) {
+        if (order.length < count) {
+            int capacity = Math.max(count, order.length * 2);
+            order = Arrays.copyOf(order, capacity);
+            sortedStrip = new int[capacity];
+            sortedX = new double[capacity];
+            sortedY = new double[capacity];
+        }
+        if (resort || count != this.count) {
+            sortFromScratch(count, x, y, distance);
+        }
+        this.count = count;
+
+        // Refresh the keys in the old order, then let the few robots that overtook a neighbour move past it
+        for (int i = 0; i < count; i++) {
+            int robot = order[i];
+            sortedStrip[i] = (int) Math.floor(y[robot] / distance);
+            sortedX[i] = x[robot];
+            sortedY[i] = y[robot];
+        }
+        insertionSort();
+        sweep(distance);
+    }
+
+    /**
+     * Sorts the robots by x-coordinate with a primitive sort of packed keys, the coordinate
+     * rounded to a float in the high half and the robot index in the low half, and then
+     * by strip with a stable counting sort. The insertion sort that follows settles any
+     * ties the rounding left out of order.
+     */
+    private void sortFromScratch(int count, double[] x, double[] y, double distance) {
+        if (scratch.length < count) {
+            scratch = new long[order.length];
+        }
+        for (int i = 0; i < count; i++) {
+            int bits = Float.floatToIntBits((float) x[i]);
+            int sortable = bits ^ ((bits >> 31) & 0x7FFFFFFF); // Orders negative floats below positive ones
+            scratch[i] = (long) sortable << 32 | i;
+        }
+        Arrays.sort(scratch, 0, count);
+        if (count == 0) return;
+
+        int minStrip = Integer.MAX_VALUE, maxStrip = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            int strip = (int) Math.floor(y[i] / distance);
+            minStrip = Math.min(minStrip, strip);
+            maxStrip = Math.max(maxStrip, strip);
+        }
+        int strips = maxStrip - minStrip + 1;
+        if (stripStarts.length < strips + 1) {
+            stripStarts = new int[strips + 1];
+        }
+        Arrays.fill(stripStarts, 0, strips + 1, 0);
+        for (int i = 0; i < count; i++) {
+            stripStarts[(int) Math.floor(y[i] / distance) - minStrip + 1]++;
+        }
+        for (int s = 0; s < strips; s++) {
+            stripStarts[s + 1] += stripStarts[s];
+        }
+        for (int i = 0; i < count; i++) {
+            int robot = (int) scratch[i];
+            order[stripStarts[(int) Math.floor(y[robot] / distance) - minStrip]++] = robot;
+        }
+    }
+
+    private void insertionSort() {
+        long moved = 0;
+        for (int i = 1; i < count; i++) {
+            int strip = sortedStrip[i];
+            double key = sortedX[i];
+            if (!before(strip, key, sortedStrip[i - 1], sortedX[i - 1])) continue; // Still in order, the usual case
+            int robot = order[i];
+            double keyY = sortedY[i];
+            int j = i - 1;
+            while (j >= 0 && before(strip, key, sortedStrip[j], sortedX[j])) {
+                order[j + 1] = order[j];
+                sortedStrip[j + 1] = sortedStrip[j];
+                sortedX[j + 1] = sortedX[j];
+                sortedY[j + 1] = sortedY[j];
+                j--;
+            }
+            order[j + 1] = robot;
+            sortedStrip[j + 1] = strip;
+            sortedX[j + 1] = key;
+            sortedY[j + 1] = keyY;
+            moved += i - 1 - j;
+        }
+        shifts = moved;
+    }
+
+    private static boolean before(int strip, double x, int otherStrip, double otherX) {
+        return strip < otherStrip || (strip == otherStrip && x < otherX);
+    }
+
+    private void sweep(double distance) {
+        double distanceSquared = distance * distance;
+        pairCount = 0;
+        int below = 0; // First robot in the strip below a's whose x-coordinate is within reach of a's
+        for (int a = 0; a < count; a++) {
+            int strip = sortedStrip[a];
+            double ax = sortedX[a], ay = sortedY[a];
+
+            // The rest of a's own strip
+            for (int b = a + 1; b < count && sortedStrip[b] == strip && sortedX[b] - ax < distance; b++) {
+                check(a, b, sortedX[b] - ax, sortedY[b] - ay, distanceSquared);
+            }
+
+            // The strip below; a's x-coordinate only grows within a strip, so neither does the start
+            below = Math.max(below, a + 1);
+            while (below < count && (sortedStrip[below] <= strip
+                                     || (sortedStrip[below] == strip + 1 && sortedX[below] <= ax - distance))) {
+                below++;
+            }
+            for (int b = below; b < count && sortedStrip[b] == strip + 1 && sortedX[b] - ax < distance; b++) {
+                check(a, b, sortedX[b] - ax, sortedY[b] - ay, distanceSquared);
+            }
+        }
+    }
+
+    private void check(int a, int b, double dx, double dy, double distanceSquared) {
+        if (dx * dx + dy * dy < distanceSquared) {
+            if (2 * pairCount == pairs.length) {
+                pairs = Arrays.copyOf(pairs, pairs.length * 2);
+            }
+            pairs[2 * pairCount] = order[a];
+            pairs[2 * pairCount + 1] = order[b];
+            pairCount++;
+        }
+    }
+
+    /**
+     * Returns the number of pairs found by the last update.
+     *
+     * @return The pair count.
+     */
+    public int getPairCount() {
+        return pairCount;
+    }
+
+    /**
+     * Returns one robot of a pair.
+     *
+     * @param pair The index of the pair, below getPairCount().
+     * @return The robot's index.
+     */
+    public int getFirst(int pair) {
+        return pairs[2 * pair];
+    }
+
+    /**
+     * Returns the other robot of a pair.
+     *
+     * @param pair The index of the pair, below getPairCount().
+     * @return The robot's index.
+     */
+    public int getSecond(int pair) {
+        return pairs[2 * pair + 1];
+    }
+
+    /**
+     * Returns how many places robots moved in the last incremental sort, a measure of how
+     * much the order changed between updates.
+     *
+     * @return The number of shifts.
+     */
+    public long getShifts() {
+        return shifts;
+    }
+}
@@ -0,0 +1,176 @@
+package testjfx;
+
+import java.util.List;
+
+/**
+ * Moves a robot along its whole path in one step, stopping at each wall or obstacle it
+ * touches on the way. This is continuous collision detection, for steps long enough to
+ * skip past things.
+ * A robot normally moves and then checks its sensors at the point where it ends up. That
+ * is exact for a unit step at the default speed, but a longer move can jump clean over an
+ * obstacle's sensor range, or carry the robot far beyond a wall before it bounces. A swept
+ * move finds the earliest point along the path where the robot reaches a wall or comes
+ * into its type's obstacle range. It makes the robot react there, by bouncing off the wall
+ * or turning as its sensor would, and carries on with what is left of the move in the new
+ * direction.
+ *
+ * Moves of at most MAX_DISCRETE_TRAVEL are left to the usual end-of-step checks, so runs at
+ * the default speed and step length, and the replays recorded from them, are unchanged. The
+ * sensors still run after a swept move, and handle robots that started the step in range.
+ *
+ * Each thread keeps one SweptMotion, which around points at the arena being stepped, so
+ * swept moves allocate nothing.
+ */
+final class SweptMotion {
+    static final double MAX_DISCRETE_TRAVEL = 1; // Longest move only checked where it ends, a unit step at speed 1
+    static final int MAX_CONTACTS = 8;           // Most walls and obstacles reacted to in one move
+
+    private static final ThreadLocal<SweptMotion> MOTIONS = ThreadLocal.withInitial(SweptMotion::new);
+
+    private SpatialGrid grid;         // The arena's obstacle grid, indexed for this step
+    private List<Obstacle> obstacles; // The obstacles the grid indexes
+    private double minX, minY;        // Lines the robots bounce off, WALL_MARGIN inside each edge
+    private double maxX, maxY;
+
+    // Where the last move ended
+    private double x, y, direction;
+
+    private SweptMotion() {
+    }
+
+    /**
+     * Prepares the calling thread's SweptMotion to move robots around an arena whose
+     * obstacle grid is up to date.
+     *
+     * @param arena The arena.
+     * @return The thread's SweptMotion, valid until the thread next calls around.
+     */
+    static SweptMotion around(RobotArena arena) {
+        SweptMotion motion = MOTIONS.get();
+        motion.grid = arena.getObstacleGrid();
+        motion.obstacles = arena.getObstacles();
+        motion.minX = Robot.WALL_MARGIN;
+        motion.minY = Robot.WALL_MARGIN;
+        motion.maxX = arena.getWidth() - Robot.WALL_MARGIN;
+        motion.maxY = arena.getHeight() - Robot.WALL_MARGIN;
+        return motion;
+    }
+
+    /**
+     * Tells whether a move is long enough to need sweeping.
+     *
+     * @param speed The robot's speed in pixels per tick.
+     * @param dt    The length of the step in ticks.
+     * @return True if the move is longer than MAX_DISCRETE_TRAVEL.
+     */
+    static boolean isSwept(double speed, double dt) {
+        return speed * dt > MAX_DISCRETE_TRAVEL;
+    }
+
+    /**
+     * Moves a robot, reacting to each wall and obstacle it reaches along the way; read the
+     * result back with getX, getY and getDirection. A robot that ends the move outside the
+     * walls bounces as it would after an ordinary move.
+     *
+     * @param startX         The robot's x-coordinate.
+     * @param startY         The robot's y-coordinate.
+     * @param startDirection The robot's direction in degrees.
+     * @param travel         How far the robot moves, speed * dt.
+     * @param type           The robot's type, or null for a robot that only bounces off walls.
+     * @return The number of walls and obstacles reacted to.
+     */
+    int move(double startX, double startY, double startDirection, double travel, RobotType type) {
+        double range = type == null ? 0 : type.getObstacleRange();
+        double turn = type == null ? 0 : type.getContactTurn();
+        x = startX;
+        y = startY;
+        direction = startDirection;
+        int contacts = 0;
+        int lastObstacle = -1; // Just turned off, so not reached again while still in range
+
+        double left = travel;
+        while (left > 0) {
+            double moveX = left * Kinematics.cos(direction), moveY = left * Kinematics.sin(direction);
+
+            // The earliest wall crossed, ignoring walls the robot is already beyond
+            double first = 1;
+            int wall = 0; // 1 for a side wall, 2 for the top or bottom, 3 for an obstacle
+            double wallAt = 0;
+            if (moveX < 0 && x >= minX && x + moveX < minX) {
+                first = (minX - x) / moveX;
+                wall = 1;
+                wallAt = minX;
+            } else if (moveX > 0 && x <= maxX && x + moveX > maxX) {
+                first = (maxX - x) / moveX;
+                wall = 1;
+                wallAt = maxX;
+            }
+            if (moveY < 0 && y >= minY && y + moveY < minY && (minY - y) / moveY < first) {
+                first = (minY - y) / moveY;
+                wall = 2;
+                wallAt = minY;
+            } else if (moveY > 0 && y <= maxY && y + moveY > maxY && (maxY - y) / moveY < first) {
+                first = (maxY - y) / moveY;
+                wall = 2;
+                wallAt = maxY;
+            }
+
+            // The first obstacle reached, if it comes before the wall
+            int obstacle = -1;
+            if (range > 0) {
+                obstacle = grid.firstContact(x, y, moveX, moveY, range, lastObstacle);
+                if (obstacle >= 0) {
+                    Obstacle reached = obstacles.get(obstacle);
+                    double t = Kinematics.timeOfImpact(x - reached.getX(), y - reached.getY(), moveX, moveY, range);
+                    if (t < first) {
+                        first = t;
+                        wall = 3;
+                    }
+                }
+            }
+
+            if (wall == 0 || contacts == MAX_CONTACTS) {
+                x += moveX;
+                y += moveY;
+                break;
+            }
+
+            // React at the point of contact and carry on with the rest of the move
+            x += first * moveX;
+            y += first * moveY;
+            left -= first * left;
+            contacts++;
+            switch (wall) {
+                case 1 -> {
+                    x = wallAt; // Exactly on the line, so rounding cannot put it beyond
+                    direction = 180 - direction;
+                }
+                case 2 -> {
+                    y = wallAt;
+                    direction = -direction;
+                }
+                default -> {
+                    direction = (direction + turn) % 360;
+                    lastObstacle = obstacle;
+                }
+            }
+        }
+
+        // Robots that started beyond a wall bounce as after an ordinary move
+        if (x < minX || x > maxX) direction = 180 - direction;
+        if (y < minY || y > maxY) direction = -direction;
+        return contacts;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getDirection() {
+        return direction;
+    }
+}
@@ -0,0 +1,353 @@
+package testjfx;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the trajectory telemetry files written by TelemetryWriter, in the binary .telemetry format.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header  magic "TELM", version (short), column count (short), position scale, direction scale,
+ *           ticks per chunk (ints), world width, world height (doubles)
+ *   chunks  first tick (long), tick count (int), robot rows (int), byte length of each column (ints),
+ *           then the columns one after another
+ *   index   per chunk: first tick, last tick, file offset (longs); then the chunk count (int),
+ *           the index's offset (long) and the magic "TEND"
+ * </pre>
+ * A chunk holds a range of consecutive recorded ticks, column by column:
+ * <pre>
+ *   ticks      each tick's distance from the tick before it, the first from the chunk's first tick
+ *   counts     the number of robots in each tick
+ *   ids        each robot's id: its handle for a robot object, -(serial + 1) for a compact robot
+ *   tags       each robot's RobotType tag, for the rows whose id changed
+ *   x, y       position in 1/POSITION_SCALE pixels
+ *   direction  heading in 1/DIRECTION_SCALE degrees, from 0 to 360
+ * </pre>
+ * The ticks and counts are unsigned varints. Every other value is stored as the difference
+ * from the same row of the tick before in the chunk, or from 0 in a chunk's first tick, as a
+ * zig-zag varint; headings wrap around, so turning past north stays a small difference.
+ * Robots keep their rows from one tick to the next until some are added or removed, so each
+ * tick's ids are stored as runs: the number of rows holding the same robot as before, then
+ * the number of rows that changed followed by their ids, and so on to the end of the tick.
+ * Only the changed rows store a tag, since a robot's type never changes. Robots move about a
+ * pixel a tick, so positions and headings mostly take a byte each. Each chunk decodes on its own.
+ *
+ * The index at the end lets a reader go straight to the chunks covering some ticks. A file
+ * whose writer never closed it has no index; its chunks are then found by reading through them.
+ * Files soon grow past what one memory-mapped view can hold, so each chunk is mapped as it is read.
+ */
+public final class TelemetryFile implements Closeable {
+    public static final String EXTENSION = "telemetry";
+
+    static final int MAGIC = 0x4D4C4554;     // "TELM" read as a little-endian int
+    static final int END_MAGIC = 0x444E4554; // "TEND"
+    static final short VERSION = 1;
+    static final int POSITION_SCALE = 32;    // Position units per pixel
+    static final int DIRECTION_SCALE = 16;   // Heading units per degree
+    static final int FULL_TURN = 360 * DIRECTION_SCALE;
+    static final int HEADER_SIZE = 4 + 2 + 2 + 3 * 4 + 2 * 8;
+    static final int TRAILER_SIZE = 4 + 8 + 4;
+
+    // Columns of a chunk, in the order they are stored
+    static final int TICKS = 0, COUNTS = 1, IDS = 2, TAGS = 3, X = 4, Y = 5, DIRECTION = 6;
+    static final int COLUMNS = 7;
+    static final int CHUNK_HEADER_SIZE = 8 + 4 + 4 + COLUMNS * 4;
+
+    /**
+     * Receives the ticks of a chunk as they are decoded.
+     */
+    public interface TickVisitor {
+        /**
+         * Receives one recorded tick. The arrays are reused for the next tick.
+         *
+         * @param tick      The engine's tick count after the step.
+         * @param count     The number of robots; only the first count entries of the arrays are valid.
+         * @param ids       Each robot's id, see the class comment.
+         * @param tags      Each robot's RobotType tag.
+         * @param x         The x-coordinates.
+         * @param y         The y-coordinates.
+         * @param direction The directions in degrees, from 0 to 360.
+         */
+        void tick(long tick, int count, int[] ids, byte[] tags, double[] x, double[] y, double[] direction);
+    }
+
+    private final FileChannel channel;
+    private final long size;
+    private final int positionScale, directionScale, chunkTicks;
+    private final double width, height;
+    private long[] chunkOffsets = new long[16];
+    private long[] chunkFirstTicks = new long[16];
+    private long[] chunkLastTicks = new long[16];
+    private int chunkCount = 0;
+
+    // Decoding state, kept between chunks so the arrays only grow
+    private int[] ids = new int[0];
+    private byte[] tags = new byte[0];
+    private int[] x = new int[0], y = new int[0], direction = new int[0];
+    private double[] xOut = new double[0], yOut = new double[0], directionOut = new double[0];
+
+    private TelemetryFile(FileChannel channel, Path file) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        if (size < HEADER_SIZE) {
+            throw new IOException("Not a telemetry file: " + file);
+        }
+        ByteBuffer header = readAt(0, HEADER_SIZE);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a telemetry file: " + file);
+        }
+        short version = header.getShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported telemetry file version " + version + ": " + file);
+        }
+        if (header.getShort() != COLUMNS) {
+            throw new IOException("Unexpected column count in " + file);
+        }
+        positionScale = header.getInt();
+        directionScale = header.getInt();
+        chunkTicks = header.getInt();
+        width = header.getDouble();
+        height = header.getDouble();
+        if (!readIndex()) {
+            scanChunks();
+        }
+    }
+
+    /**
+     * Opens a telemetry file and finds its chunks. Close it when done.
+     *
+     * @param file The file to read.
+     * @return The open file.
+     * @throws IOException If the file cannot be read or is not a telemetry file.
+     */
+    public static TelemetryFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new TelemetryFile(channel, file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads the chunk index from the end of the file.
+     *
+     * @return False if the file has no index.
+     */
+    private boolean readIndex() throws IOException {
+        if (size < HEADER_SIZE + TRAILER_SIZE) return false;
+        ByteBuffer trailer = readAt(size - TRAILER_SIZE, TRAILER_SIZE);
+        int count = trailer.getInt();
+        long indexAt = trailer.getLong();
+        if (trailer.getInt() != END_MAGIC) return false;
+        if (count < 0 || indexAt < HEADER_SIZE || indexAt + 24L * count != size - TRAILER_SIZE) return false;
+        ByteBuffer index = readAt(indexAt, 24 * count);
+        for (int c = 0; c < count; c++) {
+            long firstTick = index.getLong(), lastTick = index.getLong();
+            addChunk(index.getLong(), firstTick, lastTick);
+        }
+        return true;
+    }
+
+    /**
+     * Finds the chunks of a file without an index by reading through them, stopping at the
+     * first one that was only partly written.
+     */
+    private void scanChunks() throws IOException {
+        long at = HEADER_SIZE;
+        while (at + CHUNK_HEADER_SIZE <= size) {
+            ByteBuffer header = readAt(at, CHUNK_HEADER_SIZE);
+            long firstTick = header.getLong();
+            int ticks = header.getInt();
+            header.getInt(); // Robot rows
+            long length = CHUNK_HEADER_SIZE;
+            int ticksLength = header.getInt(header.position());
+            for (int c = 0; c < COLUMNS; c++) {
+                length += header.getInt();
+            }
+            if (at + length > size) break;
+
+            // The last tick is the first plus every step in the ticks column
+            long lastTick = firstTick;
+            ByteBuffer column = readAt(at + CHUNK_HEADER_SIZE, ticksLength);
+            for (int t = 0; t < ticks; t++) {
+                lastTick += getVarint(column);
+            }
+            addChunk(at, firstTick, lastTick);
+            at += length;
+        }
+    }
+
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated telemetry file");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void addChunk(long offset, long firstTick, long lastTick) {
+        if (chunkCount == chunkOffsets.length) {
+            chunkOffsets = Arrays.copyOf(chunkOffsets, chunkCount * 2);
+            chunkFirstTicks = Arrays.copyOf(chunkFirstTicks, chunkCount * 2);
+            chunkLastTicks = Arrays.copyOf(chunkLastTicks, chunkCount * 2);
+        }
+        chunkOffsets[chunkCount] = offset;
+        chunkFirstTicks[chunkCount] = firstTick;
+        chunkLastTicks[chunkCount] = lastTick;
+        chunkCount++;
+    }
+
+    public double getWidth() {
+        return width;
+    }
+
+    public double getHeight() {
+        return height;
+    }
+
+    public int getChunkTicks() {
+        return chunkTicks;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public long getFirstTick(int chunk) {
+        return chunkFirstTicks[chunk];
+    }
+
+    public long getLastTick(int chunk) {
+        return chunkLastTicks[chunk];
+    }
+
+    /**
+     * Decodes the ticks from one tick to another, reading only the chunks that cover them.
+     *
+     * @param from    The first tick to visit.
+     * @param to      The last tick to visit.
+     * @param visitor Receives each recorded tick in the range, in order.
+     * @throws IOException If the file cannot be read.
+     */
+    public void read(long from, long to, TickVisitor visitor) throws IOException {
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            if (chunkLastTicks[chunk] >= from && chunkFirstTicks[chunk] <= to) {
+                readChunk(chunk, from, to, visitor);
+            }
+        }
+    }
+
+    /**
+     * Decodes every tick in the file.
+     *
+     * @param visitor Receives each recorded tick, in order.
+     * @throws IOException If the file cannot be read.
+     */
+    public void readAll(TickVisitor visitor) throws IOException {
+        read(Long.MIN_VALUE, Long.MAX_VALUE, visitor);
+    }
+
+    private void readChunk(int chunk, long from, long to, TickVisitor visitor) throws IOException {
+        ByteBuffer header = readAt(chunkOffsets[chunk], CHUNK_HEADER_SIZE);
+        long tick = header.getLong();
+        int ticks = header.getInt();
+        header.getInt(); // Robot rows
+        int[] lengths = new int[COLUMNS];
+        long length = 0;
+        for (int c = 0; c < COLUMNS; c++) {
+            lengths[c] = header.getInt();
+            length += lengths[c];
+        }
+
+        // One cursor per column into the mapped chunk, each starting where the one before it ends
+        ByteBuffer body = channel.map(FileChannel.MapMode.READ_ONLY, chunkOffsets[chunk] + CHUNK_HEADER_SIZE, length);
+        ByteBuffer[] columns = new ByteBuffer[COLUMNS];
+        int at = 0;
+        for (int c = 0; c < COLUMNS; c++) {
+            columns[c] = body.duplicate().position(at).limit(at + lengths[c]);
+            at += lengths[c];
+        }
+
+        int previousCount = 0;
+        for (int t = 0; t < ticks; t++) {
+            tick += getVarint(columns[TICKS]);
+            int count = (int) getVarint(columns[COUNTS]);
+            ensureCapacity(count);
+            // Rows beyond the previous tick's count start from 0
+            if (count > previousCount) {
+                Arrays.fill(ids, previousCount, count, 0);
+                Arrays.fill(tags, previousCount, count, (byte) 0);
+                Arrays.fill(x, previousCount, count, 0);
+                Arrays.fill(y, previousCount, count, 0);
+                Arrays.fill(direction, previousCount, count, 0);
+            }
+            for (int i = 0; i < count; ) {
+                i += (int) getVarint(columns[IDS]); // Rows holding the same robot as before
+                for (int end = i + (int) getVarint(columns[IDS]); i < end; i++) {
+                    ids[i] += getSigned(columns[IDS]);
+                    tags[i] += (byte) getSigned(columns[TAGS]);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                x[i] += getSigned(columns[X]);
+                y[i] += getSigned(columns[Y]);
+                direction[i] = Math.floorMod(direction[i] + getSigned(columns[DIRECTION]), 360 * directionScale);
+            }
+            previousCount = count;
+
+            if (tick >= from && tick <= to) {
+                for (int i = 0; i < count; i++) {
+                    xOut[i] = (double) x[i] / positionScale;
+                    yOut[i] = (double) y[i] / positionScale;
+                    directionOut[i] = (double) direction[i] / directionScale;
+                }
+                visitor.tick(tick, count, ids, tags, xOut, yOut, directionOut);
+            }
+        }
+    }
+
+    private void ensureCapacity(int count) {
+        if (ids.length < count) {
+            int capacity = count + count / 4;
+            ids = Arrays.copyOf(ids, capacity);
+            tags = Arrays.copyOf(tags, capacity);
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            direction = Arrays.copyOf(direction, capacity);
+            xOut = new double[capacity];
+            yOut = new double[capacity];
+            directionOut = new double[capacity];
+        }
+    }
+
+    private static long getVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static int getSigned(ByteBuffer in) {
+        int zigzag = (int) getVarint(in);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
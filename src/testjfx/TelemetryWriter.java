@@ -0,0 +1,363 @@
+package testjfx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Records every robot's position and heading after each step to a telemetry file, in the
+ * columnar format described in TelemetryFile.
+ * The thread running the engine only copies the robots' state into one of a few reused
+ * frames and hands it over; a writer thread of its own encodes the frames and does all of
+ * the file I/O. Frames are never allocated while recording, so memory is bounded by the
+ * frame count, and if the writer falls behind, because the disk is slow or the machine is
+ * busy, the ticks it has no free frame for are dropped and counted rather than making the
+ * simulation wait. Dropped ticks show up as gaps in the recorded tick numbers.
+ */
+public class TelemetryWriter implements Closeable {
+    static final int FRAMES = 4;                     // Ticks that can wait for the writer at once
+    static final int CHUNK_TICKS = 64;               // Most ticks per chunk
+    static final int MAX_CHUNK_BYTES = 64 << 20;     // Chunks holding this much are written early
+
+    private static final RobotFrame END = new RobotFrame(); // Tells the writer thread to finish
+
+    private final BlockingQueue<RobotFrame> free = new ArrayBlockingQueue<>(FRAMES);     // Frames ready to fill
+    private final BlockingQueue<RobotFrame> full = new ArrayBlockingQueue<>(FRAMES + 1); // Filled, waiting to be written
+    private final Thread thread;
+    private final FileChannel channel;
+    private volatile IOException failure;  // Why the writer thread stopped early, if it did
+    private volatile long written = 0;     // Ticks written so far
+    private long dropped = 0;              // Ticks dropped for want of a free frame, on the engine's thread
+    private boolean closed = false;
+
+    // Writer thread state: the chunk being built, one growing column per kind of value
+    private final Column[] columns = new Column[TelemetryFile.COLUMNS];
+    private long chunkFirstTick, lastTick;
+    private int chunkTicks = 0, chunkRows = 0;
+    private int previousCount = 0; // Robots in the last tick of the chunk
+    private int[] previousIds = new int[0], previousX = new int[0], previousY = new int[0],
+                  previousDirection = new int[0];
+    private byte[] previousTags = new byte[0];
+    private long[] index = new long[3 * 16]; // First tick, last tick and offset of each chunk written
+    private int chunkCount = 0;
+    private long position;                   // Where the next chunk goes in the file
+
+    /**
+     * A column of varints. Room is reserved a tick at a time, so adding a value never checks for it.
+     */
+    private static final class Column {
+        byte[] bytes = new byte[1024];
+        int length = 0;
+
+        /**
+         * Makes room for a number of bytes more.
+         */
+        void reserve(long more) {
+            if (length + more > bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(length + more, 2L * bytes.length)));
+            }
+        }
+
+        void putVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void putSigned(int value) {
+            int zigzag = (value << 1) ^ (value >> 31);
+            if ((zigzag & ~0x7F) == 0) {
+                bytes[length++] = (byte) zigzag; // The usual case, a difference from -64 to 63
+            } else {
+                putVarint(zigzag & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    /**
+     * Creates the file, writes its header and starts the writer thread.
+     *
+     * @param file   The file to write.
+     * @param width  The width of the arena being recorded.
+     * @param height The height of the arena being recorded.
+     * @throws IOException If the file cannot be created.
+     */
+    public TelemetryWriter(Path file, double width, double height) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(TelemetryFile.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(TelemetryFile.MAGIC);
+        header.putShort(TelemetryFile.VERSION);
+        header.putShort((short) TelemetryFile.COLUMNS);
+        header.putInt(TelemetryFile.POSITION_SCALE);
+        header.putInt(TelemetryFile.DIRECTION_SCALE);
+        header.putInt(CHUNK_TICKS);
+        header.putDouble(width);
+        header.putDouble(height);
+        try {
+            writeFully(header.flip());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        position = TelemetryFile.HEADER_SIZE;
+
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = new Column();
+        }
+        for (int f = 0; f < FRAMES; f++) {
+            free.add(new RobotFrame());
+        }
+        thread = new Thread(this::writeLoop, "Telemetry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Copies the state of every robot in the arena for the writer thread. Must be called on
+     * the thread running the engine, between steps. Never waits: if every frame is still
+     * waiting to be written, the tick is dropped.
+     *
+     * @param tick  The engine's tick count.
+     * @param arena The arena.
+     * @return False if the tick was dropped.
+     */
+    public boolean capture(long tick, RobotArena arena) {
+        RobotFrame frame = closed ? null : free.poll();
+        if (frame == null) {
+            dropped++;
+            return false;
+        }
+        frame.capture(tick, arena);
+        full.add(frame); // Never full: it has room for every frame and END
+        return true;
+    }
+
+    /**
+     * Writes the ticks still waiting, finishes the file with its chunk index and stops the
+     * writer thread, waiting until it is done.
+     *
+     * @throws IOException If the file could not be written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            full.add(END);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Returns how many ticks have been written to the file so far.
+     *
+     * @return The number of ticks written.
+     */
+    public long getWrittenTicks() {
+        return written;
+    }
+
+    /**
+     * Returns how many ticks were dropped because the writer was behind. Only read this on
+     * the thread calling capture.
+     *
+     * @return The number of ticks dropped.
+     */
+    public long getDroppedTicks() {
+        return dropped;
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                RobotFrame frame = full.take();
+                if (frame == END) break;
+                if (failure == null) {
+                    encode(frame);
+                }
+                free.add(frame);
+            }
+            if (failure == null) {
+                writeChunk();
+                writeIndex();
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            failure = new IOException("Telemetry writer interrupted", e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+    }
+
+    /**
+     * Adds a tick to the chunk being built, starting a new chunk when it is full.
+     */
+    private void encode(RobotFrame frame) throws IOException {
+        if (chunkTicks == CHUNK_TICKS || chunkBytes() > MAX_CHUNK_BYTES) {
+            writeChunk();
+        }
+        if (chunkTicks == 0) {
+            chunkFirstTick = frame.tick;
+            lastTick = frame.tick;
+            previousCount = 0;
+        }
+        int count = frame.count;
+        if (previousIds.length < count) {
+            int capacity = count + count / 4;
+            previousIds = Arrays.copyOf(previousIds, capacity);
+            previousTags = Arrays.copyOf(previousTags, capacity);
+            previousX = Arrays.copyOf(previousX, capacity);
+            previousY = Arrays.copyOf(previousY, capacity);
+            previousDirection = Arrays.copyOf(previousDirection, capacity);
+        }
+        // Rows the last tick did not have are stored from 0, as the reader expects
+        if (count > previousCount) {
+            Arrays.fill(previousIds, previousCount, count, 0);
+            Arrays.fill(previousTags, previousCount, count, (byte) 0);
+            Arrays.fill(previousX, previousCount, count, 0);
+            Arrays.fill(previousY, previousCount, count, 0);
+            Arrays.fill(previousDirection, previousCount, count, 0);
+        }
+
+        // The most each column can grow by: a 10-byte varint, or 5 bytes per int, and the ids' two run lengths
+        for (Column column : columns) {
+            column.reserve(10 + 5L * count);
+        }
+        columns[TelemetryFile.IDS].reserve(10L * count);
+        columns[TelemetryFile.TICKS].putVarint(frame.tick - lastTick);
+        columns[TelemetryFile.COUNTS].putVarint(count);
+
+        // Ids in runs of rows holding the same robot as before and of rows that changed, which store their tags too
+        frame.resolveIds();
+        int[] frameIds = frame.ids;
+        Column ids = columns[TelemetryFile.IDS], tags = columns[TelemetryFile.TAGS];
+        for (int i = 0; i < count; ) {
+            int same = i;
+            while (same < count && same < previousCount && frameIds[same] == previousIds[same]) same++;
+            int changed = same;
+            while (changed < count && (changed >= previousCount || frameIds[changed] != previousIds[changed])) changed++;
+            ids.putVarint(same - i);
+            ids.putVarint(changed - same);
+            for (int r = same; r < changed; r++) {
+                ids.putSigned(frameIds[r] - previousIds[r]);
+                tags.putSigned(frame.tags[r] - previousTags[r]);
+                previousIds[r] = frameIds[r];
+                previousTags[r] = frame.tags[r];
+            }
+            i = changed;
+        }
+
+        Column xs = columns[TelemetryFile.X], ys = columns[TelemetryFile.Y];
+        Column directions = columns[TelemetryFile.DIRECTION];
+        for (int i = 0; i < count; i++) {
+            int x = (int) Math.round(frame.x[i] * TelemetryFile.POSITION_SCALE);
+            int y = (int) Math.round(frame.y[i] * TelemetryFile.POSITION_SCALE);
+            int direction = Math.floorMod((int) Math.round(frame.direction[i] * TelemetryFile.DIRECTION_SCALE),
+                                          TelemetryFile.FULL_TURN);
+
+            // Headings wrap, so take the shorter way round
+            int turn = direction - previousDirection[i];
+            if (turn >= TelemetryFile.FULL_TURN / 2) {
+                turn -= TelemetryFile.FULL_TURN;
+            } else if (turn < -TelemetryFile.FULL_TURN / 2) {
+                turn += TelemetryFile.FULL_TURN;
+            }
+
+            xs.putSigned(x - previousX[i]);
+            ys.putSigned(y - previousY[i]);
+            directions.putSigned(turn);
+            previousX[i] = x;
+            previousY[i] = y;
+            previousDirection[i] = direction;
+        }
+        previousCount = count;
+        lastTick = frame.tick;
+        chunkTicks++;
+        chunkRows += count;
+        written++;
+    }
+
+    private long chunkBytes() {
+        long length = 0;
+        for (Column column : columns) {
+            length += column.length;
+        }
+        return length;
+    }
+
+    /**
+     * Writes the chunk built so far, if it has any ticks, and starts an empty one.
+     */
+    private void writeChunk() throws IOException {
+        if (chunkTicks == 0) return;
+        ByteBuffer header = ByteBuffer.allocate(TelemetryFile.CHUNK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(chunkFirstTick);
+        header.putInt(chunkTicks);
+        header.putInt(chunkRows);
+        long length = TelemetryFile.CHUNK_HEADER_SIZE;
+        for (Column column : columns) {
+            header.putInt(column.length);
+            length += column.length;
+        }
+        writeFully(header.flip());
+        for (Column column : columns) {
+            writeFully(ByteBuffer.wrap(column.bytes, 0, column.length));
+            column.length = 0;
+        }
+
+        if (3 * chunkCount == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[3 * chunkCount] = chunkFirstTick;
+        index[3 * chunkCount + 1] = lastTick;
+        index[3 * chunkCount + 2] = position;
+        chunkCount++;
+        position += length;
+        chunkTicks = 0;
+        chunkRows = 0;
+    }
+
+    /**
+     * Writes the chunk index and the trailer pointing at it.
+     */
+    private void writeIndex() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(24 * chunkCount + TelemetryFile.TRAILER_SIZE)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+        for (int c = 0; c < chunkCount; c++) {
+            buffer.putLong(index[3 * c]);
+            buffer.putLong(index[3 * c + 1]);
+            buffer.putLong(index[3 * c + 2]);
+        }
+        buffer.putInt(chunkCount);
+        buffer.putLong(position);
+        buffer.putInt(TelemetryFile.END_MAGIC);
+        writeFully(buffer.flip());
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
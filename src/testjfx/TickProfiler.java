@@ -0,0 +1,233 @@
+package testjfx;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times each phase of a tick and records the timings in latency histograms.
+ * Phases are timed around whole passes or chunks of robots, never per robot, so
+ * profiling barely slows the tick down. While disabled, timing a phase is a single
+ * check of a flag.
+ *
+ * The tick's driver marks where ticks begin and end. Phases timed in parallel
+ * chunks add up the time spent on every thread. Drawing runs on its own thread,
+ * apart from the ticks, so draw times are recorded once per frame through record,
+ * as is the latency of each key press.
+ */
+public class TickProfiler {
+    /**
+     * The timed parts of a tick.
+     */
+    public enum Phase {
+        MOVE("Move"),           // Moving robots and bouncing them off the walls
+        OBSTACLES("Obstacles"), // Indexing the obstacles and running the robots' sensors
+        CONE("Cone"),           // Indexing the robots and removing those in the detection cone
+        COLLIDE("Collide"),     // Finding robots touching each other and bouncing them apart
+        TELEMETRY("Telemetry"), // Copying the robots' state for the telemetry writer
+        SPECTATE("Spectate"),   // Copying the robots' state for the spectator server
+        REPLAY("Replay"),       // Hashing the state for the replay log
+        DRAW("Draw", false),    // Drawing a frame, recorded per frame rather than per tick
+        TICK("Tick"),           // The whole tick, from beginTick to endTick
+        INPUT("Input", false);  // From a key press to the first frame showing the robot moved
+
+        private final String label;     // Name shown in the overlay and the CSV file
+        private final boolean perTick;  // Whether the phase is part of every tick, rather than recorded apart
+
+        Phase(String label) {
+            this(label, true);
+        }
+
+        Phase(String label, boolean perTick) {
+            this.label = label;
+            this.perTick = perTick;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    public static final long INPUT_BUDGET = 50_000_000L; // Most nanoseconds a key press should take to show
+
+    private volatile boolean enabled = false;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[PHASES.length]; // Nanoseconds per tick
+    private final LatencyHistogram allocation = new LatencyHistogram();                 // Bytes per tick
+    private final AtomicLongArray current = new AtomicLongArray(PHASES.length);        // This tick's time per phase
+    private final com.sun.management.ThreadMXBean allocationBean; // Null when allocations cannot be measured
+    private long tickStart;        // When the current tick began
+    private long allocatedAtStart; // Bytes the driving thread had allocated when it began
+
+    public TickProfiler() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean sunBean && sunBean.isThreadAllocatedMemorySupported()) {
+            allocationBean = sunBean;
+        } else {
+            allocationBean = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turns profiling on or off. Turning it on starts the histograms afresh.
+     *
+     * @param enabled Whether to profile.
+     */
+    public void setEnabled(boolean enabled) {
+        if (enabled && !this.enabled) {
+            reset();
+            if (allocationBean != null) {
+                allocationBean.setThreadAllocatedMemoryEnabled(true);
+            }
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts timing a phase.
+     *
+     * @return The start time to pass to stop, or 0 when disabled.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Adds the time since start to a phase of the current tick. Safe to call from several threads.
+     *
+     * @param phase The phase.
+     * @param start The time returned by start.
+     * @return The current time, so the next phase can start where this one stopped, or 0 when disabled.
+     */
+    public long stop(Phase phase, long start) {
+        if (!enabled) return 0;
+        long now = System.nanoTime();
+        current.addAndGet(phase.ordinal(), now - start);
+        return now;
+    }
+
+    /**
+     * Marks the start of a tick, on the thread driving the tick.
+     */
+    public void beginTick() {
+        if (!enabled) return;
+        for (int i = 0; i < PHASES.length; i++) {
+            current.set(i, 0);
+        }
+        if (allocationBean != null) {
+            allocatedAtStart = allocationBean.getCurrentThreadAllocatedBytes();
+        }
+        tickStart = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a tick and records its timings, on the thread that began it.
+     * Allocations are counted on that thread only.
+     */
+    public void endTick() {
+        if (!enabled) return;
+        current.set(Phase.TICK.ordinal(), System.nanoTime() - tickStart);
+        synchronized (this) {
+            for (int i = 0; i < PHASES.length; i++) {
+                if (PHASES[i].perTick) {
+                    histograms[i].record(current.get(i));
+                }
+            }
+            if (allocationBean != null) {
+                allocation.record(allocationBean.getCurrentThreadAllocatedBytes() - allocatedAtStart);
+            }
+        }
+    }
+
+    /**
+     * Records a phase timed outside the ticks, e.g. drawing a frame on the JavaFX thread.
+     *
+     * @param phase The phase.
+     * @param nanos How long it took.
+     */
+    public void record(Phase phase, long nanos) {
+        if (!enabled) return;
+        synchronized (this) {
+            histograms[phase.ordinal()].record(nanos);
+        }
+    }
+
+    /**
+     * Forgets every tick recorded so far.
+     */
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+        allocation.reset();
+    }
+
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    public LatencyHistogram getAllocation() {
+        return allocation;
+    }
+
+    /**
+     * Summarises the timings for the performance overlay, one line per phase.
+     *
+     * @return The summary.
+     */
+    public synchronized String summary() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format(Locale.ROOT, "%d ticks (ms)  p50  p99  max%n", histograms[0].getCount()));
+        for (Phase phase : PHASES) {
+            LatencyHistogram histogram = histograms[phase.ordinal()];
+            text.append(String.format(Locale.ROOT, "%-9s %5.2f %5.2f %5.2f%n", phase,
+                    histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(99) / 1e6,
+                    histogram.getMax() / 1e6));
+        }
+        LatencyHistogram input = histograms[Phase.INPUT.ordinal()];
+        text.append(String.format(Locale.ROOT, "Input over %d ms: %d of %d%n", INPUT_BUDGET / 1_000_000,
+                input.getCountAbove(INPUT_BUDGET), input.getCount()));
+        if (allocationBean != null) {
+            text.append(String.format(Locale.ROOT, "Alloc KB  %5.1f %5.1f %5.1f", allocation.getValueAtPercentile(50) / 1024.0,
+                    allocation.getValueAtPercentile(99) / 1024.0, allocation.getMax() / 1024.0));
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes the histograms' summary statistics as CSV, one row per phase and one for allocation.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void writeCsv(Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            out.println("metric,unit,ticks,mean,p50,p90,p99,p999,max");
+            for (Phase phase : PHASES) {
+                writeRow(out, phase.toString(), "ns", histograms[phase.ordinal()]);
+            }
+            if (allocationBean != null) {
+                writeRow(out, "Allocation", "bytes", allocation);
+            }
+        }
+    }
+
+    private static void writeRow(PrintWriter out, String metric, String unit, LatencyHistogram histogram) {
+        out.printf(Locale.ROOT, "%s,%s,%d,%.1f,%d,%d,%d,%d,%d%n", metric, unit, histogram.getCount(),
+                histogram.getMean(), histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(90),
+                histogram.getValueAtPercentile(99), histogram.getValueAtPercentile(99.9), histogram.getMax());
+    }
+}
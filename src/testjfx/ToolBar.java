@@ -1,16 +1,21 @@
 package testjfx;
 
 import javax.swing.*;
+import javafx.application.Platform;
 import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
 import javafx.stage.*;
-import java.io.*;
-import java.util.concurrent.ThreadLocalRandom;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
 
 /**
  * Provides user controls for interacting with the robot arena.
  */
 public class ToolBar {
+    private static final double[] TIME_SCALES = {0.25, 0.5, 1, 2, 5, 10, 25, 50, 100}; // Speeds offered
+
     private final HBox panel;
     private final MenuBar menu;
 
@@ -23,10 +28,6 @@ public class ToolBar {
      */
     public ToolBar(Stage primaryStage, ArenaCanvas arenaCanvas, InformationPanel infoPanel) {
 
-        // Add two initial bump robots to the arena
-        arenaCanvas.addRobot(new RegularRobot(getRandomX(), getRandomY()));
-        arenaCanvas.addRobot(new RegularRobot(getRandomX(), getRandomY()));
-
         // Buttons
         Button startButton = new Button("Start");
         Button pauseButton = new Button("Pause");
@@ -35,6 +36,17 @@ public class ToolBar {
         Button resetButton = new Button("New Arena");
         Button quitButton = new Button("Quit");
         Button aboutButton = new Button("About&Help");
+        Button spawnButton = new Button("Spawn Robots");
+        TextField spawnCountField = new TextField("100000");
+        ChoiceBox<Population.Distribution> distributionChoice = new ChoiceBox<>();
+        spawnCountField.setPrefColumnCount(7);
+        distributionChoice.getItems().addAll(Population.Distribution.values());
+        distributionChoice.setValue(Population.Distribution.UNIFORM);
+        ChoiceBox<String> speedChoice = new ChoiceBox<>();
+        for (double scale : TIME_SCALES) {
+            speedChoice.getItems().add(speedLabel(scale));
+        }
+        speedChoice.setValue(speedLabel(1));
 
         // Apply custom style to buttons
         String buttonStyle = "-fx-background-color: #4CAF50; -fx-text-fill: white; -fx-font-size: 14px; -fx-padding: 10px; -fx-border-radius: 5px; -fx-background-radius: 5px;";
@@ -45,6 +57,7 @@ public class ToolBar {
         resetButton.setStyle(buttonStyle);
         aboutButton.setStyle(buttonStyle);
         quitButton.setStyle(buttonStyle);
+        spawnButton.setStyle(buttonStyle);
 
         // Button Actions
         startButton.setOnAction(e -> {
@@ -68,12 +81,39 @@ public class ToolBar {
         });
 
         resetButton.setOnAction(e -> {
-            arenaCanvas.setArena(new RobotArena());  // Clear the arena and set a new RobotArena
-            arenaCanvas.addRobot(new RegularRobot(getRandomX(), getRandomY())); // Add initial robots
-            arenaCanvas.addRobot(new RegularRobot(getRandomX(), getRandomY()));
+            arenaCanvas.resetArena();  // Clear the arena and add the initial robots
             infoPanel.updateInfo("Arena reset to initial state.");
         });
 
+        spawnButton.setOnAction(e -> {
+            int count;
+            try {
+                count = Integer.parseInt(spawnCountField.getText().trim().replace(",", ""));
+            } catch (NumberFormatException ex) {
+                count = -1;
+            }
+            if (count <= 0) {
+                infoPanel.updateInfo("Enter how many robots to spawn.");
+                return;
+            }
+            int spawnCount = count;
+            Population.Distribution distribution = distributionChoice.getValue();
+            long seed = new SplittableRandom().nextLong();
+            arenaCanvas.execute(engine -> {
+                long start = System.nanoTime();
+                engine.spawnRobots(RobotType.values(), spawnCount, distribution, seed, true);
+                long millis = (System.nanoTime() - start) / 1_000_000;
+                Platform.runLater(() -> infoPanel.updateInfo(
+                        "Spawned " + spawnCount + " robots (" + distribution + ") in " + millis + " ms."));
+            });
+        });
+
+        speedChoice.setOnAction(e -> {
+            String label = speedChoice.getValue();
+            arenaCanvas.setTimeScale(Double.parseDouble(label.substring(0, label.length() - 1)));
+            infoPanel.updateInfo("Simulation speed " + label + ".");
+        });
+
         quitButton.setOnAction(e -> System.exit(0)); // Quit the application
 
         aboutButton.setOnAction(e -> {
@@ -85,7 +125,8 @@ public class ToolBar {
                     Features:
                     - Add various types of robots (Regular Robot, Whisker Robot, Ghost Robot).
                     - Place and remove obstacles dynamically.
-                    - Control a user-controlled robot with WASD keys.
+                    - Spawn thousands of robots at once, spread uniformly, in clusters or on a grid.
+                    - Drive a user-controlled robot by holding the WASD keys; keys held together combine.
                     - Simulate robot movements and interactions in real-time.
 
                     Enjoy experimenting with the arena!
@@ -94,19 +135,24 @@ public class ToolBar {
         });
 
         // Assemble panel with buttons
-        HBox buttonPanel = new HBox(10, startButton, pauseButton, addObstacleButton, deleteObstacleButton, resetButton, aboutButton, quitButton);
+        HBox buttonPanel = new HBox(10, startButton, pauseButton, speedChoice, addObstacleButton, deleteObstacleButton, resetButton,
+                                    spawnCountField, distributionChoice, spawnButton, aboutButton, quitButton);
         buttonPanel.setStyle("-fx-background-color: #4CAF50; -fx-text-fill: white; -fx-font-size: 14px; -fx-padding: 10px; -fx-border-radius: 5px; -fx-background-radius: 5px;");
 
         // File Menu
         Menu fileMenu = new Menu("File");
         MenuItem saveOption = new MenuItem("Save");
         MenuItem loadOption = new MenuItem("Load");
+        MenuItem saveReplayOption = new MenuItem("Save Replay");
+        MenuItem verifyReplayOption = new MenuItem("Verify Replay");
         MenuItem quitOption = new MenuItem("Quit");
 
         saveOption.setOnAction(e -> saveArenaState(arenaCanvas));
         loadOption.setOnAction(e -> loadArenaState(arenaCanvas));
+        saveReplayOption.setOnAction(e -> saveReplay(arenaCanvas, infoPanel));
+        verifyReplayOption.setOnAction(e -> verifyReplay(infoPanel));
         quitOption.setOnAction(e -> primaryStage.close()); // Close the application
-        fileMenu.getItems().addAll(saveOption, loadOption, quitOption);
+        fileMenu.getItems().addAll(saveOption, loadOption, saveReplayOption, verifyReplayOption, quitOption);
 
         // Robot Menu
         Menu robotMenu = new Menu("Select Robot");
@@ -114,13 +160,48 @@ public class ToolBar {
         MenuItem whiskerRobot = new MenuItem("Whisker Robot");
         MenuItem ghostRobot = new MenuItem("Ghost Robot");
 
-        bumpRobot.setOnAction(e -> arenaCanvas.addRobot(new RegularRobot(getRandomX(), getRandomY())));
-        whiskerRobot.setOnAction(e -> arenaCanvas.addRobot(new WhiskerRobot(getRandomX(), getRandomY())));
-        ghostRobot.setOnAction(e -> arenaCanvas.addRobot(new GhostRobot(getRandomX(), getRandomY())));
+        bumpRobot.setOnAction(e -> arenaCanvas.addRobot(RobotType.REGULAR));
+        whiskerRobot.setOnAction(e -> arenaCanvas.addRobot(RobotType.WHISKER));
+        ghostRobot.setOnAction(e -> arenaCanvas.addRobot(RobotType.GHOST));
         robotMenu.getItems().addAll(bumpRobot, whiskerRobot, ghostRobot);
 
+        // Simulation Menu
+        Menu simulationMenu = new Menu("Simulation");
+        CheckMenuItem parallelOption = new CheckMenuItem("Parallel Tick");
+        CheckMenuItem collisionOption = new CheckMenuItem("Robot Collisions");
+        CheckMenuItem profileOption = new CheckMenuItem("Performance Overlay");
+        MenuItem saveProfileOption = new MenuItem("Save Performance CSV");
+        CheckMenuItem telemetryOption = new CheckMenuItem("Record Telemetry");
+
+        parallelOption.setOnAction(e -> {
+            int threads = parallelOption.isSelected() ? Runtime.getRuntime().availableProcessors() : 1;
+            arenaCanvas.execute(engine -> engine.setParallelism(threads));
+            infoPanel.updateInfo("Simulating on " + threads + " thread(s).");
+        });
+        collisionOption.setOnAction(e -> {
+            boolean enabled = collisionOption.isSelected();
+            arenaCanvas.execute(engine -> engine.setRobotCollisions(enabled));
+            infoPanel.updateInfo(enabled ? "Robots now bump into each other." : "Robots now pass through each other.");
+        });
+        profileOption.setOnAction(e -> {
+            arenaCanvas.setProfiling(profileOption.isSelected(), infoPanel::updateStats);
+            if (!profileOption.isSelected()) {
+                infoPanel.updateStats("");
+            }
+        });
+        saveProfileOption.setOnAction(e -> saveProfile(arenaCanvas, infoPanel));
+        telemetryOption.setOnAction(e -> {
+            if (telemetryOption.isSelected()) {
+                telemetryOption.setSelected(startTelemetry(arenaCanvas, infoPanel));
+            } else {
+                stopTelemetry(arenaCanvas, infoPanel);
+            }
+        });
+        simulationMenu.getItems().addAll(parallelOption, collisionOption, profileOption, saveProfileOption,
+                                         telemetryOption);
+
         // Initialise MenuBar
-        menu = new MenuBar(fileMenu, robotMenu);
+        menu = new MenuBar(fileMenu, robotMenu, simulationMenu);
         menu.setStyle("-fx-background-color: #4CAF50; -fx-text-fill: white;");
 
         // Assemble final tool bar with both button and menu bar
@@ -141,53 +222,191 @@ public class ToolBar {
         return panel;
     }
 
-    private int getRandomX() {
-        return ThreadLocalRandom.current().nextInt(0, 650);
-    }
-
-    private int getRandomY() {
-        return ThreadLocalRandom.current().nextInt(0, 550);
+    private static String speedLabel(double scale) {
+        return (scale == Math.rint(scale) ? String.valueOf((int) scale) : String.valueOf(scale)) + "x";
     }
 
     private void saveArenaState(ArenaCanvas arenaCanvas) {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setDialogTitle("Save Arena State");
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Arena Files", "arena"));
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Arena Files", ArenaFile.EXTENSION));
         int userChoice = fileChooser.showSaveDialog(null);
 
+        if (userChoice == JFileChooser.APPROVE_OPTION) {
+            File chosen = fileChooser.getSelectedFile();
+            File file = chosen.getName().endsWith("." + ArenaFile.EXTENSION)
+                        ? chosen : new File(chosen.getAbsolutePath() + "." + ArenaFile.EXTENSION);
+
+            // Write the arena between steps, on the thread that owns it
+            arenaCanvas.execute(engine -> {
+                try {
+                    ArenaFile.write(engine.getArena(), file.toPath());
+                    System.out.println("Arena saved to: " + file.getAbsolutePath());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    private void loadArenaState(ArenaCanvas arenaCanvas) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Load Arena State");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Arena Files", ArenaFile.EXTENSION));
+        int userChoice = fileChooser.showOpenDialog(null);
+
         if (userChoice == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
-            if (!file.getName().endsWith(".arena")) {
-                file = new File(file.getAbsolutePath() + ".arena");
-            }
 
-            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-                oos.writeObject(arenaCanvas.getArena());
-                System.out.println("Arena saved to: " + file.getAbsolutePath());
+            try {
+                RobotArena arena = ArenaFile.read(file.toPath());
+                arenaCanvas.setArena(arena); // Redrawn once the simulation thread has swapped it in
+                System.out.println("Arena loaded from: " + file.getAbsolutePath());
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
 
-    private void loadArenaState(ArenaCanvas arenaCanvas) {
+    private void saveReplay(ArenaCanvas arenaCanvas, InformationPanel infoPanel) {
         JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setDialogTitle("Load Arena State");
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Arena Files", "arena"));
-        int userChoice = fileChooser.showOpenDialog(null);
+        fileChooser.setDialogTitle("Save Replay");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Replay Files", ReplayLog.EXTENSION));
+        int userChoice = fileChooser.showSaveDialog(null);
+
+        if (userChoice == JFileChooser.APPROVE_OPTION) {
+            File chosen = fileChooser.getSelectedFile();
+            File file = chosen.getName().endsWith("." + ReplayLog.EXTENSION)
+                        ? chosen : new File(chosen.getAbsolutePath() + "." + ReplayLog.EXTENSION);
+
+            // The log grows every step, so save it between steps, on the simulation thread
+            arenaCanvas.execute(engine -> {
+                ReplayLog replayLog = engine.getReplayLog();
+                if (replayLog == null) {
+                    Platform.runLater(() -> infoPanel.updateInfo("No replay: a loaded arena cannot be replayed."));
+                    return;
+                }
+                try {
+                    replayLog.save(file.toPath());
+                    long ticks = replayLog.getTickCount();
+                    Platform.runLater(() -> infoPanel.updateInfo("Replay saved (" + ticks + " ticks)."));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+    }
+
+    private void saveProfile(ArenaCanvas arenaCanvas, InformationPanel infoPanel) {
+        TickProfiler profiler = arenaCanvas.getProfiler();
+        if (profiler.getHistogram(TickProfiler.Phase.TICK).getCount() == 0) {
+            infoPanel.updateInfo("No timings: turn on the performance overlay first.");
+            return;
+        }
+
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Save Performance CSV");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("CSV Files", "csv"));
+        int userChoice = fileChooser.showSaveDialog(null);
 
         if (userChoice == JFileChooser.APPROVE_OPTION) {
             File file = fileChooser.getSelectedFile();
+            if (!file.getName().endsWith(".csv")) {
+                file = new File(file.getAbsolutePath() + ".csv");
+            }
 
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                RobotArena arena = (RobotArena) ois.readObject();
-                arenaCanvas.setArena(arena);
-                arenaCanvas.drawArena();
-                System.out.println("Arena loaded from: " + file.getAbsolutePath());
-            } catch (IOException | ClassNotFoundException e) {
+            try {
+                profiler.writeCsv(file.toPath());
+                infoPanel.updateInfo("Timings saved to " + file.getName() + ".");
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
     }
-}
 
+    /**
+     * Asks for a file and starts recording telemetry to it.
+     *
+     * @return False if no file was chosen.
+     */
+    private boolean startTelemetry(ArenaCanvas arenaCanvas, InformationPanel infoPanel) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Record Telemetry");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Telemetry Files",
+                                                                                     TelemetryFile.EXTENSION));
+        int userChoice = fileChooser.showSaveDialog(null);
+        if (userChoice != JFileChooser.APPROVE_OPTION) {
+            return false;
+        }
+        File chosen = fileChooser.getSelectedFile();
+        File file = chosen.getName().endsWith("." + TelemetryFile.EXTENSION)
+                    ? chosen : new File(chosen.getAbsolutePath() + "." + TelemetryFile.EXTENSION);
+
+        // Start between steps, on the simulation thread, so the first tick recorded is a whole one
+        arenaCanvas.execute(engine -> {
+            try {
+                engine.setTelemetry(new TelemetryWriter(file.toPath(), engine.getArena().getWidth(),
+                                                        engine.getArena().getHeight()));
+                Platform.runLater(() -> infoPanel.updateInfo("Recording telemetry to " + file.getName() + "."));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        return true;
+    }
+
+    private void stopTelemetry(ArenaCanvas arenaCanvas, InformationPanel infoPanel) {
+        arenaCanvas.execute(engine -> {
+            TelemetryWriter telemetry = engine.getTelemetry();
+            if (telemetry == null) return;
+            engine.setTelemetry(null);
+            long dropped = telemetry.getDroppedTicks();
+
+            // Finishing the file waits for the writer, so leave that to a thread of its own
+            Thread closer = new Thread(() -> {
+                try {
+                    telemetry.close();
+                    long written = telemetry.getWrittenTicks();
+                    Platform.runLater(() -> infoPanel.updateInfo("Telemetry saved (" + written + " ticks, "
+                                                                 + dropped + " dropped)."));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }, "Telemetry close");
+            closer.setDaemon(true);
+            closer.start();
+        });
+    }
+
+    private void verifyReplay(InformationPanel infoPanel) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Verify Replay");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Replay Files", ReplayLog.EXTENSION));
+        int userChoice = fileChooser.showOpenDialog(null);
+
+        if (userChoice == JFileChooser.APPROVE_OPTION) {
+            Path file = fileChooser.getSelectedFile().toPath();
+            infoPanel.updateInfo("Verifying replay...");
+
+            // Re-simulating a long session takes a while, so keep it off the JavaFX thread
+            Thread verifier = new Thread(() -> {
+                String result;
+                try {
+                    ReplayLog replayLog = ReplayLog.load(file);
+                    long divergedAt = replayLog.verify(); // Re-simulate headless at full speed
+                    if (divergedAt < 0) {
+                        result = "Replay matched all " + replayLog.getTickCount() + " ticks.";
+                    } else {
+                        result = "Replay diverged at tick " + divergedAt + ".";
+                    }
+                } catch (IOException e) {
+                    result = "Cannot verify replay: " + e.getMessage();
+                }
+                String info = result;
+                Platform.runLater(() -> infoPanel.updateInfo(info));
+            }, "Replay verify");
+            verifier.setDaemon(true);
+            verifier.start();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package testjfx;
+
+import java.util.Arrays;
+
+/**
+ * Robot indices grouped by type within fixed-size chunks of the robots, so a chunk can
+ * run each type's robots through that type's stage in one tight loop while its robots'
+ * data is still in cache. Within a chunk the groups follow the type tags' order, and each
+ * group lists its robots in index order. Robots without a type are left out.
+ *
+ * Robots never change type, so the groups only need rebuilding when robots are added or removed.
+ */
+final class TypeGroups {
+    static final byte NO_TYPE = -1; // Tag of a robot that belongs to no group
+
+    private static final int TYPES = RobotType.values().length;
+
+    private int[] members = new int[0]; // Robot indices, grouped by chunk and then by type
+    private int[] starts = new int[1];  // Start of each chunk's type's group in members, then the end
+    private int chunkSize = 1;
+
+    /**
+     * Regroups the robots.
+     *
+     * @param tags      Each robot's RobotType tag, or NO_TYPE.
+     * @param count     The number of robots.
+     * @param chunkSize The number of robots per chunk.
+     */
+    void rebuild(byte[] tags, int count, int chunkSize) {
+        this.chunkSize = chunkSize;
+        int chunks = (count + chunkSize - 1) / chunkSize;
+        if (members.length < count) {
+            members = new int[count + count / 4];
+        }
+        if (starts.length < chunks * TYPES + 1) {
+            starts = new int[chunks * TYPES + 1];
+        }
+
+        // Counting sort by (chunk, type), which keeps index order within each group
+        Arrays.fill(starts, 0, chunks * TYPES + 1, 0);
+        for (int i = 0; i < count; i++) {
+            if (tags[i] != NO_TYPE) {
+                starts[(i / chunkSize) * TYPES + tags[i] + 1]++;
+            }
+        }
+        for (int g = 0; g < chunks * TYPES; g++) {
+            starts[g + 1] += starts[g];
+        }
+        for (int i = 0; i < count; i++) {
+            if (tags[i] != NO_TYPE) {
+                members[starts[(i / chunkSize) * TYPES + tags[i]]++] = i;
+            }
+        }
+        // The cursors now hold the end offsets, shift them back to start offsets
+        System.arraycopy(starts, 0, starts, 1, chunks * TYPES);
+        starts[0] = 0;
+    }
+
+    /**
+     * Returns the grouped robot indices; a group is the range from start to end.
+     *
+     * @return The members of every group.
+     */
+    int[] members() {
+        return members;
+    }
+
+    /**
+     * Returns where a group starts in members().
+     *
+     * @param from The first robot index of the chunk, a multiple of the chunk size.
+     * @param type The robot type.
+     * @return The position of the group's first member.
+     */
+    int start(int from, RobotType type) {
+        return starts[(from / chunkSize) * TYPES + type.tag()];
+    }
+
+    /**
+     * Returns where a group ends in members().
+     *
+     * @param from The first robot index of the chunk, a multiple of the chunk size.
+     * @param type The robot type.
+     * @return One past the position of the group's last member.
+     */
+    int end(int from, RobotType type) {
+        return starts[(from / chunkSize) * TYPES + type.tag() + 1];
+    }
+}
@@ -4,16 +4,34 @@ import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.paint.Color;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * The robot steered by the user, which removes other robots caught in its detection cone.
+ * The engine tracks which of W, A, S and D are held and steers the robot by them once
+ * per step, at a set speed and turn rate, so held keys move it smoothly and keys held
+ * together combine, e.g. W and D drive forward while turning right.
+ */
 class UserControlledRobot extends Robot {
+    static final double DEFAULT_MOVE_SPEED = 5; // Pixels per tick while W or S is held
+    static final double DEFAULT_TURN_RATE = 4;  // Degrees per tick while A or D is held
 
     private static final double DETECTION_CONE_ANGLE = 60; // Cone angle in degrees
-    private static final double DETECTION_CONE_RANGE = 120; // Detection range
+    static final double DETECTION_CONE_RANGE = 120; // Detection range
+    private static final double CONE_EDGE_COS = Math.cos(Math.toRadians(DETECTION_CONE_ANGLE / 2));
+    private static final double CONE_EDGE_SIN = Math.sin(Math.toRadians(DETECTION_CONE_ANGLE / 2));
 
-    // Constructor that sets the initial position and direction
+    private int[] hits = new int[16]; // Robot grid indices found in the cone this tick
+    private int hitCount = 0;
+
+    private boolean forward, backward, left, right; // Which control keys are held
+    private double moveSpeed = DEFAULT_MOVE_SPEED;
+    private double turnRate = DEFAULT_TURN_RATE;
+
+    // Constructor that sets the initial position, facing right
     public UserControlledRobot(double x, double y) {
-        super(x, y);
+        super(x, y, 0);
     }
 
     @Override
@@ -28,6 +46,11 @@ class UserControlledRobot extends Robot {
         drawDetectionCone(graphics);
     }
 
+    @Override
+    public double drawRadius() {
+        return DETECTION_CONE_RANGE + 1; // The detection cone reaches furthest
+    }
+
     /**
      * Draws the detection cone in front of the robot.
      *
@@ -38,15 +61,18 @@ class UserControlledRobot extends Robot {
         graphics.beginPath();
         graphics.moveTo(x, y);
 
+        // The edges are the heading rotated half the cone angle either way
+        updateHeading();
+        double forward = DETECTION_CONE_RANGE * CONE_EDGE_COS;
+        double sideways = DETECTION_CONE_RANGE * CONE_EDGE_SIN;
+
         // Left edge of the cone
-        double leftAngle = Math.toRadians(direction - DETECTION_CONE_ANGLE / 2);
-        double leftX = x + DETECTION_CONE_RANGE * Math.cos(leftAngle);
-        double leftY = y + DETECTION_CONE_RANGE * Math.sin(leftAngle);
+        double leftX = x + forward * headingX + sideways * headingY;
+        double leftY = y + forward * headingY - sideways * headingX;
 
         // Right edge of the cone
-        double rightAngle = Math.toRadians(direction + DETECTION_CONE_ANGLE / 2);
-        double rightX = x + DETECTION_CONE_RANGE * Math.cos(rightAngle);
-        double rightY = y + DETECTION_CONE_RANGE * Math.sin(rightAngle);
+        double rightX = x + forward * headingX - sideways * headingY;
+        double rightY = y + forward * headingY + sideways * headingX;
 
         // Draw the cone
         graphics.lineTo(leftX, leftY);
@@ -57,61 +83,191 @@ class UserControlledRobot extends Robot {
 
     // Handle user input to move the robot
     public void handleKeyInput(KeyEvent event) {
-        if (event.getCode() == KeyCode.W) {
+        handleKeyInput(event.getCode());
+    }
+
+    /**
+     * Moves or turns the robot a fixed amount for one key press. Steering by held keys
+     * replaced this; it is kept to replay logs recorded before that.
+     *
+     * @param code The key pressed.
+     */
+    public void handleKeyInput(KeyCode code) {
+        if (code == KeyCode.W) {
             moveForward();  // Move the robot forward
-        } else if (event.getCode() == KeyCode.A) {
+        } else if (code == KeyCode.A) {
             turnLeft();  // Turn the robot to the left
-        } else if (event.getCode() == KeyCode.S) {
+        } else if (code == KeyCode.S) {
             moveBackward();  // Move the robot backward
-        } else if (event.getCode() == KeyCode.D) {
+        } else if (code == KeyCode.D) {
             turnRight();  // Turn the robot to the right
         }
     }
 
+    /**
+     * Tells whether a key steers the robot.
+     *
+     * @param code The key.
+     * @return True for W, A, S and D.
+     */
+    public static boolean isControlKey(KeyCode code) {
+        return code == KeyCode.W || code == KeyCode.A || code == KeyCode.S || code == KeyCode.D;
+    }
+
+    /**
+     * Records a control key being pressed or released. Other keys are ignored.
+     *
+     * @param code    The key.
+     * @param pressed True when pressed, false when released.
+     */
+    public void setKeyPressed(KeyCode code, boolean pressed) {
+        switch (code) {
+            case W -> forward = pressed;
+            case S -> backward = pressed;
+            case A -> left = pressed;
+            case D -> right = pressed;
+            default -> { }
+        }
+    }
+
+    /**
+     * Sets how fast the held keys move and turn the robot.
+     *
+     * @param moveSpeed The speed in pixels per tick.
+     * @param turnRate  The turn rate in degrees per tick.
+     */
+    public void setControlRates(double moveSpeed, double turnRate) {
+        this.moveSpeed = moveSpeed;
+        this.turnRate = turnRate;
+    }
+
+    public double getMoveSpeed() {
+        return moveSpeed;
+    }
+
+    public double getTurnRate() {
+        return turnRate;
+    }
+
+    /**
+     * Steers the robot by the keys held for one step: turns first, then moves along the new
+     * heading. Opposite keys held together cancel out.
+     *
+     * @param dt The length of the step in ticks.
+     * @return True if the robot moved or turned.
+     */
+    public boolean steer(double dt) {
+        previousX = x;
+        previousY = y;
+        int turn = (right ? 1 : 0) - (left ? 1 : 0);
+        int drive = (forward ? 1 : 0) - (backward ? 1 : 0);
+        if (turn != 0) {
+            direction = (direction + turn * turnRate * dt) % 360;
+            if (direction < 0) {
+                direction += 360;  // Wrap around if necessary
+            }
+        }
+        if (drive != 0) {
+            updateHeading();
+            x += drive * moveSpeed * dt * headingX;
+            y += drive * moveSpeed * dt * headingY;
+        }
+        return turn != 0 || drive != 0;
+    }
+
     /**
      * Checks if other robots are within the detection cone and removes them.
+     * Obstacles in the cone are left alone.
      *
-     * @param robots The list of robots to check.
+     * @param robots The list of items to check.
      */
     public void detectAndRemoveRobots(List<ArenaItem> robots) {
-        robots.removeIf(this::isInDetectionCone);
+        updateHeading();
+        robots.removeIf(item -> item instanceof Robot && isInDetectionCone(item.getX(), item.getY()));
     }
 
     /**
-     * Determines if a robot is within the detection cone.
+     * Removes the robots within the detection cone, both robot items and compact robots.
+     * Candidates come from the robot grid cells under the cone's bounding box, so the cost
+     * depends on how many robots are near the cone, not on how many are in the arena.
      *
-     * @param robot The robot to check.
-     * @return True if the robot is within the detection cone, false otherwise.
+     * @param arena The arena, with its robot grid up to date.
+     * @return The number of robots removed.
      */
-    private boolean isInDetectionCone(ArenaItem robot) {
-        // Calculate the distance to the robot
-        double dx = robot.getX() - x;
-        double dy = robot.getY() - y;
-        double distance = Math.sqrt(dx * dx + dy * dy);
+    public int detectAndRemoveRobots(RobotArena arena) {
+        updateHeading();
+        double forward = DETECTION_CONE_RANGE * CONE_EDGE_COS;
+        double sideways = DETECTION_CONE_RANGE * CONE_EDGE_SIN;
+        double leftX = x + forward * headingX + sideways * headingY;
+        double leftY = y + forward * headingY - sideways * headingX;
+        double rightX = x + forward * headingX - sideways * headingY;
+        double rightY = y + forward * headingY + sideways * headingX;
+
+        // Bounding box of the cone: its apex and edge tips, pushed out to the full range
+        // on any side the cone's arc faces
+        double minX = Math.min(x, Math.min(leftX, rightX));
+        double maxX = Math.max(x, Math.max(leftX, rightX));
+        double minY = Math.min(y, Math.min(leftY, rightY));
+        double maxY = Math.max(y, Math.max(leftY, rightY));
+        if (headingX >= CONE_EDGE_COS) maxX = x + DETECTION_CONE_RANGE;
+        if (-headingX >= CONE_EDGE_COS) minX = x - DETECTION_CONE_RANGE;
+        if (headingY >= CONE_EDGE_COS) maxY = y + DETECTION_CONE_RANGE;
+        if (-headingY >= CONE_EDGE_COS) minY = y - DETECTION_CONE_RANGE;
+
+        // The grid may have indexed a robot up to the slack away from where it is now
+        double slack = RobotArena.ROBOT_GRID_SLACK;
+        hitCount = 0;
+        arena.getRobotGrid().forEachInBox(minX - slack, minY - slack, maxX + slack, maxY + slack, i -> {
+            if (isInDetectionCone(arena.getRobotX(i), arena.getRobotY(i))) {
+                if (hitCount == hits.length) {
+                    hits = Arrays.copyOf(hits, hitCount * 2);
+                }
+                hits[hitCount++] = i;
+            }
+        });
+        if (hitCount > 0) {
+            arena.removeRobots(hits, hitCount);
+        }
+        return hitCount;
+    }
+
+    /**
+     * Determines if a position is within the detection cone.
+     * Compares the position's distance along the heading with its distance from the robot,
+     * so needs neither a square root nor an angle. Uses the heading as last updated.
+     *
+     * @param targetX The x-coordinate to check.
+     * @param targetY The y-coordinate to check.
+     * @return True if the position is within the detection cone, false otherwise.
+     */
+    boolean isInDetectionCone(double targetX, double targetY) {
+        double dx = targetX - x;
+        double dy = targetY - y;
+        double distanceSquared = dx * dx + dy * dy;
 
         // Check if within range
-        if (distance > DETECTION_CONE_RANGE) {
+        if (distanceSquared > DETECTION_CONE_RANGE * DETECTION_CONE_RANGE) {
             return false;
         }
 
-        // Calculate the angle to the robot
-        double angleToRobot = Math.toDegrees(Math.atan2(dy, dx));
-        double relativeAngle = (angleToRobot - direction + 360) % 360;
-
-        // Check if within cone angle
-        return relativeAngle >= 360 - DETECTION_CONE_ANGLE / 2 || relativeAngle <= DETECTION_CONE_ANGLE / 2;
+        // Within the cone angle when the angle to the position is at most half the cone angle,
+        // i.e. along >= distance * cos(half angle), with along not negative
+        double along = dx * headingX + dy * headingY;
+        return along >= 0 && along * along >= distanceSquared * CONE_EDGE_COS * CONE_EDGE_COS;
     }
 
     // Move the robot forward
     private void moveForward() {
-        x += 10 * Math.cos(Math.toRadians(direction));  // Move in the direction the robot is facing
-        y += 10 * Math.sin(Math.toRadians(direction));
+        updateHeading();
+        x += 10 * headingX;  // Move in the direction the robot is facing
+        y += 10 * headingY;
     }
 
     // Move the robot backward
     private void moveBackward() {
-        x -= 10 * Math.cos(Math.toRadians(direction));  // Move in the opposite direction
-        y -= 10 * Math.sin(Math.toRadians(direction));
+        updateHeading();
+        x -= 10 * headingX;  // Move in the opposite direction
+        y -= 10 * headingY;
     }
 
     // Turn the robot left (counter-clockwise)
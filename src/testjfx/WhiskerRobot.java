@@ -2,67 +2,211 @@ package testjfx;
 
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
+import java.util.List;
 
 /**
  * Subclass of Robot with whisker sensors.
  */
 class WhiskerRobot extends Robot {
+    static final double WHISKER_LENGTH = 75; // Whisker reach from the robot centre
+    private static final double WHISKER_ANGLE = 30; // Angle of each whisker either side of the heading
+    private static final double WHISKER_COS = Math.cos(Math.toRadians(WHISKER_ANGLE));
+    private static final double WHISKER_SIN = Math.sin(Math.toRadians(WHISKER_ANGLE));
+    private static final double WHISKER_FORWARD = WHISKER_LENGTH * WHISKER_COS;  // Tip distance along the heading
+    private static final double WHISKER_SIDEWAYS = WHISKER_LENGTH * WHISKER_SIN; // Tip distance across the heading
+    static final int LEFT = -1, RIGHT = 1; // Sides of the heading the whiskers point to
 
-    public WhiskerRobot(double x, double y) {
-        super(x, y);
+    public WhiskerRobot(double x, double y, double direction) {
+        super(x, y, direction);
+    }
+
+    @Override
+    public RobotType getType() {
+        return RobotType.WHISKER;
     }
 
     @Override
     public void draw(GraphicsContext gc) {
         super.draw(gc); // Draws the base robot
 
-        // Giving whisker angle of 30 degrees
-        double leftAngle = Math.toRadians(direction - 30);  // Left whisker
-        double rightAngle = Math.toRadians(direction + 30); // Right whisker
-
-        // Giving Whisker Size
-        double leftWhiskerX = x + 75 * Math.cos(leftAngle); // whisker length of 75
-        double leftWhiskerY = y + 75 * Math.sin(leftAngle);
-        double rightWhiskerX = x + 75 * Math.cos(rightAngle);
-        double rightWhiskerY = y + 75 * Math.sin(rightAngle);
+        // Giving whisker angle of 30 degrees, by rotating the heading either way
+        updateHeading();
+        double leftWhiskerX = tipX(x, headingX, headingY, LEFT);
+        double leftWhiskerY = tipY(y, headingX, headingY, LEFT);
+        double rightWhiskerX = tipX(x, headingX, headingY, RIGHT);
+        double rightWhiskerY = tipY(y, headingX, headingY, RIGHT);
 
         // Draws whiskers
         gc.setStroke(Color.LIGHTGREEN);
         gc.setLineWidth(3);  //whisk width of 3
         gc.strokeLine(x, y, leftWhiskerX, leftWhiskerY); // Left whisker
         gc.strokeLine(x, y, rightWhiskerX, rightWhiskerY); // Right whisker
+    }
 
-        // Detecting borders for whiskers
-        detectBorderCollision(leftWhiskerX, leftWhiskerY);
-        detectBorderCollision(rightWhiskerX, rightWhiskerY);
+    @Override
+    public double drawRadius() {
+        return WHISKER_LENGTH + 2; // Whisker tips, plus half the line width
     }
 
     /**
-     * changes direction when whiskers hit border
+     * Turns the robot when either whisker reaches past the arena border.
      *
-     * @param whiskerX The x-coordinate of whisker tip.
-     * @param whiskerY The y-coordinate of whisker tip.
+     * @param arena The arena whose border is checked.
      */
-    private void detectBorderCollision(double whiskerX, double whiskerY) {
-        // making the arena size 700x600 
-        double arenaWidth = 700;
-        double arenaHeight = 600;
+    public void detectBorderCollision(RobotArena arena) {
+        updateHeading();
+        direction = borderTurn(x, y, direction, headingX, headingY, arena.getWidth(), arena.getHeight());
+    }
+
+    /**
+     * Applies the whisker border check to a robot's state.
+     *
+     * @param x           The x-coordinate of the robot.
+     * @param y           The y-coordinate of the robot.
+     * @param direction   The direction of the robot in degrees.
+     * @param headingX    The x-component of the robot's unit heading.
+     * @param headingY    The y-component of the robot's unit heading.
+     * @param arenaWidth  The width of the arena.
+     * @param arenaHeight The height of the arena.
+     * @return The direction after turning for any whisker past the border.
+     */
+    static double borderTurn(double x, double y, double direction, double headingX, double headingY,
+                             double arenaWidth, double arenaHeight) {
+        // Whiskers cannot reach the border from further away than their length
+        if (x > WHISKER_LENGTH + 1 && x < arenaWidth - WHISKER_LENGTH - 1
+                && y > WHISKER_LENGTH + 1 && y < arenaHeight - WHISKER_LENGTH - 1) {
+            return direction;
+        }
+
+        // Both tips are taken before either whisker turns the robot, at the same points the rays are cast to
+        double leftWhiskerX = tipX(x, headingX, headingY, LEFT);
+        double leftWhiskerY = tipY(y, headingX, headingY, LEFT);
+        double rightWhiskerX = tipX(x, headingX, headingY, RIGHT);
+        double rightWhiskerY = tipY(y, headingX, headingY, RIGHT);
 
-        if (whiskerX < 0 || whiskerX > arenaWidth || whiskerY < 0 || whiskerY > arenaHeight) {
-            // If the whisker goes out of bounds, turn the robot
+        if (isOutsideArena(leftWhiskerX, leftWhiskerY, arenaWidth, arenaHeight)) {
             direction = (direction + 45) % 360; // Change direction by 45 degrees
         }
+        if (isOutsideArena(rightWhiskerX, rightWhiskerY, arenaWidth, arenaHeight)) {
+            direction = (direction + 45) % 360;
+        }
+        return direction;
+    }
+
+    /**
+     * Checks whether a whisker tip has gone past the border.
+     *
+     * @param whiskerX    The x-coordinate of whisker tip.
+     * @param whiskerY    The y-coordinate of whisker tip.
+     * @param arenaWidth  The width of the arena.
+     * @param arenaHeight The height of the arena.
+     * @return True if the tip is outside the arena.
+     */
+    private static boolean isOutsideArena(double whiskerX, double whiskerY, double arenaWidth, double arenaHeight) {
+        return whiskerX < 0 || whiskerX > arenaWidth || whiskerY < 0 || whiskerY > arenaHeight;
     }
 
     /**
-     * Adjusts direction when whiskers touch an obstacle.
+     * Adjusts direction for each whisker that touches an obstacle.
      *
      * @param obstacle The obstacle to check against.
      */
     public void detectCollision(Obstacle obstacle) {
-        double distance = Math.sqrt(Math.pow(x - obstacle.getX(), 2) + Math.pow(y - obstacle.getY(), 2));
-        if (distance < 75) {
+        double half = obstacle.getSizing();
+        double minX = obstacle.getX() - half, minY = obstacle.getY() - half;
+        double maxX = obstacle.getX() + half, maxY = obstacle.getY() + half;
+        updateHeading();
+        int hits = 0;
+        for (int side = LEFT; side <= RIGHT; side += 2) {
+            if (BoxGrid.touches(x, y, tipX(x, headingX, headingY, side) - x, tipY(y, headingX, headingY, side) - y,
+                                minX, minY, maxX, maxY)) {
+                hits++;
+            }
+        }
+        for (int h = 0; h < hits; h++) {
+            direction = (direction + 45) % 360; // Change direction
+        }
+    }
+
+    /**
+     * Casts both whiskers against the arena's obstacle boxes and adjusts direction for
+     * each one that touches an obstacle. Both whiskers are cast before either one turns the robot.
+     *
+     * @param arena The arena whose obstacle boxes are checked.
+     * @return True if either whisker touched an obstacle.
+     */
+    public boolean detectCollision(RobotArena arena) {
+        BoxGrid boxes = arena.getObstacleBoxes();
+        updateHeading();
+        boolean left = boxes.castRay(x, y, tipX(x, headingX, headingY, LEFT), tipY(y, headingX, headingY, LEFT));
+        boolean right = boxes.castRay(x, y, tipX(x, headingX, headingY, RIGHT), tipY(y, headingX, headingY, RIGHT));
+        direction = whiskerTurn(direction, left, right);
+        return left || right;
+    }
+
+    /**
+     * Turns a robot for its whiskers' contacts, 45 degrees for each whisker touching something.
+     *
+     * @param direction The direction of the robot in degrees.
+     * @param left      Whether the left whisker touches.
+     * @param right     Whether the right whisker touches.
+     * @return The new direction.
+     */
+    static double whiskerTurn(double direction, boolean left, boolean right) {
+        if (left) {
             direction = (direction + 45) % 360; // Change direction
         }
+        if (right) {
+            direction = (direction + 45) % 360;
+        }
+        return direction;
+    }
+
+    /**
+     * Returns the x-coordinate of a whisker tip, found by rotating the robot's heading
+     * rather than taking the sine and cosine of the whisker's direction.
+     *
+     * @param x        The x-coordinate of the robot.
+     * @param headingX The x-component of the robot's unit heading.
+     * @param headingY The y-component of the robot's unit heading.
+     * @param side     LEFT or RIGHT.
+     * @return The x-coordinate of the tip.
+     */
+    static double tipX(double x, double headingX, double headingY, int side) {
+        return x + WHISKER_FORWARD * headingX - side * WHISKER_SIDEWAYS * headingY;
+    }
+
+    /**
+     * Returns the y-coordinate of a whisker tip, found by rotating the robot's heading.
+     *
+     * @param y        The y-coordinate of the robot.
+     * @param headingX The x-component of the robot's unit heading.
+     * @param headingY The y-component of the robot's unit heading.
+     * @param side     LEFT or RIGHT.
+     * @return The y-coordinate of the tip.
+     */
+    static double tipY(double y, double headingX, double headingY, int side) {
+        return y + WHISKER_FORWARD * headingY + side * WHISKER_SIDEWAYS * headingX;
+    }
+
+    /**
+     * Runs whisker robots' whiskers against the obstacles and the arena border.
+     */
+    static final class WhiskerStage implements BehaviourStage {
+        @Override
+        public int senseItems(RobotArena arena, List<Robot> robots, int[] members, int from, int to) {
+            int contacts = 0;
+            for (int m = from; m < to; m++) {
+                WhiskerRobot robot = (WhiskerRobot) robots.get(members[m]);
+                if (robot.detectCollision(arena)) contacts++;
+                robot.detectBorderCollision(arena);
+            }
+            return contacts;
+        }
+
+        @Override
+        public int senseCompact(RobotArena arena, RobotStore store, int[] members, int from, int to) {
+            return store.detectWhiskers(arena, members, from, to);
+        }
     }
 }
@@ -0,0 +1,55 @@
+package testjfx;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Saves arenas and loads them back: every obstacle and every robot with a RobotType comes
+ * back as it was, robot objects and compact robots alike, while robots of no type are
+ * left out rather than failing the save.
+ *
+ * Usage: java testjfx.ArenaFileTest
+ */
+public class ArenaFileTest {
+    public static void main(String[] args) throws Exception {
+        RobotArena arena = RobotArena.empty(900, 700);
+        arena.addRandomObstacle();
+        arena.addRandomObstacle();
+        arena.addItem(new Robot(300, 300, 10));           // No type, so not saved
+        Robot regular = arena.addRandomRobot(RobotType.REGULAR);
+        Robot ghost = arena.addRandomRobot(RobotType.GHOST);
+        ghost.speed = 0.5;
+        arena.getCompactRobots().add(RobotType.WHISKER, 120, 130, 45);
+
+        Path file = Files.createTempFile("arena", "." + ArenaFile.EXTENSION);
+        try {
+            ArenaFile.write(arena, file);
+            RobotArena loaded = ArenaFile.read(file);
+            Check.that(loaded.getWidth() == 900 && loaded.getHeight() == 700, "arena size not loaded");
+            Check.that(loaded.getObstacles().size() == 2, "loaded %d obstacles of 2", loaded.getObstacles().size());
+            Check.that(loaded.getRobots().size() == 2, "loaded %d robot objects of 2 typed", loaded.getRobots().size());
+            checkSame(regular, loaded.getRobots().get(0));
+            checkSame(ghost, loaded.getRobots().get(1));
+            RobotStore compact = loaded.getCompactRobots();
+            Check.that(compact.size() == 1 && compact.getType(0) == RobotType.WHISKER && compact.getX(0) == 120
+                       && compact.getY(0) == 130 && compact.getDirection(0) == 45, "compact robot not loaded");
+        } finally {
+            Files.delete(file);
+        }
+
+        boolean rejected = false;
+        try {
+            arena.getCompactRobots().add(new Robot(0, 0, 0));
+        } catch (IllegalArgumentException e) {
+            rejected = true;
+        }
+        Check.that(rejected, "a robot of no type was stored compactly");
+        System.out.println("ArenaFileTest passed");
+    }
+
+    private static void checkSame(Robot saved, Robot loaded) {
+        Check.that(loaded.getType() == saved.getType() && loaded.getX() == saved.getX() && loaded.getY() == saved.getY()
+                   && loaded.direction == saved.direction && loaded.speed == saved.speed,
+                   "%s not loaded as saved", saved.getType());
+    }
+}
@@ -0,0 +1,23 @@
+package testjfx;
+
+/**
+ * The assertions the test programs use. A failed check throws, so the program exits
+ * with a stack trace pointing at it.
+ */
+final class Check {
+    private Check() {
+    }
+
+    /**
+     * Fails unless a condition holds.
+     *
+     * @param condition The condition.
+     * @param message   What went wrong, with String.format placeholders.
+     * @param args      The values for the placeholders.
+     */
+    static void that(boolean condition, String message, Object... args) {
+        if (!condition) {
+            throw new AssertionError(String.format(message, args));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package testjfx;
+
+/**
+ * Checks that a handle, once its item is removed, never refers to an item again however
+ * often its slot is reused, and that Remove Last Obstacle skips such handles.
+ *
+ * Usage: java testjfx.HandleTableTest
+ */
+public class HandleTableTest {
+    public static void main(String[] args) {
+        checkStaleHandles();
+        checkRemoveLastObstacle();
+        System.out.println("HandleTableTest passed");
+    }
+
+    /**
+     * Frees and reuses one slot far more often than it has generations.
+     */
+    private static void checkStaleHandles() {
+        HandleTable table = new HandleTable();
+        int first = table.allocate(Obstacle.at(0, 0), 0);
+        table.release(first);
+        for (int i = 0; i < 5000; i++) {
+            Obstacle obstacle = Obstacle.at(i, i);
+            int handle = table.allocate(obstacle, 0);
+            Check.that(handle >= 0, "negative handle %d", handle);
+            Check.that(handle != first, "handle %d reissued after %d reuses", first, i + 1);
+            Check.that(table.get(handle) == obstacle, "handle %d does not find its item", handle);
+            Check.that(table.get(first) == null, "stale handle %d found an item after %d reuses", first, i + 1);
+            table.release(handle);
+            Check.that(table.get(handle) == null, "released handle %d still finds its item", handle);
+        }
+    }
+
+    /**
+     * Removes an obstacle out of order, then adds and removes robots in its slot until
+     * every generation has been through it, so the obstacle stack holds a handle whose
+     * slot a robot now has.
+     */
+    private static void checkRemoveLastObstacle() {
+        RobotArena arena = RobotArena.empty(700, 600);
+        Obstacle first = arena.addRandomObstacle();
+        int removed = arena.addRandomObstacle().getHandle();
+        arena.remove(removed);
+        for (int i = 0; i < 511; i++) { // Brings 7, 8 or 9 generation bits back round to the obstacle's
+            Robot robot = arena.addRandomRobot(RobotType.REGULAR);
+            Check.that(robot.getHandle() != removed, "robot %d took the removed obstacle's handle", i);
+            arena.remove(robot.getHandle());
+        }
+        Robot robot = arena.addRandomRobot(RobotType.REGULAR);
+        arena.removeLastObstacle();
+        Check.that(arena.getRobots().contains(robot), "Remove Last Obstacle removed a robot");
+        Check.that(arena.getObstacles().isEmpty() && first.getHandle() == -1, "Remove Last Obstacle left the obstacle");
+    }
+}
@@ -0,0 +1,64 @@
+package testjfx;
+
+/**
+ * Checks how touching robots react with robot collisions on: solid robots turn away from
+ * each other, while ghosts and robots of no RobotType pass through and are passed through.
+ *
+ * Usage: java testjfx.RobotCollisionTest
+ */
+public class RobotCollisionTest {
+    public static void main(String[] args) {
+        checkSolidPair();
+        checkTypelessRobot();
+        System.out.println("RobotCollisionTest passed");
+    }
+
+    /**
+     * Two regular robots heading into each other both reverse.
+     */
+    private static void checkSolidPair() {
+        RobotArena arena = RobotArena.empty(600, 600);
+        Robot left = new RegularRobot(300, 300, 0);
+        Robot right = new RegularRobot(310, 300, 180);
+        arena.addItem(left);
+        arena.addItem(right);
+        Check.that(arena.collideRobots(tags(arena)) == 1, "touching robots not paired");
+        Check.that(left.direction == 180 && right.direction == 0, "regular robots did not reverse: %f, %f",
+                   left.direction, right.direction);
+    }
+
+    /**
+     * A plain Robot touching a regular robot, a compact regular robot and a ghost: nobody
+     * turns, and the step does not fail.
+     */
+    private static void checkTypelessRobot() {
+        RobotArena arena = RobotArena.empty(600, 600);
+        Robot typeless = new Robot(300, 300, 0);
+        Robot regular = new RegularRobot(335, 300, 180); // Each touching the typeless robot, but not each other
+        Robot ghost = new GhostRobot(300, 335, 270);
+        arena.addItem(typeless);
+        arena.addItem(regular);
+        arena.addItem(ghost);
+        int compact = arena.getCompactRobots().add(RobotType.REGULAR, 265, 300, 0);
+        Check.that(arena.collideRobots(tags(arena)) == 3, "touching robots not paired");
+        Check.that(typeless.direction == 0 && regular.direction == 180 && ghost.direction == 270
+                   && arena.getCompactRobots().getDirection(compact) == 0, "a robot turned off a typeless robot");
+
+        SimulationEngine engine = new SimulationEngine(arena, new UserControlledRobot(50, 50));
+        engine.setRobotCollisions(true);
+        engine.step(1);
+        Check.that(engine.getTickCount() == 1, "step with a typeless robot did not finish");
+    }
+
+    /**
+     * Lists the type tags of an arena's robot objects, as the engine keeps them.
+     */
+    private static byte[] tags(RobotArena arena) {
+        byte[] tags = new byte[arena.getRobots().size()];
+        for (int i = 0; i < tags.length; i++) {
+            RobotType type = arena.getRobots().get(i).getType();
+            tags[i] = type == null ? TypeGroups.NO_TYPE : type.tag();
+        }
+        return tags;
+    }
+}
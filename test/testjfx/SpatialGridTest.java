@@ -0,0 +1,176 @@
+package testjfx;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Checks the obstacle grid against the brute-force loop it replaced, on random arenas:
+ * every robot's sensors must end up exactly as if it had checked each obstacle in turn,
+ * in the order the obstacles were added.
+ *
+ * Usage: java testjfx.SpatialGridTest [arenas]
+ */
+public class SpatialGridTest {
+    private static final RobotType[] TYPES = RobotType.values();
+
+    public static void main(String[] args) throws Exception {
+        int arenas = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        SplittableRandom random = new SplittableRandom(1);
+        for (int a = 0; a < arenas; a++) {
+            RobotArena arena = randomArena(random);
+            checkArena(arena, random);
+        }
+        checkSavedOrder();
+        System.out.println("SpatialGridTest: " + arenas + " arenas passed");
+    }
+
+    /**
+     * Builds an arena with a random number of obstacles, some removed again out of order.
+     */
+    private static RobotArena randomArena(SplittableRandom random) {
+        RobotArena arena = new RobotArena(random.nextLong(), 200 + random.nextDouble(1800), 200 + random.nextDouble(1800));
+        int obstacles = random.nextInt(60);
+        for (int i = 0; i < obstacles; i++) {
+            arena.addRandomObstacle();
+        }
+        List<Obstacle> all = arena.getObstacles();
+        for (int removals = random.nextInt(5); removals > 0 && !all.isEmpty(); removals--) {
+            if (random.nextBoolean()) {
+                arena.removeLastObstacle();
+            } else {
+                arena.remove(all.get(random.nextInt(all.size())).getHandle());
+            }
+        }
+        arena.updateGrid();
+        return arena;
+    }
+
+    private static void checkArena(RobotArena arena, SplittableRandom random) {
+        List<Obstacle> inOrder = arena.getObstaclesInOrder();
+        Check.that(inOrder.size() == arena.getObstacles().size(), "obstacles in order lost some obstacles");
+        SpatialGrid grid = arena.getObstacleGrid();
+        RobotStore store = new RobotStore();
+        int robots = 300;
+        RegularRobot[] regular = new RegularRobot[robots];
+        GhostRobot[] ghosts = new GhostRobot[robots];
+        double[] expectedDirection = new double[robots], expectedSpeed = new double[robots];
+        int[] bumpers = new int[robots], ghostMembers = new int[robots];
+
+        for (int i = 0; i < robots; i++) {
+            double x = random.nextDouble(arena.getWidth()), y = random.nextDouble(arena.getHeight());
+            double direction = random.nextDouble(360);
+            double speed = random.nextBoolean() ? 1 : 0.5;
+
+            // The brute-force loop: every obstacle in the order added
+            RegularRobot bruteBump = new RegularRobot(x, y, direction);
+            GhostRobot bruteGhost = new GhostRobot(x, y, direction);
+            bruteGhost.speed = speed;
+            int within = 0;
+            for (Obstacle obstacle : inOrder) {
+                bruteBump.detectCollision(obstacle);
+                bruteGhost.detectProximity(obstacle);
+                if (Kinematics.withinRange(x - obstacle.getX(), y - obstacle.getY(), RegularRobot.COLLISION_RANGE)) {
+                    within++;
+                }
+            }
+            expectedDirection[i] = bruteBump.direction;
+            expectedSpeed[i] = bruteGhost.speed;
+            Check.that(grid.countWithin(x, y, RegularRobot.COLLISION_RANGE) == within,
+                       "grid counted a different number of obstacles within range at (%f, %f)", x, y);
+
+            // The grid paths, for robot objects and compact robots
+            regular[i] = new RegularRobot(x, y, direction);
+            regular[i].detectCollision(arena);
+            Check.that(regular[i].direction == expectedDirection[i], "bump sensor differs at (%f, %f)", x, y);
+            ghosts[i] = new GhostRobot(x, y, direction);
+            ghosts[i].speed = speed;
+            ghosts[i].detectProximity(arena);
+            Check.that(ghosts[i].speed == expectedSpeed[i], "ghost speed differs at (%f, %f): %f, expected %f",
+                       x, y, ghosts[i].speed, expectedSpeed[i]);
+            bumpers[i] = store.add(RobotType.REGULAR, x, y, direction);
+            ghostMembers[i] = store.add(RobotType.GHOST, x, y, direction);
+            store.setSpeed(ghostMembers[i], speed);
+        }
+
+        store.detectBumps(arena, bumpers, 0, robots);
+        store.detectProximity(arena, ghostMembers, 0, robots);
+        for (int i = 0; i < robots; i++) {
+            Check.that(store.getDirection(bumpers[i]) == expectedDirection[i], "compact bump sensor differs");
+            Check.that(store.getSpeed(ghostMembers[i]) == expectedSpeed[i], "compact ghost speed differs");
+        }
+        checkWhiskers(arena, random);
+    }
+
+    /**
+     * Whisker tips must lie 30 degrees either side of the heading, and rays cast through
+     * the obstacle boxes must touch exactly the obstacles a whisker checked against each
+     * obstacle's box would. Compact whisker robots must turn as robot objects do.
+     */
+    private static void checkWhiskers(RobotArena arena, SplittableRandom random) {
+        BoxGrid boxes = arena.getObstacleBoxes();
+        for (int i = 0; i < 300; i++) {
+            double x = random.nextDouble(arena.getWidth()), y = random.nextDouble(arena.getHeight());
+            double direction = random.nextDouble(360);
+            double headingX = Kinematics.cos(direction), headingY = Kinematics.sin(direction);
+            for (int side = WhiskerRobot.LEFT; side <= WhiskerRobot.RIGHT; side += 2) {
+                double tipX = WhiskerRobot.tipX(x, headingX, headingY, side);
+                double tipY = WhiskerRobot.tipY(y, headingX, headingY, side);
+                double whisker = direction + side * 30; // The whisker's own direction
+                Check.that(Math.abs(tipX - x - WhiskerRobot.WHISKER_LENGTH * Kinematics.cos(whisker)) < 1e-3
+                           && Math.abs(tipY - y - WhiskerRobot.WHISKER_LENGTH * Kinematics.sin(whisker)) < 1e-3,
+                           "whisker tip off its direction at %f degrees", direction);
+                boolean brute = false;
+                for (Obstacle obstacle : arena.getObstacles()) {
+                    double half = obstacle.getSizing();
+                    brute |= BoxGrid.touches(x, y, tipX - x, tipY - y, obstacle.getX() - half, obstacle.getY() - half,
+                                             obstacle.getX() + half, obstacle.getY() + half);
+                }
+                Check.that(boxes.castRay(x, y, tipX, tipY) == brute, "whisker ray differs at (%f, %f)", x, y);
+            }
+        }
+
+        // Robot objects and compact robots turn alike for their whiskers and the border
+        RobotStore store = new RobotStore();
+        int[] members = new int[300];
+        WhiskerRobot[] robots = new WhiskerRobot[members.length];
+        for (int i = 0; i < members.length; i++) {
+            double x = random.nextDouble(arena.getWidth()), y = random.nextDouble(arena.getHeight());
+            double direction = random.nextDouble(360);
+            robots[i] = new WhiskerRobot(x, y, direction);
+            robots[i].detectCollision(arena);
+            robots[i].detectBorderCollision(arena);
+            members[i] = store.add(RobotType.WHISKER, x, y, direction);
+        }
+        store.detectWhiskers(arena, members, 0, members.length);
+        for (int i = 0; i < members.length; i++) {
+            Check.that(store.getDirection(members[i]) == robots[i].direction, "compact whisker robot turned differently");
+        }
+    }
+
+    /**
+     * Saving and loading an arena keeps the order its obstacles were added in, which
+     * decides the ghosts' speed and which obstacle Remove Last Obstacle takes.
+     */
+    private static void checkSavedOrder() throws Exception {
+        RobotArena arena = new RobotArena(5, 700, 600);
+        for (int i = 0; i < 10; i++) {
+            arena.addRandomObstacle();
+        }
+        arena.remove(arena.getObstaclesInOrder().get(2).getHandle()); // Reorders the obstacle list
+        Path file = Files.createTempFile("arena", "." + ArenaFile.EXTENSION);
+        try {
+            ArenaFile.write(arena, file);
+            RobotArena loaded = ArenaFile.read(file);
+            List<Obstacle> before = arena.getObstaclesInOrder(), after = loaded.getObstaclesInOrder();
+            Check.that(before.size() == after.size(), "loaded %d obstacles of %d", after.size(), before.size());
+            for (int i = 0; i < before.size(); i++) {
+                Check.that(before.get(i).getX() == after.get(i).getX() && before.get(i).getY() == after.get(i).getY(),
+                           "obstacle %d loaded out of order", i);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
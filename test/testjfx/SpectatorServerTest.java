@@ -0,0 +1,166 @@
+package testjfx;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streams an arena to spectators over the loopback address and checks that each one
+ * rebuilds exactly the robots the server holds: the whole arena on connecting, then every
+ * step's moves, arrivals and removals, only within its view when it has set one. A
+ * spectator that never reads must not hold up the steps or the other spectators.
+ *
+ * Usage: java testjfx.SpectatorServerTest
+ */
+public class SpectatorServerTest {
+    private static final double EVERYWHERE = 1e9;
+    private static final long TIMEOUT = 5_000_000_000L; // Nanoseconds to wait for a spectator to catch up
+
+    public static void main(String[] args) throws Exception {
+        SimulationEngine engine = SimulationEngine.newSession(7, 2000, 2000);
+        RobotArena arena = engine.getArena();
+        for (int i = 0; i < 50; i++) {
+            arena.addRandomRobot(RobotType.values()[i % 3]);
+        }
+        arena.spawnRobots(RobotType.values(), 5000, Population.Distribution.UNIFORM, 3, true);
+
+        try (SpectatorServer server = new SpectatorServer(0)) {
+            engine.setSpectators(server);
+            engine.step(1);
+
+            // Spectators joining a running arena are sent all of it
+            SpectatorClient all = new SpectatorClient(server.getPort());
+            SpectatorClient viewing = new SpectatorClient(server.getPort());
+            viewing.setView(500, 500, 1200, 1000);
+            SocketChannel stuck = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                                                           server.getPort()));
+            awaitClients(server, 3);
+            engine.step(1);
+            checkSpectator(all, engine, -EVERYWHERE, -EVERYWHERE, EVERYWHERE, EVERYWHERE);
+            checkSpectator(viewing, engine, 500, 500, 1200, 1000);
+
+            // Robots move, arrive and are removed, and the view moves
+            for (int t = 0; t < 300; t++) {
+                if (t % 37 == 0) arena.addRandomRobot(RobotType.GHOST);
+                if (t % 41 == 0) arena.remove(arena.getRobots().get(t % arena.getRobots().size()).getHandle());
+                if (t % 43 == 0) arena.getCompactRobots().remove(t % arena.getCompactRobots().size());
+                if (t == 100) arena.addRandomObstacle();
+                if (t == 141) viewing.setView(0, 0, 800, 800);
+                engine.step(1);
+                if (t % 10 == 0) {
+                    checkSpectator(all, engine, -EVERYWHERE, -EVERYWHERE, EVERYWHERE, EVERYWHERE);
+                    if (t > 141) {
+                        checkSpectator(viewing, engine, 0, 0, 800, 800);
+                    } else {
+                        checkSpectator(viewing, engine, 500, 500, 1200, 1000);
+                    }
+                }
+            }
+
+            // Stepping flat out past a spectator that reads nothing, which must soon fill its socket
+            TickProfiler profiler = engine.getProfiler();
+            profiler.setEnabled(true);
+            engine.run(2000);
+            long slowest = profiler.getHistogram(TickProfiler.Phase.SPECTATE).getMax();
+            Check.that(slowest < 50_000_000L, "publishing took %d ns with a stuck spectator", slowest);
+            checkSpectator(all, engine, -EVERYWHERE, -EVERYWHERE, EVERYWHERE, EVERYWHERE);
+            Check.that(server.getClientCount() == 3, "a spectator was dropped");
+
+            // A new arena replaces the spectators'
+            RobotArena fresh = new RobotArena(9, 1000, 800);
+            fresh.spawnRobots(RobotType.values(), 300, Population.Distribution.UNIFORM, 4, true);
+            engine.setArena(fresh);
+            engine.step(1);
+            ArenaSnapshot snapshot = checkSpectator(all, engine, -EVERYWHERE, -EVERYWHERE, EVERYWHERE, EVERYWHERE);
+            Check.that(snapshot.getWidth() == 1000 && snapshot.getHeight() == 800, "the new arena's size was not sent");
+
+            engine.setSpectators(null);
+            stuck.close();
+            all.close();
+            viewing.close();
+        }
+        System.out.println("SpectatorServerTest passed");
+    }
+
+    /**
+     * Waits for a spectator to receive the engine's latest step and checks it against the arena.
+     *
+     * @return The spectator's snapshot.
+     */
+    private static ArenaSnapshot checkSpectator(SpectatorClient client, SimulationEngine engine,
+                                                double minX, double minY, double maxX, double maxY)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT;
+        ArenaSnapshot snapshot;
+        while ((snapshot = client.latest()).getTick() < engine.getTickCount()) {
+            Check.that(client.isConnected(), "spectator disconnected: %s", client.getFailure());
+            Check.that(System.nanoTime() < deadline, "spectator stuck at tick %d of %d", snapshot.getTick(),
+                       engine.getTickCount());
+            Thread.sleep(1);
+        }
+        RobotArena arena = engine.getArena();
+        List<String> expected = serverRobots(arena, minX, minY, maxX, maxY);
+        List<String> received = spectatorRobots(snapshot);
+        Check.that(snapshot.getTick() == engine.getTickCount(), "spectator ran ahead to tick %d", snapshot.getTick());
+        Check.that(received.equals(expected), "spectator has %d robots at tick %d, the server %d, or they differ",
+                   received.size(), snapshot.getTick(), expected.size());
+        Check.that(snapshot.getObstacleCount() == arena.getObstacles().size(), "spectator has %d obstacles of %d",
+                   snapshot.getObstacleCount(), arena.getObstacles().size());
+        return snapshot;
+    }
+
+    /**
+     * Lists the robots within a view in the units the server sends them in, sorted.
+     */
+    private static List<String> serverRobots(RobotArena arena, double minX, double minY, double maxX, double maxY) {
+        List<String> robots = new ArrayList<>();
+        for (Robot robot : arena.getRobots()) {
+            RobotType type = robot.getType();
+            if (type != null && robot.getX() >= minX && robot.getX() <= maxX
+                    && robot.getY() >= minY && robot.getY() <= maxY) {
+                robots.add(describe(type.tag(), SpectatorServer.toPosition(robot.getX()),
+                                    SpectatorServer.toPosition(robot.getY()),
+                                    SpectatorServer.toDirection(robot.direction)));
+            }
+        }
+        RobotStore store = arena.getCompactRobots();
+        for (int i = 0; i < store.size(); i++) {
+            if (store.getX(i) >= minX && store.getX(i) <= maxX && store.getY(i) >= minY && store.getY(i) <= maxY) {
+                robots.add(describe(store.getTag(i), SpectatorServer.toPosition(store.getX(i)),
+                                    SpectatorServer.toPosition(store.getY(i)),
+                                    SpectatorServer.toDirection(store.getDirection(i))));
+            }
+        }
+        Collections.sort(robots);
+        return robots;
+    }
+
+    /**
+     * Lists the robots a spectator has, converted back to the units they were sent in, sorted.
+     */
+    private static List<String> spectatorRobots(ArenaSnapshot snapshot) {
+        List<String> robots = new ArrayList<>();
+        for (int i = 0; i < snapshot.getRobotCount(); i++) {
+            robots.add(describe(snapshot.getTag(i), Math.round(snapshot.getX(i) * SpectatorServer.POSITION_SCALE),
+                                Math.round(snapshot.getY(i) * SpectatorServer.POSITION_SCALE),
+                                Math.round(snapshot.getDirection(i) * SpectatorServer.DIRECTION_SCALE)));
+        }
+        Collections.sort(robots);
+        return robots;
+    }
+
+    private static String describe(byte tag, long x, long y, long direction) {
+        return tag + " " + x + " " + y + " " + direction;
+    }
+
+    private static void awaitClients(SpectatorServer server, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TIMEOUT;
+        while (server.getClientCount() < count) {
+            Check.that(System.nanoTime() < deadline, "only %d spectators connected", server.getClientCount());
+            Thread.sleep(1);
+        }
+    }
+}